@@ -11,11 +11,14 @@
  */
 package org.hydpy.openda.server;
 
+import java.io.IOException;
+import java.io.Writer;
 import java.util.Collection;
 import java.util.List;
 
 import org.apache.commons.lang3.StringUtils;
 import org.joda.time.Instant;
+import org.openda.interfaces.IArray;
 import org.openda.interfaces.IExchangeItem;
 import org.openda.interfaces.IExchangeItem.Role;
 
@@ -117,7 +120,7 @@ abstract class AbstractServerItem<TYPE>
 
   public abstract Collection<HydPyExchangeItemDescription> getExchangeItemDescriptions( );
 
-  public abstract TYPE parseValue( Instant startTime, Instant endTime, long stepSeconds, String valueText ) throws HydPyServerException;
+  public abstract TYPE parseValue( Instant startTime, Instant endTime, long stepSeconds, CharSequence valueText ) throws HydPyServerException;
 
   public abstract List<IExchangeItem> toExchangeItems( final TYPE value );
 
@@ -125,9 +128,54 @@ abstract class AbstractServerItem<TYPE>
 
   public abstract String printValue( TYPE value );
 
+  /**
+   * Prints the value directly into the writer, e.g. the body of a request.<br/>
+   * Items with potentially big values should override, the default implementation prints into a string first.
+   */
+  public void printValue( final TYPE value, final Writer writer ) throws IOException
+  {
+    writer.write( printValue( value ) );
+  }
+
+  /**
+   * Prints the value in the binary encoding, see {@link HydPyBinaryEncoding}. Only called if the server accepted this encoding.<br/>
+   * Items of double values should override, the default implementation prints the text format.
+   */
+  public void printBinaryValue( final TYPE value, final Writer writer ) throws IOException
+  {
+    printValue( value, writer );
+  }
+
   public abstract TYPE mergeToModelRange( TYPE initialRangeValue, TYPE currentRangeValue );
 
+  /**
+   * Same as {@link #mergeToModelRange(Object, Object)}, but may overwrite the given model range value, so the cost only depends on the length of the current range.<br/>
+   * The default implementation does not change the model range value.
+   */
+  public TYPE mergeToModelRangeInPlace( final TYPE modelRangeValue, final TYPE currentRangeValue )
+  {
+    return mergeToModelRange( modelRangeValue, currentRangeValue );
+  }
+
   public abstract TYPE restrictToCurrentRange( TYPE modelRangeValue, Instant currentStartTime, Instant currentEndTime );
 
   public abstract TYPE copy( TYPE value );
+
+  /**
+   * Big array values may be exchanged via shared memory instead of text, see {@link HydPySharedMemory}.
+   *
+   * @return The value as 2-dimensional array in the same layout as printed for HydPy, or <code>null</code> if this item is not exchanged via shared memory.
+   */
+  public IArray toSharedArray( final TYPE value )
+  {
+    return null;
+  }
+
+  /**
+   * Counterpart of {@link #toSharedArray(Object)}, only called for items that support shared memory.
+   */
+  public TYPE parseSharedArray( final Instant startTime, final Instant endTime, final long stepSeconds, final IArray values ) throws HydPyServerException
+  {
+    throw new HydPyServerException( String.format( "Item '%s' can not be exchanged via shared memory", getId() ) );
+  }
 }
\ No newline at end of file
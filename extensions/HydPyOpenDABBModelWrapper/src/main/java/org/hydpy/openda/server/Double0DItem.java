@@ -11,6 +11,9 @@
  */
 package org.hydpy.openda.server;
 
+import java.io.IOException;
+import java.io.Writer;
+
 import org.joda.time.Instant;
 import org.openda.exchange.DoubleExchangeItem;
 import org.openda.interfaces.IExchangeItem;
@@ -27,9 +30,12 @@ final class Double0DItem extends AbstractSingleServerItem<Double>
   }
 
   @Override
-  public Double parseValue( final Instant startTime, final Instant endTime, final long stepSeconds, final String valueText )
+  public Double parseValue( final Instant startTime, final Instant endTime, final long stepSeconds, final CharSequence valueText ) throws HydPyServerException
   {
-    return Double.parseDouble( valueText );
+    if( HydPyBinaryEncoding.isEncoded( valueText ) )
+      return HydPyBinaryEncoding.parseDouble( valueText );
+
+    return Double.parseDouble( valueText.toString() );
   }
 
   @Override
@@ -60,6 +66,15 @@ final class Double0DItem extends AbstractSingleServerItem<Double>
     return Double.toString( value );
   }
 
+  @Override
+  public void printBinaryValue( final Double value, final Writer writer ) throws IOException
+  {
+    if( value == null )
+      printValue( value, writer );
+    else
+      HydPyBinaryEncoding.print( writer, value );
+  }
+
   @Override
   public Double mergeToModelRange( final Double initialRangeValue, final Double currentRangeValue )
   {
@@ -11,6 +11,8 @@
  */
 package org.hydpy.openda.server;
 
+import java.io.IOException;
+import java.io.Writer;
 import java.util.Arrays;
 
 import org.joda.time.Instant;
@@ -29,8 +31,11 @@ final class Double1DItem extends AbstractSingleServerItem<double[]>
   }
 
   @Override
-  public double[] parseValue( final Instant startTime, final Instant endTime, final long stepSeconds, final String valueText )
+  public double[] parseValue( final Instant startTime, final Instant endTime, final long stepSeconds, final CharSequence valueText ) throws HydPyServerException
   {
+    if( HydPyBinaryEncoding.isEncoded( valueText ) )
+      return HydPyBinaryEncoding.parseDoubleArray( valueText );
+
     return HydPyUtils.parseDoubleArray( valueText );
   }
 
@@ -53,6 +58,18 @@ final class Double1DItem extends AbstractSingleServerItem<double[]>
     return HydPyUtils.printDoubleArray( value );
   }
 
+  @Override
+  public void printValue( final double[] value, final Writer writer ) throws IOException
+  {
+    HydPyUtils.printDoubleArray( writer, value );
+  }
+
+  @Override
+  public void printBinaryValue( final double[] value, final Writer writer ) throws IOException
+  {
+    HydPyBinaryEncoding.print( writer, value, value.length );
+  }
+
   @Override
   public double[] mergeToModelRange( final double[] initialRangeValue, final double[] currentRangeValue )
   {
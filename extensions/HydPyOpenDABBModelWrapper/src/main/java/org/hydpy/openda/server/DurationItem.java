@@ -28,9 +28,9 @@ final class DurationItem extends AbstractSingleServerItem<Long>
   }
 
   @Override
-  public Long parseValue( final Instant startTime, final Instant endTime, final long stepSeconds, final String valueText ) throws HydPyServerException
+  public Long parseValue( final Instant startTime, final Instant endTime, final long stepSeconds, final CharSequence valueText ) throws HydPyServerException
   {
-    return parseDuration( valueText );
+    return parseDuration( valueText.toString() );
   }
 
   @Override
@@ -0,0 +1,134 @@
+/**
+ * Copyright (c) 2021 by
+ * - Bundesanstalt für Gewässerkunde
+ * - Björnsen Beratende Ingenieure GmbH
+ * All rights reserved.
+ *
+ * This file is Free Software under the under the terms of the
+ * GNU Lesser General Public License (LGPL >=v3)
+ * and comes with ABSOLUTELY NO WARRANTY! Check out the
+ * documentation coming with HydPy for details.
+ */
+package org.hydpy.openda.server;
+
+import java.io.IOException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.http.HttpResponse;
+import org.apache.http.client.methods.HttpUriRequest;
+import org.apache.http.concurrent.FutureCallback;
+import org.apache.http.impl.nio.client.CloseableHttpAsyncClient;
+import org.apache.http.impl.nio.client.HttpAsyncClients;
+import org.apache.http.impl.nio.conn.PoolingNHttpClientConnectionManager;
+import org.apache.http.impl.nio.reactor.DefaultConnectingIOReactor;
+import org.apache.http.impl.nio.reactor.IOReactorConfig;
+import org.apache.http.nio.reactor.IOReactorException;
+
+/**
+ * Non-blocking http engine shared by all HydPy server processes.
+ * Requests are handled by a few i/o threads, so no thread is blocked while HydPy is simulating.
+ * The responses are decoded by a small shared pool of worker threads.
+ *
+ * @author Gernot Belger
+ */
+final class HydPyAsyncEngine
+{
+  private final CloseableHttpAsyncClient m_httpClient;
+
+  private final ExecutorService m_workers;
+
+  public HydPyAsyncEngine( final int connectionsPerServer, final int maxProcesses, final int workerThreads )
+  {
+    try
+    {
+      final IOReactorConfig reactorConfig = IOReactorConfig.custom() //
+          .setTcpNoDelay( true ) //
+          .setSoKeepAlive( true ) //
+          .build();
+
+      final DefaultConnectingIOReactor ioReactor = new DefaultConnectingIOReactor( reactorConfig, new HydPyThreadFactory( "HydPyServer I/O" ) );
+
+      final PoolingNHttpClientConnectionManager connectionManager = new PoolingNHttpClientConnectionManager( ioReactor );
+      connectionManager.setDefaultMaxPerRoute( connectionsPerServer );
+      connectionManager.setMaxTotal( connectionsPerServer * maxProcesses );
+
+      m_httpClient = HttpAsyncClients.custom() //
+          .setConnectionManager( connectionManager ) //
+          // REMARK: daemon threads only, else the JVM would never end (OpenDA does not tell us when it is finished)
+          .setThreadFactory( new HydPyThreadFactory( "HydPyServer I/O dispatcher" ) ) //
+          .build();
+    }
+    catch( final IOReactorException e )
+    {
+      throw new RuntimeException( "Failed to create http i/o reactor", e );
+    }
+
+    m_workers = Executors.newFixedThreadPool( workerThreads, new HydPyThreadFactory( "HydPyServer worker" ) );
+
+    m_httpClient.start();
+  }
+
+  /**
+   * The executor on which all non-i/o work (preparing requests and decoding responses) should happen.
+   */
+  public ExecutorService getWorkers( )
+  {
+    return m_workers;
+  }
+
+  /**
+   * Executes the request without blocking. The response is completely received before the returned future completes.
+   */
+  public CompletableFuture<HttpResponse> execute( final HttpUriRequest request )
+  {
+    final CompletableFuture<HttpResponse> future = new CompletableFuture<>();
+
+    m_httpClient.execute( request, new FutureCallback<HttpResponse>()
+    {
+      @Override
+      public void completed( final HttpResponse response )
+      {
+        future.complete( response );
+      }
+
+      @Override
+      public void failed( final Exception ex )
+      {
+        future.completeExceptionally( ex );
+      }
+
+      @Override
+      public void cancelled( )
+      {
+        future.cancel( false );
+      }
+    } );
+
+    return future;
+  }
+
+  public void close( )
+  {
+    try
+    {
+      m_httpClient.close();
+    }
+    catch( final IOException e )
+    {
+      e.printStackTrace();
+    }
+
+    m_workers.shutdown();
+    try
+    {
+      m_workers.awaitTermination( 1, TimeUnit.MINUTES );
+    }
+    catch( final InterruptedException e )
+    {
+      e.printStackTrace();
+    }
+  }
+}
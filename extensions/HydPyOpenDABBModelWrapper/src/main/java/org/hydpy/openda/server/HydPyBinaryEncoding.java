@@ -0,0 +1,219 @@
+/**
+ * Copyright (c) 2021 by
+ * - Bundesanstalt für Gewässerkunde
+ * - Björnsen Beratende Ingenieure GmbH
+ * All rights reserved.
+ *
+ * This file is Free Software under the under the terms of the
+ * GNU Lesser General Public License (LGPL >=v3)
+ * and comes with ABSOLUTELY NO WARRANTY! Check out the
+ * documentation coming with HydPy for details.
+ */
+package org.hydpy.openda.server;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.CharBuffer;
+import java.nio.DoubleBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Base64;
+
+import org.apache.commons.lang3.StringUtils;
+import org.openda.interfaces.IArray;
+import org.openda.utils.Array;
+
+/**
+ * Binary encoding of double values, exchanged with HydPy instead of the text format: <code>bin:&lt;f8:&lt;shape&gt;:&lt;base64&gt;</code>, i.e. little endian
+ * doubles in row-major order and the same layout as the nested lists of the text format. The shape is a comma separated list of the dimensions and empty for
+ * single values. NaN is written as is, so no special value is needed.<br/>
+ * The bytes are base64 encoded, as the body is exchanged as lines of text. This still saves printing and parsing every single value and keeps the full
+ * precision.<br/>
+ * Only used after the server has accepted the encoding via 'POST_register_valueencoding', else all values are exchanged as text.
+ *
+ * @author Gernot Belger
+ */
+final class HydPyBinaryEncoding
+{
+  private static final String PREFIX = "bin:"; //$NON-NLS-1$
+
+  private static final String DTYPE = "<f8"; //$NON-NLS-1$
+
+  static final String ARGUMENT_VALUEENCODING = "valueencoding"; //$NON-NLS-1$
+
+  static final String VALUE_ENCODING = PREFIX + DTYPE;
+
+  // REMARK: a multiple of 3 bytes, so the base64 of each chunk has no padding and all chunks together are valid base64
+  private static final int CHUNK_SIZE = 384;
+
+  private HydPyBinaryEncoding( )
+  {
+    throw new UnsupportedOperationException();
+  }
+
+  public static boolean isEncoded( final CharSequence valueText )
+  {
+    return StringUtils.startsWith( valueText, PREFIX );
+  }
+
+  public static void print( final Writer writer, final double value ) throws IOException
+  {
+    print( writer, new double[] { value }, new int[0] );
+  }
+
+  /**
+   * Prints the values with the given shape, all values are held only once in memory.
+   */
+  public static void print( final Writer writer, final double[] values, final int... shape ) throws IOException
+  {
+    printHeader( writer, shape );
+
+    final ByteBuffer bytes = ByteBuffer.allocate( CHUNK_SIZE * Double.BYTES ).order( ByteOrder.LITTLE_ENDIAN );
+    final DoubleBuffer doubles = bytes.asDoubleBuffer();
+
+    for( int offset = 0; offset < values.length; offset += CHUNK_SIZE )
+    {
+      final int count = Math.min( CHUNK_SIZE, values.length - offset );
+
+      doubles.clear();
+      doubles.put( values, offset, count );
+
+      printChunk( writer, bytes, count );
+    }
+  }
+
+  /**
+   * Prints a 2D array (given by its flat row-major values) in transposed order, i.e. as one row per column. Same as
+   * {@link HydPyUtils#printDoubleArray2DTransposed(Writer, double[], int, int)}, but binary.
+   */
+  public static void print2DTransposed( final Writer writer, final double[] values, final int rows, final int columns ) throws IOException
+  {
+    printHeader( writer, columns, rows );
+
+    final ByteBuffer bytes = ByteBuffer.allocate( CHUNK_SIZE * Double.BYTES ).order( ByteOrder.LITTLE_ENDIAN );
+    final DoubleBuffer doubles = bytes.asDoubleBuffer();
+
+    // REMARK: iterating over the transposed array in chunks, a chunk may span several columns
+    final int size = rows * columns;
+    for( int offset = 0; offset < size; offset += CHUNK_SIZE )
+    {
+      final int count = Math.min( CHUNK_SIZE, size - offset );
+
+      doubles.clear();
+      for( int i = offset; i < offset + count; i++ )
+      {
+        final int column = i / rows;
+        final int row = i % rows;
+        doubles.put( values[row * columns + column] );
+      }
+
+      printChunk( writer, bytes, count );
+    }
+  }
+
+  private static void printHeader( final Writer writer, final int... shape ) throws IOException
+  {
+    writer.write( PREFIX );
+    writer.write( DTYPE );
+    writer.write( ':' );
+
+    for( int i = 0; i < shape.length; i++ )
+    {
+      if( i > 0 )
+        writer.write( ',' );
+      writer.write( Integer.toString( shape[i] ) );
+    }
+
+    writer.write( ':' );
+  }
+
+  private static void printChunk( final Writer writer, final ByteBuffer bytes, final int count ) throws IOException
+  {
+    bytes.clear();
+    bytes.limit( count * Double.BYTES );
+
+    final ByteBuffer encoded = Base64.getEncoder().encode( bytes );
+    writer.write( new String( encoded.array(), 0, encoded.limit(), StandardCharsets.US_ASCII ) );
+  }
+
+  /**
+   * Parses a single value, i.e. an encoded value with empty shape.
+   */
+  public static double parseDouble( final CharSequence valueText ) throws HydPyServerException
+  {
+    return parse( valueText, 0, null )[0];
+  }
+
+  /**
+   * Parses a 1-dimensional array.
+   */
+  public static double[] parseDoubleArray( final CharSequence valueText ) throws HydPyServerException
+  {
+    return parse( valueText, 1, null );
+  }
+
+  /**
+   * Parses a 2-dimensional array, in the same layout as {@link HydPyUtils#parseArrayFromJson(CharSequence)}.
+   */
+  public static IArray parseArray2D( final CharSequence valueText ) throws HydPyServerException
+  {
+    final int[] shape = new int[2];
+    final double[] values = parse( valueText, 2, shape );
+    return new Array( values, shape, false );
+  }
+
+  private static double[] parse( final CharSequence valueText, final int rank, final int[] shape ) throws HydPyServerException
+  {
+    final int dataStart = PREFIX.length() + DTYPE.length() + 1;
+    final int headerEnd = StringUtils.indexOf( valueText, ':', dataStart );
+    if( headerEnd == -1 || !DTYPE.equals( valueText.subSequence( PREFIX.length(), dataStart - 1 ).toString() ) )
+      throw new HydPyServerException( String.format( "Invalid binary value: %s", StringUtils.abbreviate( valueText.toString(), 100 ) ) );
+
+    try
+    {
+      final int[] dimensions = parseShape( valueText.subSequence( dataStart, headerEnd ).toString() );
+      if( dimensions.length != rank )
+        throw new HydPyServerException( String.format( "Binary value: expected %d dimensions, got shape %s", rank, Arrays.toString( dimensions ) ) );
+
+      if( shape != null )
+        System.arraycopy( dimensions, 0, shape, 0, rank );
+
+      int size = 1;
+      for( final int dimension : dimensions )
+        size *= dimension;
+
+      int end = valueText.length();
+      while( end > headerEnd + 1 && Character.isWhitespace( valueText.charAt( end - 1 ) ) )
+        end--;
+
+      // REMARK: decoding from the char sequence without an intermediate string, values may be big
+      final ByteBuffer encoded = StandardCharsets.US_ASCII.encode( CharBuffer.wrap( valueText, headerEnd + 1, end ) );
+      final ByteBuffer decoded = Base64.getDecoder().decode( encoded ).order( ByteOrder.LITTLE_ENDIAN );
+      if( decoded.remaining() != size * Double.BYTES )
+        throw new HydPyServerException( String.format( "Binary value: %d bytes do not match shape %s", decoded.remaining(), Arrays.toString( dimensions ) ) );
+
+      final double[] values = new double[size];
+      decoded.asDoubleBuffer().get( values );
+      return values;
+    }
+    catch( final IllegalArgumentException e )
+    {
+      throw new HydPyServerException( String.format( "Invalid binary value: %s", StringUtils.abbreviate( valueText.toString(), 100 ) ), e );
+    }
+  }
+
+  private static int[] parseShape( final String shapeText )
+  {
+    if( shapeText.trim().isEmpty() )
+      return new int[0];
+
+    final String[] parts = StringUtils.split( shapeText, ',' );
+    final int[] shape = new int[parts.length];
+    for( int i = 0; i < parts.length; i++ )
+      shape[i] = Integer.parseInt( parts[i].trim() );
+
+    return shape;
+  }
+}
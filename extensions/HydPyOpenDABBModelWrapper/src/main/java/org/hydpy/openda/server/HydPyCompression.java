@@ -0,0 +1,360 @@
+/**
+ * Copyright (c) 2021 by
+ * - Bundesanstalt für Gewässerkunde
+ * - Björnsen Beratende Ingenieure GmbH
+ * All rights reserved.
+ *
+ * This file is Free Software under the under the terms of the
+ * GNU Lesser General Public License (LGPL >=v3)
+ * and comes with ABSOLUTELY NO WARRANTY! Check out the
+ * documentation coming with HydPy for details.
+ */
+package org.hydpy.openda.server;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+import java.util.zip.InflaterInputStream;
+
+import org.apache.commons.io.output.CountingOutputStream;
+import org.apache.http.Header;
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpHeaders;
+import org.apache.http.HttpRequest;
+import org.apache.http.entity.AbstractHttpEntity;
+import org.apache.http.entity.ByteArrayEntity;
+import org.apache.http.entity.ContentType;
+
+/**
+ * Handles the (optional) Content-Encoding of request and response bodies exchanged with one HydPy server process.
+ * Also records the achieved compression ratios and the time spent, so it can be decided per model if compression pays off.
+ *
+ * @author Gernot Belger
+ */
+final class HydPyCompression
+{
+  public enum Mode
+  {
+    off,
+    gzip,
+    deflate
+  }
+
+  /**
+   * Counts the bytes read from the underlying stream and the time spent reading (i.e. receiving and decompressing).
+   */
+  private static final class CountingInputStream extends FilterInputStream
+  {
+    private long m_count = 0;
+
+    private long m_nanos = 0;
+
+    public CountingInputStream( final InputStream in )
+    {
+      super( in );
+    }
+
+    @Override
+    public int read( ) throws IOException
+    {
+      final long start = System.nanoTime();
+      final int read = super.read();
+      m_nanos += System.nanoTime() - start;
+
+      if( read != -1 )
+        m_count++;
+
+      return read;
+    }
+
+    @Override
+    public int read( final byte[] b, final int off, final int len ) throws IOException
+    {
+      final long start = System.nanoTime();
+      final int read = super.read( b, off, len );
+      m_nanos += System.nanoTime() - start;
+
+      if( read > 0 )
+        m_count += read;
+
+      return read;
+    }
+
+    public long getCount( )
+    {
+      return m_count;
+    }
+
+    public long getNanos( )
+    {
+      return m_nanos;
+    }
+  }
+
+  /**
+   * Stream of a (possibly compressed) response, records the statistics when closed.
+   */
+  private final class ResponseInputStream extends FilterInputStream
+  {
+    private final CountingInputStream m_encoded;
+
+    private final CountingInputStream m_decoded;
+
+    private final String m_encoding;
+
+    private boolean m_closed = false;
+
+    public ResponseInputStream( final CountingInputStream encoded, final CountingInputStream decoded, final String encoding )
+    {
+      super( decoded );
+
+      m_encoded = encoded;
+      m_decoded = decoded;
+      m_encoding = encoding;
+    }
+
+    @Override
+    public void close( ) throws IOException
+    {
+      super.close();
+
+      if( m_closed )
+        return;
+      m_closed = true;
+
+      recordResponse( m_encoding, m_encoded.getCount(), m_decoded.getCount(), m_decoded.getNanos() );
+    }
+  }
+
+  /**
+   * Request body that is written directly into the connection, using chunked transfer encoding.
+   */
+  private final class StreamingBodyEntity extends AbstractHttpEntity
+  {
+    private final HydPyRequestBody m_body;
+
+    public StreamingBodyEntity( final HydPyRequestBody body, final ContentType contentType )
+    {
+      m_body = body;
+
+      setContentType( contentType.toString() );
+      setChunked( true );
+      if( m_mode != Mode.off )
+        setContentEncoding( m_mode.name() );
+    }
+
+    @Override
+    public boolean isRepeatable( )
+    {
+      /* the values are printed anew each time */
+      return true;
+    }
+
+    @Override
+    public long getContentLength( )
+    {
+      return -1;
+    }
+
+    @Override
+    public boolean isStreaming( )
+    {
+      return false;
+    }
+
+    @Override
+    public InputStream getContent( ) throws IOException
+    {
+      // REMARK: only used by the http client in special cases (e.g. logging of the wire), never for sending the request
+      final ByteArrayOutputStream bos = new ByteArrayOutputStream();
+      writeTo( bos );
+      return new ByteArrayInputStream( bos.toByteArray() );
+    }
+
+    @Override
+    public void writeTo( final OutputStream out ) throws IOException
+    {
+      if( m_mode == Mode.off )
+      {
+        m_body.writeTo( out );
+        return;
+      }
+
+      final long start = System.nanoTime();
+
+      final CountingOutputStream compressed = new CountingOutputStream( out );
+      // REMARK: must not close the connection stream, we only finish the compressed stream
+      final DeflaterOutputStream compressing = createCompressingStream( compressed );
+      final CountingOutputStream uncompressed = new CountingOutputStream( compressing );
+      m_body.writeTo( uncompressed );
+      compressing.finish();
+      compressing.flush();
+
+      // REMARK: the time includes sending the data, as compression happens while the request is written
+      recordRequest( uncompressed.getByteCount(), compressed.getByteCount(), System.nanoTime() - start );
+    }
+  }
+
+  private final AtomicLong m_compressedRequests = new AtomicLong();
+
+  private final AtomicLong m_requestBytes = new AtomicLong();
+
+  private final AtomicLong m_compressedRequestBytes = new AtomicLong();
+
+  private final AtomicLong m_requestNanos = new AtomicLong();
+
+  private final AtomicLong m_compressedResponses = new AtomicLong();
+
+  private final AtomicLong m_responseBytes = new AtomicLong();
+
+  private final AtomicLong m_compressedResponseBytes = new AtomicLong();
+
+  private final AtomicLong m_responseNanos = new AtomicLong();
+
+  private final Mode m_mode;
+
+  private final int m_threshold;
+
+  private final PrintStream m_debugOut;
+
+  public HydPyCompression( final Mode mode, final int threshold, final PrintStream debugOut )
+  {
+    m_mode = mode;
+    m_threshold = threshold;
+    m_debugOut = debugOut;
+  }
+
+  /**
+   * Creates the entity for a request body, compressed if enabled and the body is big enough.
+   */
+  public HttpEntity createBody( final byte[] body, final ContentType contentType ) throws IOException
+  {
+    if( m_mode == Mode.off || body.length < m_threshold )
+      return new ByteArrayEntity( body, contentType );
+
+    final long start = System.nanoTime();
+
+    final ByteArrayOutputStream bos = new ByteArrayOutputStream( body.length / 4 );
+    try( final OutputStream os = createCompressingStream( bos ) )
+    {
+      os.write( body );
+    }
+
+    final byte[] compressed = bos.toByteArray();
+
+    final long nanos = System.nanoTime() - start;
+
+    final ByteArrayEntity entity = new ByteArrayEntity( compressed, contentType );
+    entity.setContentEncoding( m_mode.name() );
+
+    recordRequest( body.length, compressed.length, nanos );
+
+    return entity;
+  }
+
+  /**
+   * Creates the entity for a request body that is printed directly into the connection while the request is sent, so the complete body is never held in
+   * memory.<br/>
+   * As the size is not known in advance, the body is always compressed if enabled.
+   */
+  public HttpEntity createStreamingBody( final HydPyRequestBody body, final ContentType contentType )
+  {
+    return new StreamingBodyEntity( body, contentType );
+  }
+
+  private void recordRequest( final long bytes, final long compressedBytes, final long nanos )
+  {
+    m_compressedRequests.incrementAndGet();
+    m_requestBytes.addAndGet( bytes );
+    m_compressedRequestBytes.addAndGet( compressedBytes );
+    m_requestNanos.addAndGet( nanos );
+
+    m_debugOut.format( "Compressed request (%s): %s%n", m_mode, formatRatio( bytes, compressedBytes, nanos ) );
+  }
+
+  private DeflaterOutputStream createCompressingStream( final OutputStream os ) throws IOException
+  {
+    switch( m_mode )
+    {
+      case gzip:
+        return new GZIPOutputStream( os );
+
+      case deflate:
+        return new DeflaterOutputStream( os );
+
+      default:
+        throw new IllegalStateException();
+    }
+  }
+
+  /**
+   * Tells the server which Content-Encoding we accept for the response.
+   */
+  public void acceptEncoding( final HttpRequest request )
+  {
+    if( m_mode != Mode.off )
+      request.addHeader( HttpHeaders.ACCEPT_ENCODING, m_mode.name() );
+  }
+
+  /**
+   * Opens the content of a response, decompressing it if the server did send it compressed.
+   */
+  public InputStream openContent( final HttpEntity entity ) throws IOException
+  {
+    final InputStream content = entity.getContent();
+
+    final Header encodingHeader = entity.getContentEncoding();
+    final String encoding = encodingHeader == null ? null : encodingHeader.getValue().trim();
+    if( encoding == null || encoding.isEmpty() || "identity".equalsIgnoreCase( encoding ) )
+      return content;
+
+    final CountingInputStream encoded = new CountingInputStream( content );
+    final InputStream decoding = createDecompressingStream( encoding, encoded );
+    return new ResponseInputStream( encoded, new CountingInputStream( decoding ), encoding );
+  }
+
+  private InputStream createDecompressingStream( final String encoding, final InputStream content ) throws IOException
+  {
+    if( "gzip".equalsIgnoreCase( encoding ) || "x-gzip".equalsIgnoreCase( encoding ) )
+      return new GZIPInputStream( content );
+
+    if( "deflate".equalsIgnoreCase( encoding ) )
+      return new InflaterInputStream( content );
+
+    throw new IOException( String.format( "Unsupported Content-Encoding of HydPy-Server response: %s", encoding ) );
+  }
+
+  void recordResponse( final String encoding, final long compressedBytes, final long bytes, final long nanos )
+  {
+    m_compressedResponses.incrementAndGet();
+    m_responseBytes.addAndGet( bytes );
+    m_compressedResponseBytes.addAndGet( compressedBytes );
+    m_responseNanos.addAndGet( nanos );
+
+    // REMARK: the time includes receiving the data, as decompression happens while the response is read
+    m_debugOut.format( "Decompressed response (%s): %s%n", encoding, formatRatio( bytes, compressedBytes, nanos ) );
+  }
+
+  public String getStatistics( )
+  {
+    final String requests = String.format( "%d compressed requests (%s)", m_compressedRequests.get(), formatRatio( m_requestBytes.get(), m_compressedRequestBytes.get(), m_requestNanos.get() ) );
+    final String responses = String.format( "%d compressed responses (%s)", m_compressedResponses.get(), formatRatio( m_responseBytes.get(), m_compressedResponseBytes.get(), m_responseNanos.get() ) );
+    return requests + ", " + responses;
+  }
+
+  private static String formatRatio( final long bytes, final long compressedBytes, final long nanos )
+  {
+    final double ratio = bytes == 0 ? 1.0 : (double)compressedBytes / bytes;
+    final long millis = TimeUnit.NANOSECONDS.toMillis( nanos );
+    return String.format( "%d -> %d bytes, ratio %.3f, %d ms", bytes, compressedBytes, ratio, millis );
+  }
+}
@@ -0,0 +1,135 @@
+/**
+ * Copyright (c) 2021 by
+ * - Bundesanstalt für Gewässerkunde
+ * - Björnsen Beratende Ingenieure GmbH
+ * All rights reserved.
+ *
+ * This file is Free Software under the under the terms of the
+ * GNU Lesser General Public License (LGPL >=v3)
+ * and comes with ABSOLUTELY NO WARRANTY! Check out the
+ * documentation coming with HydPy for details.
+ */
+package org.hydpy.openda.server;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.http.HttpHost;
+import org.apache.http.client.ResponseHandler;
+import org.apache.http.client.methods.HttpUriRequest;
+import org.apache.http.config.Registry;
+import org.apache.http.config.RegistryBuilder;
+import org.apache.http.config.SocketConfig;
+import org.apache.http.conn.socket.ConnectionSocketFactory;
+import org.apache.http.conn.socket.PlainConnectionSocketFactory;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.HttpClients;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.apache.http.protocol.HttpContext;
+
+/**
+ * Pool of keep-alive http connections to exactly one HydPy server process.
+ * Also counts how many connections were really opened, so we can see how often a connection was reused.
+ *
+ * @author Gernot Belger
+ */
+final class HydPyConnectionPool
+{
+  /**
+   * Plain socket factory that counts every successfully opened connection.
+   */
+  private static final class CountingSocketFactory implements ConnectionSocketFactory
+  {
+    private final ConnectionSocketFactory m_delegate = PlainConnectionSocketFactory.getSocketFactory();
+
+    private final AtomicLong m_openedConnections = new AtomicLong();
+
+    @Override
+    public Socket createSocket( final HttpContext context ) throws IOException
+    {
+      return m_delegate.createSocket( context );
+    }
+
+    @Override
+    public Socket connectSocket( final int connectTimeout, final Socket sock, final HttpHost host, final InetSocketAddress remoteAddress, final InetSocketAddress localAddress, final HttpContext context ) throws IOException
+    {
+      final Socket socket = m_delegate.connectSocket( connectTimeout, sock, host, remoteAddress, localAddress, context );
+      m_openedConnections.incrementAndGet();
+      return socket;
+    }
+
+    public long getOpenedConnections( )
+    {
+      return m_openedConnections.get();
+    }
+  }
+
+  private final AtomicLong m_requests = new AtomicLong();
+
+  private final CountingSocketFactory m_socketFactory = new CountingSocketFactory();
+
+  private final CloseableHttpClient m_httpClient;
+
+  public HydPyConnectionPool( final int poolSize, final int idleSeconds )
+  {
+    final Registry<ConnectionSocketFactory> socketFactories = RegistryBuilder.<ConnectionSocketFactory> create() //
+        .register( "http", m_socketFactory ) //
+        .build();
+
+    final PoolingHttpClientConnectionManager connectionManager = new PoolingHttpClientConnectionManager( socketFactories );
+    // REMARK: we only ever talk to exactly one host, so total and per-route limits are the same
+    connectionManager.setMaxTotal( poolSize );
+    connectionManager.setDefaultMaxPerRoute( poolSize );
+
+    final SocketConfig socketConfig = SocketConfig.custom() //
+        .setTcpNoDelay( true ) //
+        .setSoKeepAlive( true ) //
+        .build();
+    connectionManager.setDefaultSocketConfig( socketConfig );
+
+    // REMARK: HydPy (i.e. the python http server) may close a connection at any time, so we check connections that have been idle for a while.
+    connectionManager.setValidateAfterInactivity( 1000 );
+
+    m_httpClient = HttpClients.custom() //
+        .setConnectionManager( connectionManager ) //
+        // REMARK: Content-Encoding is handled by HydPyCompression, so we can record how much compression really gains
+        .disableContentCompression() //
+        .evictExpiredConnections() //
+        .evictIdleConnections( idleSeconds, TimeUnit.SECONDS ) //
+        .build();
+  }
+
+  public <T> T execute( final HttpUriRequest request, final ResponseHandler<T> handler ) throws IOException
+  {
+    return m_httpClient.execute( request, response -> {
+      /* only count requests that really got through, so failed connection attempts (e.g. during startup) do not count as reused */
+      m_requests.incrementAndGet();
+
+      return handler.handleResponse( response );
+    } );
+  }
+
+  public String getStatistics( )
+  {
+    final long requests = m_requests.get();
+    final long opened = m_socketFactory.getOpenedConnections();
+    final long reused = Math.max( 0, requests - opened );
+
+    return String.format( "%d requests, %d connections opened, %d connections reused", requests, opened, reused );
+  }
+
+  public void close( )
+  {
+    try
+    {
+      m_httpClient.close();
+    }
+    catch( final IOException e )
+    {
+      e.printStackTrace();
+    }
+  }
+}
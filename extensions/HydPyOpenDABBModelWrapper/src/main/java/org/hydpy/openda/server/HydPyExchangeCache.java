@@ -12,8 +12,10 @@
 package org.hydpy.openda.server;
 
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 import org.joda.time.Instant;
 import org.openda.interfaces.IExchangeItem;
@@ -35,9 +37,22 @@ class HydPyExchangeCache
    */
   private final Map<String, Object> m_modelRangeValues;
 
-  public HydPyExchangeCache( final Map<String, Object> firstValues )
+  /*
+   * If set, the model values are updated in place for the current simulation range, see 'serverUpdateCacheInPlace'.
+   * The exchange items are then views of these values, i.e. they also change with the next simulations.
+   */
+  private final boolean m_updateInPlace;
+
+  /*
+   * Ids of the model values that belong to this cache alone and hence may be updated in place.
+   * The first values might be shared with other instances (see .shared items), so they are copied once by the first merge.
+   */
+  private final Set<String> m_ownedValues = new HashSet<>();
+
+  public HydPyExchangeCache( final Map<String, Object> firstValues, final boolean updateInPlace )
   {
     m_modelRangeValues = new HashMap<>( firstValues );
+    m_updateInPlace = updateInPlace;
   }
 
   public List<IExchangeItem> parseItemValue( final AbstractServerItem<Object> item, final Object currentRangeValue )
@@ -49,7 +64,9 @@ class HydPyExchangeCache
      * To OpenDa we communicate a value that covers the full (aka model) range.
      */
     final Object oldModelRangeValue = m_modelRangeValues.get( id );
-    final Object newModelRangeValue = item.mergeToModelRange( oldModelRangeValue, currentRangeValue );
+    final Object newModelRangeValue = m_updateInPlace && !m_ownedValues.add( id ) ? //
+        item.mergeToModelRangeInPlace( oldModelRangeValue, currentRangeValue ) : //
+        item.mergeToModelRange( oldModelRangeValue, currentRangeValue );
 
     /* update the current state */
     m_modelRangeValues.put( id, newModelRangeValue );
@@ -57,19 +74,36 @@ class HydPyExchangeCache
     return item.toExchangeItems( newModelRangeValue );
   }
 
-  public <T> String printItemValue( final AbstractServerItem<T> serverItem, final List<IExchangeItem> exItems, final Instant currentStartTime, final Instant currentEndTime )
+  /**
+   * Updates the cached state from the exchange items.
+   *
+   * @return The value restricted to the current simulation range, which should be sent to HydPy.
+   */
+  public <T> T updateItemValue( final AbstractServerItem<T> serverItem, final List<IExchangeItem> exItems, final Instant currentStartTime, final Instant currentEndTime )
   {
     final T modelRangeValue = serverItem.toValue( exItems );
 
     /* update the cached state */
     m_modelRangeValues.put( serverItem.getId(), modelRangeValue );
+    // REMARK: the value might share its data with the exchange items of OpenDA, so it is copied again by the next merge
+    m_ownedValues.remove( serverItem.getId() );
 
     /**
      * The value within the exchange item covers the full model range.
      * We want to restrict this to the current simulation range and only communicate this to HydPy
      */
-    final T currentRangeValue = serverItem.restrictToCurrentRange( modelRangeValue, currentStartTime, currentEndTime );
+    return serverItem.restrictToCurrentRange( modelRangeValue, currentStartTime, currentEndTime );
+  }
+
+  /**
+   * @return The cached value restricted to the given simulation range; <code>null</code>, if the item has no value yet.
+   */
+  public <T> T getCurrentRangeValue( final AbstractServerItem<T> serverItem, final Instant currentStartTime, final Instant currentEndTime )
+  {
+    @SuppressWarnings( "unchecked" ) final T modelRangeValue = (T)m_modelRangeValues.get( serverItem.getId() );
+    if( modelRangeValue == null )
+      return null;
 
-    return serverItem.printValue( currentRangeValue );
+    return serverItem.restrictToCurrentRange( modelRangeValue, currentStartTime, currentEndTime );
   }
 }
\ No newline at end of file
@@ -0,0 +1,304 @@
+/**
+ * Copyright (c) 2021 by
+ * - Bundesanstalt für Gewässerkunde
+ * - Björnsen Beratende Ingenieure GmbH
+ * All rights reserved.
+ *
+ * This file is Free Software under the under the terms of the
+ * GNU Lesser General Public License (LGPL >=v3)
+ * and comes with ABSOLUTELY NO WARRANTY! Check out the
+ * documentation coming with HydPy for details.
+ */
+package org.hydpy.openda.server;
+
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintStream;
+import java.io.Reader;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+
+import org.apache.commons.io.output.NullPrintStream;
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpResponse;
+import org.apache.http.HttpStatus;
+import org.apache.http.StatusLine;
+import org.apache.http.client.config.RequestConfig;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.client.methods.HttpPost;
+import org.apache.http.client.methods.HttpRequestBase;
+import org.apache.http.client.utils.URIBuilder;
+import org.apache.http.entity.ContentType;
+
+/**
+ * Transports the calls to a HydPy server process via http.
+ * Either uses blocking calls via a pool of keep-alive connections, or the shared non-blocking engine.
+ *
+ * @author Gernot Belger
+ */
+final class HydPyHttpTransport implements IHydPyTransport
+{
+  private static final String PARAMETER_INSTANCE_NUMBER = "id"; //$NON-NLS-1$
+
+  private static final String PARAMETER_METHODS = "methods"; //$NON-NLS-1$
+
+  private final URI m_address;
+
+  private final PrintStream m_debugOut;
+
+  /* only used without the non-blocking engine */
+  private final HydPyConnectionPool m_connections;
+
+  private final HydPyCompression m_compression;
+
+  /* optional, if set, calls are executed without blocking */
+  private final HydPyAsyncEngine m_engine;
+
+  /* if set, request bodies are printed directly into the connection */
+  private final boolean m_chunkedBody;
+
+  /* the body is only logged if someone really listens, as it is potentially very big */
+  private final boolean m_logBody;
+
+  public HydPyHttpTransport( final URI address, final PrintStream debugOut, final HydPyConnectionPool connections, final HydPyCompression compression, final HydPyAsyncEngine engine, final boolean chunkedBody )
+  {
+    m_address = address;
+    m_debugOut = debugOut;
+    m_connections = connections;
+    m_compression = compression;
+    m_engine = engine;
+    // REMARK: the non-blocking engine needs the complete body in advance anyways
+    m_chunkedBody = chunkedBody && engine == null;
+    m_logBody = !(debugOut instanceof NullPrintStream);
+  }
+
+  @Override
+  public void call( final String path, final String instanceId, final String methods, final HydPyRequestBody body, final int timeoutMillis, final IHydPyResponseHandler handler ) throws HydPyServerException
+  {
+    final HttpRequestBase request = createRequest( path, instanceId, methods, body );
+
+    if( m_engine != null )
+    {
+      // REMARK: all calls must go through the same engine, else an idle keep-alive connection of the other one might block the (single-threaded) HydPy server.
+      // Blocking calls must never happen on the worker threads of the engine, as the response is decoded there.
+      waitFor( callServerAsync( request, timeoutMillis, handler ) );
+      return;
+    }
+
+    callServer( request, timeoutMillis, handler );
+  }
+
+  @Override
+  public CompletableFuture<Void> callAsync( final String path, final String instanceId, final String methods, final HydPyRequestBody body, final int timeoutMillis, final IHydPyResponseHandler handler )
+  {
+    try
+    {
+      final HttpRequestBase request = createRequest( path, instanceId, methods, body );
+
+      // REMARK: without the non-blocking engine, we simply call in the current thread
+      if( m_engine == null )
+      {
+        callServer( request, timeoutMillis, handler );
+        return CompletableFuture.completedFuture( null );
+      }
+
+      return callServerAsync( request, timeoutMillis, handler );
+    }
+    catch( final HydPyServerException e )
+    {
+      return HydPyUtils.failedFuture( e );
+    }
+  }
+
+  private HttpRequestBase createRequest( final String path, final String instanceId, final String methods, final HydPyRequestBody body ) throws HydPyServerException
+  {
+    final URI endpoint = buildEndpoint( path, instanceId, methods );
+
+    if( body == null )
+      return createGet( endpoint );
+
+    return createPost( endpoint, body );
+  }
+
+  private URI buildEndpoint( final String path, final String instanceId, final String methods ) throws HydPyServerException
+  {
+    try
+    {
+      final URIBuilder builder = new URIBuilder( m_address ).setPath( path );
+      if( instanceId != null )
+        builder.addParameter( PARAMETER_INSTANCE_NUMBER, instanceId );
+      if( methods != null )
+        builder.addParameter( PARAMETER_METHODS, methods );
+
+      return builder.build();
+    }
+    catch( final URISyntaxException e )
+    {
+      throw new HydPyServerException( "Invalid uri", e );
+    }
+  }
+
+  private HttpGet createGet( final URI endpoint )
+  {
+    m_debugOut.println( "Calling GET:" );
+    m_debugOut.println( endpoint );
+
+    return new HttpGet( endpoint );
+  }
+
+  private HttpPost createPost( final URI endpoint, final HydPyRequestBody body ) throws HydPyServerException
+  {
+    m_debugOut.println( "Calling POST:" );
+    m_debugOut.println( endpoint );
+    if( m_logBody )
+      m_debugOut.println( body );
+
+    final ContentType contentType = ContentType.TEXT_PLAIN.withCharset( StandardCharsets.UTF_8 );
+
+    try
+    {
+      final HttpPost request = new HttpPost( endpoint );
+      if( m_chunkedBody )
+        request.setEntity( m_compression.createStreamingBody( body, contentType ) );
+      else
+        request.setEntity( m_compression.createBody( body.toBytes(), contentType ) );
+      return request;
+    }
+    catch( final IOException e )
+    {
+      throw new HydPyServerException( "Failed to compress request body", e );
+    }
+  }
+
+  private void configureRequest( final HttpRequestBase request, final int timeout )
+  {
+    final RequestConfig requestConfig = RequestConfig.custom() //
+        .setConnectTimeout( timeout ) //
+        .setSocketTimeout( timeout ) //
+        .build();
+    request.setConfig( requestConfig );
+
+    m_compression.acceptEncoding( request );
+  }
+
+  private void callServer( final HttpRequestBase request, final int timeout, final IHydPyResponseHandler handler ) throws HydPyServerException
+  {
+    try
+    {
+      configureRequest( request, timeout );
+
+      // REMARK: we handle the response while it is still connected to the stream, so it never gets completely loaded into memory
+      m_connections.execute( request, response -> {
+        handleResponse( response, handler );
+        return null;
+      } );
+    }
+    catch( final HydPyServerException e )
+    {
+      throw e;
+    }
+    catch( final Exception e )
+    {
+      throw new HydPyServerException( "Failed to connect to HydPy-Server", e );
+    }
+  }
+
+  private static void waitFor( final CompletableFuture<Void> future ) throws HydPyServerException
+  {
+    try
+    {
+      future.get();
+    }
+    catch( final InterruptedException | ExecutionException e )
+    {
+      throw HydPyUtils.toHydPyServerException( e );
+    }
+  }
+
+  private CompletableFuture<Void> callServerAsync( final HttpRequestBase request, final int timeout, final IHydPyResponseHandler handler )
+  {
+    configureRequest( request, timeout );
+
+    // REMARK: the non-blocking engine receives the complete response before we decode it, decoding then happens on a worker thread, never on the i/o thread
+    final CompletableFuture<HttpResponse> response = m_engine.execute( request );
+
+    final CompletableFuture<Void> decoded = new CompletableFuture<>();
+    response.whenCompleteAsync( ( result, error ) -> {
+      try
+      {
+        if( error != null )
+          throw new HydPyServerException( "Failed to connect to HydPy-Server", error );
+
+        handleResponse( result, handler );
+        decoded.complete( null );
+      }
+      catch( final Throwable e )
+      {
+        decoded.completeExceptionally( e );
+      }
+    }, m_engine.getWorkers() );
+
+    return decoded;
+  }
+
+  private void handleResponse( final HttpResponse response, final IHydPyResponseHandler handler ) throws HydPyServerException
+  {
+    final StatusLine statusLine = response.getStatusLine();
+    final int statusCode = statusLine.getStatusCode();
+    if( statusCode != HttpStatus.SC_OK )
+    {
+      final String message = String.format( "HydPy-Server returned with invalid code: %s / %s", statusLine.getStatusCode(), statusLine.getReasonPhrase() );
+      throw new HydPyServerException( message );
+    }
+
+    decodeResponse( response.getEntity(), handler );
+  }
+
+  private void decodeResponse( final HttpEntity entity, final IHydPyResponseHandler handler ) throws HydPyServerException
+  {
+    m_debugOut.println( "Received from HydPy Server:" );
+
+    if( entity == null )
+      return;
+
+    // REMARK: HydPy always sends utf-8, but does not tell us so
+    final ContentType contentType = ContentType.getOrDefault( entity );
+    final Charset charset = contentType.getCharset() == null ? StandardCharsets.UTF_8 : contentType.getCharset();
+
+    try( final Reader reader = new InputStreamReader( m_compression.openContent( entity ), charset ) )
+    {
+      final HydPyResponseDecoder decoder = new HydPyResponseDecoder( reader );
+      decoder.decode( handler );
+    }
+    catch( final HydPyServerException e )
+    {
+      throw e;
+    }
+    catch( final Exception e )
+    {
+      e.printStackTrace();
+
+      throw new HydPyServerException( "Failed to read HydPy-Server response", e );
+    }
+  }
+
+  @Override
+  public String getStatistics( )
+  {
+    if( m_connections == null )
+      return m_compression.getStatistics();
+
+    return String.format( "%s; %s", m_connections.getStatistics(), m_compression.getStatistics() );
+  }
+
+  @Override
+  public void close( )
+  {
+    if( m_connections != null )
+      m_connections.close();
+  }
+}
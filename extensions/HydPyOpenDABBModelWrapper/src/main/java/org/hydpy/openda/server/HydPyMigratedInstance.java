@@ -0,0 +1,105 @@
+/**
+ * Copyright (c) 2021 by
+ * - Bundesanstalt für Gewässerkunde
+ * - Björnsen Beratende Ingenieure GmbH
+ * All rights reserved.
+ *
+ * This file is Free Software under the under the terms of the
+ * GNU Lesser General Public License (LGPL >=v3)
+ * and comes with ABSOLUTELY NO WARRANTY! Check out the
+ * documentation coming with HydPy for details.
+ */
+package org.hydpy.openda.server;
+
+import java.io.File;
+import java.util.List;
+import java.util.Map;
+
+import org.joda.time.Instant;
+import org.openda.interfaces.IExchangeItem;
+
+/**
+ * The state of a model instance exported from one HydPy server process, in order to be imported into another one.
+ *
+ * @author Gernot Belger
+ */
+final class HydPyMigratedInstance
+{
+  private final String m_instanceId;
+
+  private final File m_conditionsDir;
+
+  private final Instant m_conditionsTime;
+
+  private final List<Map<String, Object>> m_replaySimulations;
+
+  private final Instant m_lastSimulationEndTime;
+
+  private final HydPyExchangeCache m_cache;
+
+  private final List<IExchangeItem> m_currentValues;
+
+  public HydPyMigratedInstance( final String instanceId, final File conditionsDir, final Instant conditionsTime, final List<Map<String, Object>> replaySimulations, final Instant lastSimulationEndTime, final HydPyExchangeCache cache, final List<IExchangeItem> currentValues )
+  {
+    m_instanceId = instanceId;
+    m_conditionsDir = conditionsDir;
+    m_conditionsTime = conditionsTime;
+    m_replaySimulations = replaySimulations;
+    m_lastSimulationEndTime = lastSimulationEndTime;
+    m_cache = cache;
+    m_currentValues = currentValues;
+  }
+
+  public String getInstanceId( )
+  {
+    return m_instanceId;
+  }
+
+  /**
+   * @return The conditions at {@link #getConditionsTime()}; <code>null</code> if the instance has no conditions yet.
+   */
+  public File getConditionsDir( )
+  {
+    return m_conditionsDir;
+  }
+
+  /**
+   * @return The end of the simulation the conditions were saved for, normally the last simulation; <code>null</code> if the instance has no conditions yet.
+   */
+  public Instant getConditionsTime( )
+  {
+    return m_conditionsTime;
+  }
+
+  /**
+   * @return The registered item values of each simulation after the conditions, which must be repeated to reach the state of the last simulation.
+   */
+  public List<Map<String, Object>> getReplaySimulations( )
+  {
+    return m_replaySimulations;
+  }
+
+  /**
+   * @return <code>null</code> if the instance was never simulated.
+   */
+  public Instant getLastSimulationEndTime( )
+  {
+    return m_lastSimulationEndTime;
+  }
+
+  /**
+   * @return The cached values of all items, including the currently registered simulation dates.
+   */
+  public HydPyExchangeCache getCache( )
+  {
+    return m_cache;
+  }
+
+  /**
+   * @return The item values of the last simulation (or initialization), as already returned to OpenDA.
+   */
+  public List<IExchangeItem> getCurrentValues( )
+  {
+    return m_currentValues;
+  }
+}
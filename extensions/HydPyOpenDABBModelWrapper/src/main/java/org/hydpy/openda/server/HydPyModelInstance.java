@@ -14,6 +14,7 @@ package org.hydpy.openda.server;
 import java.io.File;
 import java.util.Collection;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.Future;
 
@@ -34,19 +35,52 @@ public final class HydPyModelInstance
 
   private final String m_instanceId;
 
-  private final HydPyServerInstance m_server;
+  /* may change, if the instance is migrated to another server */
+  private volatile HydPyServerInstance m_server;
 
   private final HydPyInstanceDirs m_instanceDirs;
 
-  HydPyModelInstance( final String instanceId, final HydPyInstanceDirs instanceDirs, final HydPyServerInstance server )
+  private final HydPyServerManager m_manager;
+
+  HydPyModelInstance( final String instanceId, final HydPyInstanceDirs instanceDirs, final HydPyServerInstance server, final HydPyServerManager manager )
   {
     m_instanceId = instanceId;
     m_instanceDirs = instanceDirs;
     m_server = server;
+    m_manager = manager;
 
     m_server.initializeInstance( instanceId, instanceDirs );
   }
 
+  String getInstanceId( )
+  {
+    return m_instanceId;
+  }
+
+  HydPyServerInstance getServer( )
+  {
+    return m_server;
+  }
+
+  /**
+   * @return <code>true</code>, if the instance is currently not simulating, so it can be moved to another server.
+   */
+  boolean canMigrate( )
+  {
+    return m_server.isSettled( m_instanceId );
+  }
+
+  /**
+   * Moves this instance to another server. The instance may be used immediately afterwards, the calls are enqueued behind the migration.
+   */
+  synchronized void migrateTo( final HydPyServerInstance target )
+  {
+    final CompletableFuture<HydPyMigratedInstance> exported = m_server.exportInstance( m_instanceId );
+    target.importInstance( m_instanceId, m_instanceDirs, exported );
+
+    m_server = target;
+  }
+
   public Collection<HydPyExchangeItemDescription> getItems( )
   {
     return m_server.getItems();
@@ -59,6 +93,9 @@ public final class HydPyModelInstance
 
   public synchronized void setItemValues( final Collection<IExchangeItem> values ) throws HydPyServerException
   {
+    // REMARK: the instance is idle between getting and setting its values, so this is the best moment for moving it to a less busy server
+    m_manager.rebalance( this );
+
     m_server.setItemValues( m_instanceId, values );
   }
 
@@ -19,6 +19,7 @@ import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
@@ -26,10 +27,15 @@ import java.util.Properties;
 import java.util.Set;
 import java.util.SortedMap;
 import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
 
 import org.apache.commons.lang3.Validate;
 import org.hydpy.openda.server.HydPyServerClient.Poster;
 import org.joda.time.Instant;
+import org.openda.interfaces.IArray;
 import org.openda.interfaces.IExchangeItem;
 
 /**
@@ -43,6 +49,141 @@ final class HydPyOpenDACaller
   // how the model must be called and specifically on how the internal model state must be
   // preserved and restored.
 
+  /**
+   * Pre-parses the item values while the response of HydPy is received, so the response text is never held completely in memory.
+   * Item values can only be parsed after the simulation dates have been received. Values received before that are kept as text and parsed later.
+   */
+  private final class ItemValuesParser implements IHydPyResponseHandler
+  {
+    private final Map<String, Object> m_preValues = new TreeMap<>();
+
+    private final Map<String, String> m_pendingValues = new LinkedHashMap<>();
+
+    private final Map<String, Object> m_sharedState;
+
+    private Instant m_startTime = null;
+
+    private Instant m_endTime = null;
+
+    public ItemValuesParser( final Map<String, Object> sharedState )
+    {
+      m_sharedState = sharedState;
+    }
+
+    @Override
+    public void handleValue( final String key, final CharSequence value ) throws HydPyServerException
+    {
+      if( HydPyModelInstance.ITEM_ID_FIRST_DATE.equals( key ) )
+        m_startTime = new Instant( value.toString() );
+      else if( HydPyModelInstance.ITEM_ID_LAST_DATE.equals( key ) )
+        m_endTime = new Instant( value.toString() );
+
+      if( m_startTime == null || m_endTime == null )
+      {
+        m_pendingValues.put( key, value.toString() );
+        return;
+      }
+
+      parsePendingValues();
+
+      parseValue( key, value );
+    }
+
+    private void parseValue( final String key, final CharSequence value ) throws HydPyServerException
+    {
+      final Object preValue = preParseValueOrGetShared( key, value, m_sharedState, m_startTime, m_endTime );
+      m_preValues.put( key, preValue );
+    }
+
+    private void parsePendingValues( ) throws HydPyServerException
+    {
+      for( final Entry<String, String> entry : m_pendingValues.entrySet() )
+        parseValue( entry.getKey(), entry.getValue() );
+
+      m_pendingValues.clear();
+    }
+
+    public Map<String, Object> finish( ) throws HydPyServerException
+    {
+      parsePendingValues();
+
+      return m_preValues;
+    }
+  }
+
+  /**
+   * A call for one instance, prepared in order to be executed alone or together with the calls for other instances with the same methods.
+   */
+  static final class PreparedCall<RESULT>
+  {
+    private final Poster m_caller;
+
+    private final IHydPyResponseHandler m_handler;
+
+    private final Supplier<RESULT> m_finisher;
+
+    /* optional, cleans up if the call failed */
+    private final Runnable m_onFailure;
+
+    public PreparedCall( final Poster caller, final IHydPyResponseHandler handler, final Supplier<RESULT> finisher )
+    {
+      this( caller, handler, finisher, null );
+    }
+
+    public PreparedCall( final Poster caller, final IHydPyResponseHandler handler, final Supplier<RESULT> finisher, final Runnable onFailure )
+    {
+      m_caller = caller;
+      m_handler = handler;
+      m_finisher = finisher;
+      m_onFailure = onFailure;
+    }
+
+    public String getMethods( )
+    {
+      return m_caller.getMethods();
+    }
+
+    /**
+     * Builds the result, after the response was received.
+     * Only the calls of the same instance are finished one after the other, calls of different instances may be finished in parallel.
+     */
+    public RESULT finish( )
+    {
+      return m_finisher.get();
+    }
+
+    void handleFailure( final Throwable error )
+    {
+      if( error != null && m_onFailure != null )
+        m_onFailure.run();
+    }
+  }
+
+  /**
+   * The directory of a checkpoint, only created once the call is really sent to HydPy.
+   */
+  private final class CheckpointDir
+  {
+    private File m_dir = null;
+
+    public synchronized File create( )
+    {
+      // REMARK: the body might be printed more than once, e.g. for logging
+      if( m_dir == null )
+        m_dir = createTempDir( "hydpyconditions_checkpoint" ); //$NON-NLS-1$
+
+      return m_dir;
+    }
+
+    public synchronized void delete( )
+    {
+      if( m_dir != null )
+        FileDeletionThread.instance().addFilesForDeletion( Collections.singletonList( m_dir ) );
+
+      m_dir = null;
+    }
+  }
+
   private static final String ITEM_ID_FIRST_DATE_INIT = "firstdate_init"; //$NON-NLS-1$
 
   private static final String ITEM_ID_LAST_DATE_INIT = "lastdate_init"; //$NON-NLS-1$
@@ -63,11 +204,37 @@ final class HydPyOpenDACaller
    * For items where we know that all hydpy instances will report the same initial state, we only parse those once and reuse them for other instances.
    * This improves performance a lot for long model runs.
    */
-  private static final Map<String, Object> SHARED_INITIAL_STATE = new HashMap<>();
+  private static final Map<String, Object> SHARED_INITIAL_STATE = new ConcurrentHashMap<>();
 
-  private final Map<String, HydPyExchangeCache> m_instanceCaches = new HashMap<>();
+  /* prefix of the hidden instances holding the loaded conditions, see #loadBroadcastConditions */
+  private static final String BROADCAST_ID_PREFIX = "HydPyOpenDA_conditions_"; //$NON-NLS-1$
 
-  private final Map<String, Instant> m_lastSimulationEndTimes = new HashMap<>();
+  // REMARK: the following state is accessed concurrently, as responses of different instances may be parsed in parallel, see PreparedCall#finish()
+
+  private final Map<String, HydPyExchangeCache> m_instanceCaches = new ConcurrentHashMap<>();
+
+  private final Map<String, Instant> m_lastSimulationEndTimes = new ConcurrentHashMap<>();
+
+  /* the conditions saved together with the last checkpoint of each instance; only used if checkpoints are enabled */
+  private final Map<String, File> m_checkpointDirs = new ConcurrentHashMap<>();
+
+  /* the end time of the simulation of the last checkpoint of each instance */
+  private final Map<String, Instant> m_checkpointTimes = new ConcurrentHashMap<>();
+
+  /* the registered item values of each simulation after the last checkpoint of each instance, in order to repeat these simulations after a crash */
+  private final Map<String, List<Map<String, Object>>> m_replaySimulations = new ConcurrentHashMap<>();
+
+  /* the currently registered item values of each instance; only used if checkpoints are enabled */
+  private final Map<String, Map<String, Object>> m_registeredValues = new ConcurrentHashMap<>();
+
+  /* instances whose conditions were restored after their last checkpoint */
+  private final Set<String> m_uncheckpointed = ConcurrentHashMap.newKeySet();
+
+  /* the id of the hidden instance holding the loaded conditions per input conditions directory, completed once loaded; only used if conditions are broadcasted */
+  private final Map<File, CompletableFuture<String>> m_broadcastLoads = new ConcurrentHashMap<>();
+
+  // REMARK: never reused, also not if loading failed, so a retry never meets the state of a failed load
+  private final AtomicInteger m_broadcastCount = new AtomicInteger();
 
   private Map<String, String[]> m_itemNames = null;
 
@@ -79,14 +246,42 @@ final class HydPyOpenDACaller
 
   private final long m_stepSeconds;
 
+  /* optional */
+  private final HydPySharedMemory m_sharedMemory;
+
   private final String m_firstDateValue;
 
   private final String m_lastDateValue;
 
-  public HydPyOpenDACaller( final String name, final HydPyServerClient client ) throws HydPyServerException
+  /* 0, if no checkpoints are saved */
+  private final int m_checkpointInterval;
+
+  private final boolean m_broadcastConditions;
+
+  private final boolean m_updateCacheInPlace;
+
+  /* only set once the server accepted the binary encoding */
+  private final boolean m_binaryEncoding;
+
+  /**
+   * @param checkpointInterval
+   *          If positive, the conditions of each instance are saved together with every n-th simulation, so the instance can be restored into a new process after a crash, see
+   *          {@link #getRecoveryStates()}.
+   * @param broadcastConditions
+   *          If <code>true</code>, the input conditions are loaded only once per directory and copied to all instances, see {@link #loadBroadcastConditions(File, List)}.
+   * @param updateCacheInPlace
+   *          If <code>true</code>, the cached item values of each instance are updated in place, see {@link HydPyExchangeCache}.
+   * @param binaryEncoding
+   *          If <code>true</code>, double values are exchanged in the binary encoding if the server supports it, see {@link HydPyBinaryEncoding}.
+   */
+  public HydPyOpenDACaller( final String name, final HydPyServerClient client, final HydPySharedMemory sharedMemory, final int checkpointInterval, final boolean broadcastConditions, final boolean updateCacheInPlace, final boolean binaryEncoding ) throws HydPyServerException
   {
     m_name = name;
     m_client = client;
+    m_sharedMemory = sharedMemory;
+    m_checkpointInterval = checkpointInterval;
+    m_broadcastConditions = broadcastConditions;
+    m_updateCacheInPlace = updateCacheInPlace;
 
     final List<AbstractServerItem< ? >> items = requestItems();
 
@@ -122,6 +317,50 @@ final class HydPyOpenDACaller
     for( final AbstractServerItem< ? > item : items )
       itemIndex.put( item.getId(), item );
     m_itemIndex = Collections.unmodifiableSortedMap( itemIndex );
+
+    if( m_sharedMemory != null )
+      registerSharedMemory();
+
+    m_binaryEncoding = binaryEncoding && registerBinaryEncoding();
+  }
+
+  private void registerSharedMemory( )
+  {
+    // REMARK: only servers that know this method will use shared memory, for all others we silently stay with the text format
+    try
+    {
+      m_client.post( HydPyServerManager.ANY_INSTANCE ) //
+          .method( "POST_register_sharedmemorydir" ) //
+          .body( HydPySharedMemory.ARGUMENT_SHAREDMEMORYDIR, m_sharedMemory.getDirectory().toString() ) //
+          .execute();
+
+      m_sharedMemory.enable();
+      m_client.debugOut( m_name, "exchanging big arrays via shared memory in: %s", m_sharedMemory.getDirectory() );
+    }
+    catch( final HydPyServerException e )
+    {
+      m_client.debugOut( m_name, "shared memory not supported by HydPy-Server, falling back to text: %s", e.getLocalizedMessage() );
+    }
+  }
+
+  private boolean registerBinaryEncoding( )
+  {
+    // REMARK: same as for shared memory, servers that do not know this method keep on using the text format
+    try
+    {
+      m_client.post( HydPyServerManager.ANY_INSTANCE ) //
+          .method( "POST_register_valueencoding" ) //
+          .body( HydPyBinaryEncoding.ARGUMENT_VALUEENCODING, HydPyBinaryEncoding.VALUE_ENCODING ) //
+          .execute();
+
+      m_client.debugOut( m_name, "exchanging double values in binary encoding" );
+      return true;
+    }
+    catch( final HydPyServerException e )
+    {
+      m_client.debugOut( m_name, "binary encoding not supported by HydPy-Server, falling back to text: %s", e.getLocalizedMessage() );
+      return false;
+    }
   }
 
   public String getName( )
@@ -129,6 +368,11 @@ final class HydPyOpenDACaller
     return m_name;
   }
 
+  public void debugOut( final String message, final Object... arguments )
+  {
+    m_client.debugOut( m_name, message, arguments );
+  }
+
   private <TYPE> AbstractServerItem<TYPE> getItem( final String id )
   {
     @SuppressWarnings( "unchecked" ) final AbstractServerItem<TYPE> item = (AbstractServerItem<TYPE>)m_itemIndex.get( id );
@@ -176,7 +420,7 @@ final class HydPyOpenDACaller
   /**
    * Tells HydPy to initialize the state for instanceId with the defined start values. Should be called exactly once per unique instanceId.
    */
-  public List<IExchangeItem> initializeInstance( final String instanceId, final HydPyInstanceDirs instanceDirs ) throws HydPyServerException
+  public CompletableFuture<List<IExchangeItem>> initializeInstance( final String instanceId, final HydPyInstanceDirs instanceDirs ) throws HydPyServerException
   {
     m_client.debugOut( m_name, "initializing state for instanceId = '%s'", instanceId );
 
@@ -206,8 +450,25 @@ final class HydPyOpenDACaller
 
     /* Load conditions but only if they exist */
     final File inputConditionsDir = instanceDirs.getInputConditionsDir();
-    if( inputConditionsDir != null )
+    final CompletableFuture<Void> conditionsLoaded;
+    if( inputConditionsDir != null && m_broadcastConditions )
+    {
+      conditionsLoaded = loadBroadcastConditions( inputConditionsDir, tempFilesToDelete );
+
+      /* the loaded conditions are now the current state of HydPy, store them for this instance */
+      caller.method( "GET_save_internalconditions" ) //
+          .method( "GET_update_conditionitemvalues" ) //
+
+          // REMARK: same as below
+          .method( "GET_register_initialparameteritemvalues" ) //
+          .method( "GET_register_initialinputitemvalues" ) //
+          .method( "GET_register_initialoutputitemvalues" ) //
+          .method( "GET_register_initialgetitemvalues" );
+    }
+    else if( inputConditionsDir != null )
     {
+      conditionsLoaded = CompletableFuture.completedFuture( null );
+
       /* unzip if necessary */
       final Path realInputConditionsDir = prepareInputConditionsDir( inputConditionsDir, tempFilesToDelete );
 
@@ -225,10 +486,17 @@ final class HydPyOpenDACaller
           .method( "GET_register_initialgetitemvalues" );
     }
     else
+    {
+      conditionsLoaded = CompletableFuture.completedFuture( null );
+
       /* register default values into instance-state if we did not load them ourself */
       caller.method( "GET_register_initialitemvalues" ); //
+    }
 
-    final Properties props = caller //
+    /* pre-parse items while they are received */
+    final ItemValuesParser parser = new ItemValuesParser( SHARED_INITIAL_STATE );
+
+    caller //
 
         /*
          * set simulation-dates
@@ -239,22 +507,61 @@ final class HydPyOpenDACaller
         .body( HydPyModelInstance.ITEM_ID_LAST_DATE, m_lastDateValue ) //
 
         /* and fetch them */
+        // REMARK: query the dates first, so the item values can directly be parsed while they are received
         // FIXME: we already share item values between instances if they are marked as such (.shared)
         // but we still request them, because we can't request individual items
-        .method( "GET_query_itemvalues" ) //
         .method( "GET_query_simulationdates" ) //
+        .method( "GET_query_itemvalues" ); //
 
-        .execute();
+    return conditionsLoaded.thenCompose( ignored -> caller.executeAsync( parser ) ).thenApply( ignored -> {
+      /* delete temporary assets */
+      FileDeletionThread.instance().addFilesForDeletion( tempFilesToDelete );
+
+      final Map<String, Object> preValues = parser.finish();
+
+      final HydPyExchangeCache instanceCache = new HydPyExchangeCache( preValues, m_updateCacheInPlace );
+      m_instanceCaches.put( instanceId, instanceCache );
+      return parseItemValues( instanceCache, preValues );
+    } );
+  }
+
+  /**
+   * Makes the conditions of the given directory the current state of HydPy. Only the first instance with this directory loads (and maybe unzips) the condition files, into a
+   * hidden instance that is never simulated. All instances (also the first one) then copy its internal conditions, which is much cheaper than parsing the files again.<br/>
+   * Instances created concurrently with the same directory share the same loading and wait for it.<br/>
+   * REMARK: the caller must send its calls in the same task, else the calls of another instance might change the state of HydPy in between.
+   */
+  private CompletableFuture<Void> loadBroadcastConditions( final File inputConditionsDir, final List<File> tempFilesToDelete )
+  {
+    final CompletableFuture<String> loaded = m_broadcastLoads.computeIfAbsent( inputConditionsDir, dir -> loadConditionsForBroadcast( dir, tempFilesToDelete ) );
+
+    // REMARK: if loading failed, the next instance tries again
+    loaded.whenComplete( ( result, error ) -> {
+      if( error != null )
+        m_broadcastLoads.remove( inputConditionsDir, loaded );
+    } );
+
+    return loaded.thenCompose( broadcastId -> m_client.get( broadcastId ) //
+        .method( "GET_load_internalconditions" ) //
+        .executeAsync() //
+        .thenApply( props -> (Void)null ) );
+  }
 
-    /* delete temporary assets */
-    FileDeletionThread.instance().addFilesForDeletion( tempFilesToDelete );
+  private CompletableFuture<String> loadConditionsForBroadcast( final File inputConditionsDir, final List<File> tempFilesToDelete )
+  {
+    final String broadcastId = BROADCAST_ID_PREFIX + m_broadcastCount.getAndIncrement();
+    m_client.debugOut( m_name, "loading conditions for all instances into '%s': %s", broadcastId, inputConditionsDir );
 
-    /* pre-parse items */
-    final Map<String, Object> preValues = preParseValuesOrGetShared( props, SHARED_INITIAL_STATE );
+    /* unzip if necessary */
+    final Path realInputConditionsDir = prepareInputConditionsDir( inputConditionsDir, tempFilesToDelete );
 
-    final HydPyExchangeCache instanceCache = new HydPyExchangeCache( preValues );
-    m_instanceCaches.put( instanceId, instanceCache );
-    return parseItemValues( instanceCache, preValues );
+    return m_client.post( broadcastId ) //
+        .method( "POST_register_inputconditiondir" ) //
+        .body( ARGUMENT_INPUTCONDITIONDIR, realInputConditionsDir.toString() ) //
+        .method( "GET_load_conditions" ) //
+        .method( "GET_save_internalconditions" ) //
+        .executeAsync() //
+        .thenApply( props -> broadcastId );
   }
 
   private Path prepareInputConditionsDir( final File inputConditionsDir, final List<File> tempFilesToDelete )
@@ -310,47 +617,58 @@ final class HydPyOpenDACaller
     return values;
   }
 
-  private Map<String, Object> preParseValuesOrGetShared( final Properties props, final Map<String, Object> sharedState ) throws HydPyServerException
+  private Object preParseValueOrGetShared( final String property, final CharSequence valueText, final Map<String, Object> sharedState, final Instant startTime, final Instant endTime ) throws HydPyServerException
   {
-    final Instant startTime = new Instant( props.get( HydPyModelInstance.ITEM_ID_FIRST_DATE ) );
-    final Instant endTime = new Instant( props.get( HydPyModelInstance.ITEM_ID_LAST_DATE ) );
+    final AbstractServerItem<Object> item = getItem( property );
 
-    final Map<String, Object> preValues = new TreeMap<>();
+    /* clone from shared state (only during initialization) if it is shared */
+    final String id = item.getId();
+    final boolean isShared = item.isInitialStateShared() && sharedState != null;
+    final Object sharedValue = isShared ? sharedState.get( id ) : null;
+    if( sharedValue != null )
+      return item.copy( sharedValue );
 
-    for( final String property : props.stringPropertyNames() )
-    {
-      final String valueText = props.getProperty( property );
+    /* really parse the value, big arrays might have been sent via shared memory */
+    final Object value = HydPySharedMemory.isDescriptor( valueText ) && m_sharedMemory != null ? //
+        item.parseSharedArray( startTime, endTime, m_stepSeconds, m_sharedMemory.read( valueText ) ) : //
+        item.parseValue( startTime, endTime, m_stepSeconds, valueText );
 
-      final Object value = preParseValueOrGetShared( property, valueText, sharedState, startTime, endTime );
-      preValues.put( property, value );
-    }
+    if( !isShared )
+      return value;
 
-    return preValues;
+    /* remember in shared state if it is the first time; instances initialized in parallel may parse the same value, the first one wins */
+    sharedState.putIfAbsent( id, value );
+
+    // REMARK: the shared value itself is never handed out, the cache of an instance may change its value in place
+    return item.copy( value );
   }
 
-  private Object preParseValueOrGetShared( final String property, final String valueText, final Map<String, Object> sharedState, final Instant startTime, final Instant endTime ) throws HydPyServerException
+  public PreparedCall<Void> prepareSetItemValues( final String instanceId, final Collection<IExchangeItem> values ) throws HydPyServerException
   {
-    final AbstractServerItem<Object> item = getItem( property );
+    final Poster caller = m_client.post( instanceId );
 
-    /* clone from shared state (only during initialization) if it is shared */
-    final String id = item.getId();
-    if( item.isInitialStateShared() && sharedState != null && sharedState.containsKey( id ) )
-    {
-      final Object sharedValue = sharedState.get( id );
-      return item.copy( sharedValue );
-    }
+    addSetItemValues( caller, instanceId, values );
 
-    /* really parse the value */
-    final Object value = item.parseValue( startTime, endTime, m_stepSeconds, valueText );
+    final IHydPyResponseHandler handler = ( key, value ) -> {
+      /* response is ignored */
+    };
+
+    return new PreparedCall<>( caller, handler, ( ) -> null );
+  }
+
+  /**
+   * Sets the item values and directly simulates in one call, same as {@link #prepareSetItemValues(String, Collection)} followed by {@link #prepareSimulate(String, File)}.
+   */
+  public PreparedCall<List<IExchangeItem>> prepareSetItemValuesAndSimulate( final String instanceId, final Collection<IExchangeItem> values, final File outputControlDir ) throws HydPyServerException
+  {
+    final Poster caller = m_client.post( instanceId );
 
-    /* remember in shared state if it is the first time */
-    if( item.isInitialStateShared() && sharedState != null )
-      sharedState.put( id, value );
+    addSetItemValues( caller, instanceId, values );
 
-    return value;
+    return addSimulate( caller, instanceId, outputControlDir );
   }
 
-  public void setItemValues( final String instanceId, final Collection<IExchangeItem> values ) throws HydPyServerException
+  private void addSetItemValues( final Poster caller, final String instanceId, final Collection<IExchangeItem> values ) throws HydPyServerException
   {
     m_client.debugOut( m_name, "setting state for instanceId = '%s'", instanceId );
 
@@ -366,7 +684,7 @@ final class HydPyOpenDACaller
 
     final HydPyExchangeCache instanceCache = m_instanceCaches.get( instanceId );
 
-    final Poster caller = m_client.post( instanceId ) //
+    caller //
         // IMPORTANT: register_simulationdates must be called before the rest,
         // as timeseries-items will be cut to exactly this time span.
         .method( "POST_register_simulationdates" ) //
@@ -376,13 +694,47 @@ final class HydPyOpenDACaller
     {
       final List<IExchangeItem> exItems = getItemsFor( serverItem, allExItems );
       if( exItems != null )
+        updateAndAddItemValue( caller, instanceId, instanceCache, serverItem, exItems, currentStartTimeNextStep, currentEndTime );
+    }
+  }
+
+  private <T> void updateAndAddItemValue( final Poster caller, final String instanceId, final HydPyExchangeCache instanceCache, final AbstractServerItem<T> serverItem, final List<IExchangeItem> exItems, final Instant currentStartTime, final Instant currentEndTime ) throws HydPyServerException
+  {
+    final T currentRangeValue = instanceCache.updateItemValue( serverItem, exItems, currentStartTime, currentEndTime );
+
+    addItemValue( caller, instanceId, serverItem, currentRangeValue );
+    rememberRegisteredValue( instanceId, serverItem, currentRangeValue );
+  }
+
+  /**
+   * Remembers the value, so the following simulations can be repeated from the last checkpoint after a crash, see {@link #replaySimulations(String, List)}.<br/>
+   * REMARK: only the reference is kept, as the value is never changed afterwards: the cache replaces its value with the next setting of the item values and
+   * copies it before merging in place, and the value may already be sent later (e.g. fused with the simulation) anyways.
+   */
+  private <T> void rememberRegisteredValue( final String instanceId, final AbstractServerItem<T> serverItem, final T currentRangeValue )
+  {
+    if( m_checkpointInterval > 0 )
+      m_registeredValues.computeIfAbsent( instanceId, id -> new HashMap<>() ).put( serverItem.getId(), currentRangeValue );
+  }
+
+  private <T> void addItemValue( final Poster caller, final String instanceId, final AbstractServerItem<T> serverItem, final T currentRangeValue ) throws HydPyServerException
+  {
+    /* big arrays are written to shared memory if possible, only the descriptor is sent */
+    if( m_sharedMemory != null )
+    {
+      final IArray array = serverItem.toSharedArray( currentRangeValue );
+      if( array != null && m_sharedMemory.accepts( array ) )
       {
-        final String valueText = instanceCache.printItemValue( serverItem, exItems, currentStartTimeNextStep, currentEndTime );
-        caller.body( serverItem.getId(), valueText );
+        caller.body( serverItem.getId(), m_sharedMemory.write( instanceId, serverItem.getId(), array ) );
+        return;
       }
     }
 
-    caller.execute();
+    // REMARK: the value is not printed here, but only while the request is written
+    if( m_binaryEncoding )
+      caller.body( serverItem.getId(), writer -> serverItem.printBinaryValue( currentRangeValue, writer ) );
+    else
+      caller.body( serverItem.getId(), writer -> serverItem.printValue( currentRangeValue, writer ) );
   }
 
   private List<IExchangeItem> getItemsFor( final AbstractServerItem< ? > serverItem, final Map<String, IExchangeItem> exItems ) throws HydPyServerException
@@ -449,7 +801,11 @@ final class HydPyOpenDACaller
     return itemNames;
   }
 
-  public List<IExchangeItem> restoreInternalState( final String instanceId, final File stateConditionsDir ) throws HydPyServerException
+  /**
+   * Prepares restoring the conditions of an instance. The response is parsed by {@link PreparedCall#finish()}, so this may happen in parallel to the next call to
+   * the server.
+   */
+  public PreparedCall<List<IExchangeItem>> prepareRestoreInternalState( final String instanceId, final File stateConditionsDir ) throws HydPyServerException
   {
     final Poster caller = m_client.post( instanceId );
 
@@ -460,38 +816,52 @@ final class HydPyOpenDACaller
           .body( ARGUMENT_INPUTCONDITIONDIR, stateConditionsDir.getAbsolutePath() ); //
     }
 
-    final Properties props = caller //
+    /* pre-parse items while they are received */
+    final ItemValuesParser parser = new ItemValuesParser( null );
+
+    caller //
         .method( "GET_load_conditions" ) //
         .method( "GET_save_internalconditions" ) //
         .method( "GET_update_conditionitemvalues" ) //
-        .method( "GET_query_itemvalues" ) //
         .method( "GET_query_simulationdates" ) //
-        .execute();
+        .method( "GET_query_itemvalues" ); //
 
-    /* pre-parse items */
-    final Map<String, Object> preValues = preParseValuesOrGetShared( props, null );
+    return new PreparedCall<>( caller, parser, ( ) -> {
+      final Map<String, Object> preValues = parser.finish();
 
-    final HydPyExchangeCache instanceCache = m_instanceCaches.get( instanceId );
-    return parseItemValues( instanceCache, preValues );
+      /* the last checkpoint does not contain the restored conditions */
+      removeCheckpoint( instanceId );
+      if( m_checkpointInterval > 0 )
+        m_uncheckpointed.add( instanceId );
+
+      final HydPyExchangeCache instanceCache = m_instanceCaches.get( instanceId );
+      return parseItemValues( instanceCache, preValues );
+    } );
+  }
+
+  public PreparedCall<List<IExchangeItem>> prepareSimulate( final String instanceId, final File outputControlDir ) throws HydPyServerException
+  {
+    return addSimulate( m_client.post( instanceId ), instanceId, outputControlDir );
   }
 
-  public List<IExchangeItem> simulate( final String instanceId, final File outputControlDir ) throws HydPyServerException
+  private PreparedCall<List<IExchangeItem>> addSimulate( final Poster caller, final String instanceId, final File outputControlDir ) throws HydPyServerException
   {
     m_client.debugOut( m_name, "running simulation for current state for instanceId = '%s'", instanceId );
 
-    final Poster caller = m_client.post( instanceId );
+    addSimulationMethods( caller );
 
-    caller //
-        /* activate current instance-state */
-        .method( "GET_activate_simulationdates" ) //
-        .method( "GET_load_internalconditions" ) //
-        .method( "GET_activate_changeitemvalues" ) //
-
-        /* run simulation */
-        .method( "GET_simulate" ) //
+    /* save the conditions as checkpoint while they are still the current ones of HydPy; no extra call, but all conditions are written to disk */
+    final CheckpointDir checkpointDir = isCheckpointDue( instanceId ) ? new CheckpointDir() : null;
+    if( checkpointDir != null )
+    {
+      caller //
+          .method( "POST_register_outputconditiondir" ) //
+          .body( ARGUMENT_OUTPUTCONDITIONDIR, writer -> writer.write( checkpointDir.create().getAbsolutePath() ) ) //
+          .method( "GET_save_conditions" ); //
+    }
 
-        /* apply hydpy state to instance-state */
-        .method( "GET_deregister_internalconditions" ); // REMARK: we need to delete the old state, else we might get memory problems in HydPY
+    /* otherwise the simulation is remembered, so it can be repeated from the last checkpoint after a crash */
+    final Map<String, Object> replayedValues = checkpointDir == null && m_checkpointInterval > 0 ? new HashMap<>( m_registeredValues.getOrDefault( instanceId, Collections.emptyMap() ) ) : null;
 
     // REMARK: we always save the conditions also internally, to keep the state consistent
     caller //
@@ -504,8 +874,8 @@ final class HydPyOpenDACaller
         .method( "GET_update_outputitemvalues" ) //
 
         /* and retrieve them directly */
-        .method( "GET_query_itemvalues" ) //
-        .method( "GET_query_simulationdates" ); //
+        .method( "GET_query_simulationdates" ) //
+        .method( "GET_query_itemvalues" ); //
 
     if( outputControlDir != null )
     {
@@ -515,22 +885,91 @@ final class HydPyOpenDACaller
           .body( ARGUMENT_OUTPUTCONTROLDIR, outputControlDir.getAbsolutePath() );
     }
 
-    final Properties props = caller.execute();
+    /* pre-parse items while they are received */
+    final ItemValuesParser parser = new ItemValuesParser( null );
+    return new PreparedCall<>( caller, parser, ( ) -> {
+      final Map<String, Object> preValues = parser.finish();
 
-    /* pre-parse items */
-    final Map<String, Object> preValues = preParseValuesOrGetShared( props, null );
+      /* remember last simulation end time for potential following calls to writeConditions */
+      final Instant endSimulationTime = (Instant)preValues.get( HydPyModelInstance.ITEM_ID_LAST_DATE );
+      m_lastSimulationEndTimes.put( instanceId, endSimulationTime );
 
-    /* remember last simulation end time for potential following calls to writeConditions */
-    final Instant endSimulationTime = (Instant)preValues.get( HydPyModelInstance.ITEM_ID_LAST_DATE );
-    m_lastSimulationEndTimes.put( instanceId, endSimulationTime );
+      if( checkpointDir != null )
+      {
+        removeCheckpoint( instanceId );
+        m_checkpointDirs.put( instanceId, checkpointDir.create() );
+        m_checkpointTimes.put( instanceId, endSimulationTime );
+        m_uncheckpointed.remove( instanceId );
+      }
+      else if( replayedValues != null )
+        m_replaySimulations.computeIfAbsent( instanceId, id -> new ArrayList<>() ).add( replayedValues );
 
-    final HydPyExchangeCache instanceCache = m_instanceCaches.get( instanceId );
-    final List<IExchangeItem> simulationResult = parseItemValues( instanceCache, preValues );
+      final HydPyExchangeCache instanceCache = m_instanceCaches.get( instanceId );
+      return parseItemValues( instanceCache, preValues );
+    }, checkpointDir == null ? null : checkpointDir::delete );
+  }
+
+  private void addSimulationMethods( final Poster caller )
+  {
+    caller //
+        /* activate current instance-state */
+        .method( "GET_activate_simulationdates" ) //
+        .method( "GET_load_internalconditions" ) //
+        .method( "GET_activate_changeitemvalues" ) //
+
+        /* run simulation */
+        .method( "GET_simulate" ) //
 
-    return simulationResult;
+        /* apply hydpy state to instance-state */
+        .method( "GET_deregister_internalconditions" ); // REMARK: we need to delete the old state, else we might get memory problems in HydPY
   }
 
-  public void writeConditions( final String instanceId, final File outputConditionsDir ) throws HydPyServerException
+  private boolean isCheckpointDue( final String instanceId )
+  {
+    if( m_checkpointInterval == 0 )
+      return false;
+
+    /* the conditions were restored after the last checkpoint, so the simulations since then can not be repeated */
+    if( m_uncheckpointed.contains( instanceId ) )
+      return true;
+
+    final List<Map<String, Object>> replaySimulations = m_replaySimulations.get( instanceId );
+    final int simulationsSinceCheckpoint = replaySimulations == null ? 0 : replaySimulations.size();
+    return simulationsSinceCheckpoint + 1 >= m_checkpointInterval;
+  }
+
+  /**
+   * Executes a single call. Same as {@link #executeBatch(List)}, the result must be fetched via {@link PreparedCall#finish()} afterwards.
+   */
+  public CompletableFuture<Void> execute( final PreparedCall< ? > call )
+  {
+    return call.m_caller.executeAsync( call.m_handler ) //
+        .whenComplete( ( result, error ) -> call.handleFailure( error ) );
+  }
+
+  /**
+   * Executes the calls for several instances in one call to HydPy. The results must be fetched via {@link PreparedCall#finish()} afterwards.
+   *
+   * @param calls
+   *          All calls must have the same methods and different instances.
+   */
+  public CompletableFuture<Void> executeBatch( final List< ? extends PreparedCall< ? >> calls )
+  {
+    m_client.debugOut( m_name, "executing batch of %d calls", calls.size() );
+
+    final List<Poster> callers = new ArrayList<>( calls.size() );
+    final List<IHydPyResponseHandler> handlers = new ArrayList<>( calls.size() );
+    for( final PreparedCall< ? > call : calls )
+    {
+      callers.add( call.m_caller );
+      handlers.add( call.m_handler );
+    }
+
+    return m_client.executeBatch( callers, handlers ) //
+        .whenComplete( ( result, error ) -> calls.forEach( call -> call.handleFailure( error ) ) );
+  }
+
+  public CompletableFuture<Void> writeConditions( final String instanceId, final File outputConditionsDir ) throws HydPyServerException
   {
     Validate.notNull( outputConditionsDir );
 
@@ -540,7 +979,7 @@ final class HydPyOpenDACaller
     if( startTime == null )
     {
       System.err.format( "OpenDa tries to save the model state before any simulations was run. please check your analysis times.%n" );
-      return;
+      return CompletableFuture.completedFuture( null );
     }
 
     // REMARK: the exact value of end time is irrelevant in these calls, so we simply use the start time + plus one time step (hydpy complains if they are the same)
@@ -552,44 +991,342 @@ final class HydPyOpenDACaller
     final String endTimeText = startItem.printValue( endTime );
 
     /* we also need the current simulation range in order to restare it later */
-    final Properties simulationRangeProperties = m_client.get( instanceId ) //
+    return m_client.get( instanceId ) //
         .method( "GET_activate_simulationdates" ) //
         .method( "GET_query_simulationdates" ) //
-        .execute();
-    final String originalStartTimeText = simulationRangeProperties.getProperty( HydPyModelInstance.ITEM_ID_FIRST_DATE );
-    final String originalEndTimeText = simulationRangeProperties.getProperty( HydPyModelInstance.ITEM_ID_LAST_DATE );
+        .executeAsync() //
+        .thenCompose( simulationRangeProperties -> {
+          final String originalStartTimeText = simulationRangeProperties.getProperty( HydPyModelInstance.ITEM_ID_FIRST_DATE );
+          final String originalEndTimeText = simulationRangeProperties.getProperty( HydPyModelInstance.ITEM_ID_LAST_DATE );
+
+          return m_client.post( instanceId ) //
+              /* set simulation range to fake range */
+              .method( "POST_register_simulationdates" ) //
+              .body( startItem.getId(), startTimeText ) //
+              .body( endItem.getId(), endTimeText ) //
+              .method( "GET_activate_simulationdates" ) //
+
+              /* restore conditions for current instance and save those */
+              .method( "GET_load_internalconditions" ) //
+
+              .method( "GET_activate_changeitemvalues" ) //
+
+              .method( "POST_register_outputconditiondir" ) //
+              .body( ARGUMENT_OUTPUTCONDITIONDIR, outputConditionsDir.getAbsolutePath() ) //
+              .method( "GET_save_conditions" ) //
+
+              .executeAsync() //
+
+              /* set simulation range to fake range, because anytime (e.g. during restoreInternalState) a query_items may occur */
+              // REMARK: must be a separate call because the item-id's in the body are the same.
+              .thenCompose( ignored -> m_client.post( instanceId ) //
+                  .method( "POST_register_simulationdates" ) //
+                  .body( startItem.getId(), originalStartTimeText ) //
+                  .body( endItem.getId(), originalEndTimeText ) //
+                  .method( "GET_activate_simulationdates" ) //
+                  .executeAsync() );
+        } ) //
+        .thenApply( ignored -> null );
+  }
 
-    m_client.post( instanceId ) //
-        /* set simulation range to fake range */
-        .method( "POST_register_simulationdates" ) //
-        .body( startItem.getId(), startTimeText ) //
-        .body( endItem.getId(), endTimeText ) //
-        .method( "GET_activate_simulationdates" ) //
+  /**
+   * Removes the state of an instance from this server, in order to import it into another server via {@link #importInstance(HydPyMigratedInstance, HydPyInstanceDirs)}.<br/>
+   * Only the conditions at the end of the last simulation are transferred, the internal conditions of earlier time points are discarded.
+   *
+   * @param currentValues
+   *          The item values of the last simulation (or initialization) of this instance.
+   */
+  public CompletableFuture<HydPyMigratedInstance> exportInstance( final String instanceId, final List<IExchangeItem> currentValues ) throws HydPyServerException
+  {
+    m_client.debugOut( m_name, "exporting state for instanceId = '%s'", instanceId );
 
-        /* restore conditions for current instance and save those */
-        .method( "GET_load_internalconditions" ) //
+    final Instant lastSimulationEndTime = m_lastSimulationEndTimes.get( instanceId );
 
-        .method( "GET_activate_changeitemvalues" ) //
+    final File conditionsDir = lastSimulationEndTime == null ? null : createTempDir( "hydpyconditions_migration" ); //$NON-NLS-1$
+    final CompletableFuture<Void> written = conditionsDir == null ? CompletableFuture.completedFuture( null ) : writeConditions( instanceId, conditionsDir );
 
-        .method( "POST_register_outputconditiondir" ) //
-        .body( ARGUMENT_OUTPUTCONDITIONDIR, outputConditionsDir.getAbsolutePath() ) //
-        .method( "GET_save_conditions" ) //
+    return written //
+        // REMARK: we need to delete the old state, else we might get memory problems in HydPY
+        .thenCompose( ignored -> m_client.get( instanceId ) //
+            .method( "GET_deregister_internalconditions" ) //
+            .executeAsync() ) //
+        .thenApply( ignored -> {
+          final HydPyExchangeCache instanceCache = m_instanceCaches.remove( instanceId );
+          m_lastSimulationEndTimes.remove( instanceId );
+          removeCheckpoint( instanceId );
+          m_uncheckpointed.remove( instanceId );
 
-        .execute();
+          m_registeredValues.remove( instanceId );
+
+          return new HydPyMigratedInstance( instanceId, conditionsDir, lastSimulationEndTime, Collections.emptyList(), lastSimulationEndTime, instanceCache, currentValues );
+        } );
+  }
+
+  private File createTempDir( final String prefix )
+  {
+    try
+    {
+      return Files.createTempDirectory( prefix ).toFile();
+    }
+    catch( final IOException e )
+    {
+      throw new HydPyServerException( "Failed to create temporary directory for conditions", e );
+    }
+  }
+
+  private void removeCheckpoint( final String instanceId )
+  {
+    final File checkpointDir = m_checkpointDirs.remove( instanceId );
+    if( checkpointDir != null )
+      FileDeletionThread.instance().addFilesForDeletion( Collections.singletonList( checkpointDir ) );
+
+    m_checkpointTimes.remove( instanceId );
+    m_replaySimulations.remove( instanceId );
+  }
+
+  /**
+   * Imports the state of an instance previously exported from another server via {@link #exportInstance(String, List)}.
+   *
+   * @return The item values of the last simulation (or initialization) of this instance, as they were before the migration.
+   */
+  public CompletableFuture<List<IExchangeItem>> importInstance( final HydPyMigratedInstance state, final HydPyInstanceDirs instanceDirs ) throws HydPyServerException
+  {
+    final String instanceId = state.getInstanceId();
+
+    m_client.debugOut( m_name, "importing state for instanceId = '%s'", instanceId );
+
+    final Instant lastSimulationEndTime = state.getLastSimulationEndTime();
+    final Instant conditionsTime = state.getConditionsTime();
+
+    final CompletableFuture< ? > conditionsLoaded;
+    if( conditionsTime == null )
+    {
+      /* no conditions, so the instance is simply initialized as usual (and the simulations since then are repeated) */
+      conditionsLoaded = initializeInstance( instanceId, instanceDirs );
+    }
+    else
+    {
+      // REMARK: same as in writeConditions: the conditions are saved internally for the last simulated time,
+      // which will be the start of the next simulation. The end time is irrelevant.
+      final Instant endTime = conditionsTime.plus( m_stepSeconds * 1000 );
+
+      final TimeItem startItem = (TimeItem)m_itemIndex.get( HydPyModelInstance.ITEM_ID_FIRST_DATE );
+      final TimeItem endItem = (TimeItem)m_itemIndex.get( HydPyModelInstance.ITEM_ID_LAST_DATE );
+
+      conditionsLoaded = m_client.post( instanceId ) //
+          .method( "POST_register_simulationdates" ) //
+          .body( startItem.getId(), startItem.printValue( conditionsTime ) ) //
+          .body( endItem.getId(), endItem.printValue( endTime ) ) //
+          .method( "GET_activate_simulationdates" ) //
+
+          .method( "POST_register_inputconditiondir" ) //
+          .body( ARGUMENT_INPUTCONDITIONDIR, state.getConditionsDir().getAbsolutePath() ) //
+          .method( "GET_load_conditions" ) //
+          .method( "GET_save_internalconditions" ) //
+          .executeAsync();
+    }
+
+    final List<Map<String, Object>> replaySimulations = state.getReplaySimulations();
 
-    /* set simulation range to fake range, because anytime (e.g. during restoreInternalState) a query_items may occur */
     // REMARK: must be a separate call because the item-id's in the body are the same.
-    m_client.post( instanceId ) //
+    return conditionsLoaded //
+        .thenCompose( ignored -> replaySimulations( instanceId, replaySimulations ) ) //
+        .thenCompose( ignored -> registerMigratedItemValues( instanceId, state.getCache() ) ) //
+        .thenApply( ignored -> {
+          m_instanceCaches.put( instanceId, state.getCache() );
+          if( lastSimulationEndTime != null )
+            m_lastSimulationEndTimes.put( instanceId, lastSimulationEndTime );
+
+          /* the imported conditions together with the repeated simulations lead to the state of the last simulation, so they can directly serve as checkpoint */
+          final File conditionsDir = state.getConditionsDir();
+          if( m_checkpointInterval > 0 )
+          {
+            if( conditionsDir != null )
+            {
+              m_checkpointDirs.put( instanceId, conditionsDir );
+              m_checkpointTimes.put( instanceId, conditionsTime );
+            }
+            if( !replaySimulations.isEmpty() )
+              m_replaySimulations.put( instanceId, new ArrayList<>( replaySimulations ) );
+          }
+          else if( conditionsDir != null )
+            FileDeletionThread.instance().addFilesForDeletion( Collections.singletonList( conditionsDir ) );
+
+          return state.getCurrentValues();
+        } );
+  }
+
+  /**
+   * Registers the cached simulation dates and item values, the same way as {@link #prepareSetItemValues(String, Collection)} would do.
+   */
+  private CompletableFuture<Void> registerMigratedItemValues( final String instanceId, final HydPyExchangeCache instanceCache )
+  {
+    final TimeItem startItem = (TimeItem)m_itemIndex.get( HydPyModelInstance.ITEM_ID_FIRST_DATE );
+    final TimeItem endItem = (TimeItem)m_itemIndex.get( HydPyModelInstance.ITEM_ID_LAST_DATE );
+
+    final Instant currentStartTime = instanceCache.getCurrentRangeValue( startItem, null, null );
+    final Instant currentEndTime = instanceCache.getCurrentRangeValue( endItem, null, null );
+    // REMARK: adjust by one step, as HydPy thinks in intervals
+    final Instant currentStartTimeNextStep = currentStartTime.plus( m_stepSeconds * 1000 );
+
+    final Poster caller = m_client.post( instanceId ) //
         .method( "POST_register_simulationdates" ) //
-        .body( startItem.getId(), originalStartTimeText ) //
-        .body( endItem.getId(), originalEndTimeText ) //
-        .method( "GET_activate_simulationdates" ) //
-        .execute();
+        .method( "POST_register_changeitemvalues" ); //
+
+    for( final AbstractServerItem< ? > serverItem : m_itemIndex.values() )
+      addCachedItemValue( caller, instanceId, instanceCache, serverItem, currentStartTimeNextStep, currentEndTime );
+
+    return caller.executeAsync( ( key, value ) -> {
+      /* response is ignored */
+    } );
+  }
+
+  private <T> void addCachedItemValue( final Poster caller, final String instanceId, final HydPyExchangeCache instanceCache, final AbstractServerItem<T> serverItem, final Instant currentStartTime, final Instant currentEndTime )
+  {
+    final T currentRangeValue = instanceCache.getCurrentRangeValue( serverItem, currentStartTime, currentEndTime );
+    if( currentRangeValue != null )
+    {
+      addItemValue( caller, instanceId, serverItem, currentRangeValue );
+      rememberRegisteredValue( instanceId, serverItem, currentRangeValue );
+    }
+  }
+
+  /**
+   * Repeats the simulations after the imported conditions, each with the item values that were registered for it. The results are ignored, as OpenDA already knows them.
+   */
+  private CompletableFuture<Void> replaySimulations( final String instanceId, final List<Map<String, Object>> simulations )
+  {
+    CompletableFuture<Void> replayed = CompletableFuture.completedFuture( null );
+    for( final Map<String, Object> registeredValues : simulations )
+      replayed = replayed.thenCompose( ignored -> replaySimulation( instanceId, registeredValues ) );
+
+    return replayed;
+  }
+
+  private CompletableFuture<Void> replaySimulation( final String instanceId, final Map<String, Object> registeredValues )
+  {
+    m_client.debugOut( m_name, "repeating simulation for instanceId = '%s'", instanceId );
+
+    final Poster caller = m_client.post( instanceId );
+
+    if( !registeredValues.isEmpty() )
+    {
+      caller //
+          .method( "POST_register_simulationdates" ) //
+          .method( "POST_register_changeitemvalues" ); //
+
+      for( final Entry<String, Object> entry : registeredValues.entrySet() )
+        addItemValue( caller, instanceId, getItem( entry.getKey() ), entry.getValue() );
+    }
+
+    addSimulationMethods( caller );
+
+    caller.method( "GET_save_internalconditions" ); //
+
+    return caller.executeAsync( ( key, value ) -> {
+      /* response is ignored */
+    } );
+  }
+
+  /**
+   * The states of all instances of this server, in order to import them into a new process after this one has crashed, see
+   * {@link #importInstance(HydPyMigratedInstance, HydPyInstanceDirs)}.<br/>
+   * Each instance is restored to its last checkpoint, the simulations since then are repeated, and finally the current item values are registered, which already include all
+   * values set after the last simulation.
+   *
+   * @throws HydPyServerException
+   *           If the conditions of an instance were restored after its last checkpoint.
+   */
+  public List<HydPyMigratedInstance> getRecoveryStates( ) throws HydPyServerException
+  {
+    final List<HydPyMigratedInstance> states = new ArrayList<>( m_instanceCaches.size() );
+
+    for( final Entry<String, HydPyExchangeCache> entry : m_instanceCaches.entrySet() )
+    {
+      final String instanceId = entry.getKey();
+      final Instant lastSimulationEndTime = m_lastSimulationEndTimes.get( instanceId );
+      final File checkpointDir = m_checkpointDirs.get( instanceId );
+      final List<Map<String, Object>> replaySimulations = new ArrayList<>( m_replaySimulations.getOrDefault( instanceId, Collections.emptyList() ) );
+
+      if( m_uncheckpointed.contains( instanceId ) || (lastSimulationEndTime != null && checkpointDir == null && replaySimulations.isEmpty()) )
+        throw new HydPyServerException( String.format( "%s: instance '%s' can not be recovered, its conditions were changed after its last checkpoint", m_name, instanceId ) );
+
+      states.add( new HydPyMigratedInstance( instanceId, checkpointDir, m_checkpointTimes.get( instanceId ), replaySimulations, lastSimulationEndTime, entry.getValue(), null ) );
+    }
+
+    return states;
+  }
+
+  /**
+   * Releases all resources without calling the server, as its process has crashed.
+   */
+  public void abandon( )
+  {
+    m_client.debugOut( m_name, "abandoned after crash" );
+
+    m_client.abandon();
+
+    if( m_sharedMemory != null )
+      m_sharedMemory.close();
   }
 
-  public void closeServer( )
+  public CompletableFuture<Void> closeServer( )
   {
     m_client.debugOut( m_name, "shutting down..." );
-    m_client.closeServer();
+
+    /* checkpoints are not needed any more */
+    FileDeletionThread.instance().addFilesForDeletion( new ArrayList<>( m_checkpointDirs.values() ) );
+    m_checkpointDirs.clear();
+
+    final CompletableFuture<Void> closed = m_client.closeServer();
+    if( m_sharedMemory == null )
+      return closed;
+
+    return closed.whenComplete( ( result, error ) -> m_sharedMemory.close() );
+  }
+
+  /**
+   * Same as {@link #closeServer()}, but keeps the server running, so its process can be reused by a later run, see {@link HydPyServerPool}.<br/>
+   * Instead, the state of all instances is removed from the server.
+   */
+  public CompletableFuture<Void> releaseInstances( )
+  {
+    m_client.debugOut( m_name, "releasing instances..." );
+
+    /* checkpoints are not needed any more */
+    FileDeletionThread.instance().addFilesForDeletion( new ArrayList<>( m_checkpointDirs.values() ) );
+    m_checkpointDirs.clear();
+
+    CompletableFuture<Void> released = CompletableFuture.completedFuture( null );
+    final Collection<String> instanceIds = new ArrayList<>( m_instanceCaches.keySet() );
+    for( final CompletableFuture<String> loaded : m_broadcastLoads.values() )
+    {
+      /* only successfully loaded conditions exist in HydPy */
+      if( loaded.isDone() && !loaded.isCompletedExceptionally() )
+        instanceIds.add( loaded.join() );
+    }
+    for( final String instanceId : instanceIds )
+    {
+      // REMARK: same as for migration, the next run starts with fresh instances and HydPy would otherwise keep their memory
+      released = released.thenCompose( ignored -> m_client.get( instanceId ) //
+          .method( "GET_deregister_internalconditions" ) //
+          .executeAsync() //
+          .thenApply( props -> (Void)null ) );
+    }
+
+    m_instanceCaches.clear();
+    m_broadcastLoads.clear();
+    m_lastSimulationEndTimes.clear();
+    m_uncheckpointed.clear();
+
+    return released.whenComplete( ( result, error ) -> {
+      if( error != null )
+        error.printStackTrace();
+
+      m_client.abandon();
+
+      if( m_sharedMemory != null )
+        m_sharedMemory.close();
+    } );
   }
 }
\ No newline at end of file
@@ -0,0 +1,204 @@
+/**
+ * Copyright (c) 2021 by
+ * - Bundesanstalt für Gewässerkunde
+ * - Björnsen Beratende Ingenieure GmbH
+ * All rights reserved.
+ *
+ * This file is Free Software under the under the terms of the
+ * GNU Lesser General Public License (LGPL >=v3)
+ * and comes with ABSOLUTELY NO WARRANTY! Check out the
+ * documentation coming with HydPy for details.
+ */
+package org.hydpy.openda.server;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintStream;
+import java.io.Reader;
+import java.net.URISyntaxException;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.io.input.BoundedInputStream;
+import org.apache.commons.io.output.NullPrintStream;
+import org.apache.http.client.utils.URIBuilder;
+
+/**
+ * Transports the calls to a HydPy server process via the stdin/stdout pipes of the process, so no port and no socket is involved.<br/>
+ * Every request is one frame written to stdin:
+ * <ul>
+ * <li>int32 (big endian): length of the frame in bytes</li>
+ * <li>utf-8: request line <code>GET|POST path?query</code> terminated by <code>\n</code>, followed by the body of a POST call</li>
+ * </ul>
+ * Every response is one frame read from stdout:
+ * <ul>
+ * <li>int32 (big endian): status code, same as the http status code</li>
+ * <li>int32 (big endian): length of the body in bytes</li>
+ * <li>utf-8: the body, same format as via http</li>
+ * </ul>
+ * The pipes do not support timeouts, a crashed process is detected by the closed pipe.
+ *
+ * @author Gernot Belger
+ */
+final class HydPyPipeTransport implements IHydPyTransport
+{
+  private static final int STATUS_OK = 200;
+
+  private static final String PARAMETER_INSTANCE_NUMBER = "id"; //$NON-NLS-1$
+
+  private static final String PARAMETER_METHODS = "methods"; //$NON-NLS-1$
+
+  private final AtomicLong m_calls = new AtomicLong();
+
+  private final AtomicLong m_requestBytes = new AtomicLong();
+
+  private final AtomicLong m_responseBytes = new AtomicLong();
+
+  private final PrintStream m_debugOut;
+
+  private final DataOutputStream m_requests;
+
+  private final DataInputStream m_responses;
+
+  /* the body is only logged if someone really listens, as it is potentially very big */
+  private final boolean m_logBody;
+
+  public HydPyPipeTransport( final Process process, final PrintStream debugOut )
+  {
+    m_debugOut = debugOut;
+    m_logBody = !(debugOut instanceof NullPrintStream);
+
+    m_requests = new DataOutputStream( new BufferedOutputStream( process.getOutputStream() ) );
+    m_responses = new DataInputStream( new BufferedInputStream( process.getInputStream() ) );
+  }
+
+  @Override
+  public synchronized void call( final String path, final String instanceId, final String methods, final HydPyRequestBody body, final int timeoutMillis, final IHydPyResponseHandler handler ) throws HydPyServerException
+  {
+    final String requestLine = buildRequestLine( path, instanceId, methods, body );
+
+    m_debugOut.format( "Calling %s%n", requestLine );
+    if( body != null && m_logBody )
+      m_debugOut.println( body );
+
+    try
+    {
+      writeRequest( requestLine, body );
+
+      readResponse( handler );
+    }
+    catch( final IOException e )
+    {
+      throw new HydPyServerException( "Failed to communicate with HydPy-Server via pipe", e );
+    }
+  }
+
+  @Override
+  public CompletableFuture<Void> callAsync( final String path, final String instanceId, final String methods, final HydPyRequestBody body, final int timeoutMillis, final IHydPyResponseHandler handler )
+  {
+    // REMARK: the pipes are read blocking, so we simply call in the current thread
+    try
+    {
+      call( path, instanceId, methods, body, timeoutMillis, handler );
+      return CompletableFuture.completedFuture( null );
+    }
+    catch( final HydPyServerException e )
+    {
+      return HydPyUtils.failedFuture( e );
+    }
+  }
+
+  private String buildRequestLine( final String path, final String instanceId, final String methods, final HydPyRequestBody body ) throws HydPyServerException
+  {
+    try
+    {
+      final URIBuilder builder = new URIBuilder().setPath( path );
+      if( instanceId != null )
+        builder.addParameter( PARAMETER_INSTANCE_NUMBER, instanceId );
+      if( methods != null )
+        builder.addParameter( PARAMETER_METHODS, methods );
+
+      final String method = body == null ? "GET" : "POST";
+      return method + ' ' + builder.build().toString();
+    }
+    catch( final URISyntaxException e )
+    {
+      throw new HydPyServerException( "Invalid uri", e );
+    }
+  }
+
+  private void writeRequest( final String requestLine, final HydPyRequestBody body ) throws IOException
+  {
+    final byte[] line = (requestLine + '\n').getBytes( StandardCharsets.UTF_8 );
+    // REMARK: the frame needs the length in advance, so the body is printed once into bytes
+    final byte[] content = body == null ? new byte[0] : body.toBytes();
+
+    m_requests.writeInt( line.length + content.length );
+    m_requests.write( line );
+    m_requests.write( content );
+    m_requests.flush();
+
+    m_calls.incrementAndGet();
+    m_requestBytes.addAndGet( line.length + content.length );
+  }
+
+  private void readResponse( final IHydPyResponseHandler handler ) throws IOException, HydPyServerException
+  {
+    // REMARK: readInt throws an EOFException if the process has terminated
+    final int statusCode = m_responses.readInt();
+    final int length = m_responses.readInt();
+    if( length < 0 )
+      throw new HydPyServerException( String.format( "HydPy-Server sent invalid frame length: %d", length ) );
+
+    m_responseBytes.addAndGet( length );
+
+    m_debugOut.println( "Received from HydPy Server:" );
+
+    final BoundedInputStream content = new BoundedInputStream( m_responses, length );
+    // REMARK: closing the reader must not close the pipe
+    content.setPropagateClose( false );
+
+    try( final Reader reader = new InputStreamReader( content, StandardCharsets.UTF_8 ) )
+    {
+      if( statusCode != STATUS_OK )
+      {
+        final String message = String.format( "HydPy-Server returned with invalid code: %s", statusCode );
+        throw new HydPyServerException( message );
+      }
+
+      final HydPyResponseDecoder decoder = new HydPyResponseDecoder( reader );
+      decoder.decode( handler );
+    }
+    finally
+    {
+      /* always consume the whole frame, so the next call starts at the next frame */
+      IOUtils.skip( content, length );
+    }
+  }
+
+  @Override
+  public String getStatistics( )
+  {
+    return String.format( "%d calls via pipe, %d request bytes, %d response bytes", m_calls.get(), m_requestBytes.get(), m_responseBytes.get() );
+  }
+
+  @Override
+  public void close( )
+  {
+    try
+    {
+      /* closing stdin tells the server that no more calls will come */
+      m_requests.close();
+    }
+    catch( final IOException e )
+    {
+      e.printStackTrace();
+    }
+  }
+}
@@ -0,0 +1,122 @@
+/**
+ * Copyright (c) 2021 by
+ * - Bundesanstalt für Gewässerkunde
+ * - Björnsen Beratende Ingenieure GmbH
+ * All rights reserved.
+ *
+ * This file is Free Software under the under the terms of the
+ * GNU Lesser General Public License (LGPL >=v3)
+ * and comes with ABSOLUTELY NO WARRANTY! Check out the
+ * documentation coming with HydPy for details.
+ */
+package org.hydpy.openda.server;
+
+import java.util.Comparator;
+import java.util.List;
+import java.util.function.ToDoubleFunction;
+
+/**
+ * The available {@link IHydPyPlacementPolicy}s.
+ *
+ * @author Gernot Belger
+ */
+final class HydPyPlacementPolicies
+{
+  public enum Policy
+  {
+    roundrobin,
+    leastqueued,
+    throughput
+  }
+
+  /**
+   * Distributes the instances to consecutive processes, restarting with the first process after the last one. Ignores the load.
+   */
+  private static final class RoundRobin implements IHydPyPlacementPolicy
+  {
+    private int m_nextIndex = 0;
+
+    @Override
+    public int selectProcess( final List<HydPyProcessLoad> loads )
+    {
+      // REMARK: the processes are not necessarily consecutive, if the pool is elastic
+      final int currentIndex = m_nextIndex % loads.size();
+
+      m_nextIndex = currentIndex + 1;
+
+      return loads.get( currentIndex ).getProcessId();
+    }
+  }
+
+  /**
+   * Selects the process with the fewest queued calls; if equal, the one with the fewest instances.<br/>
+   * Without any load (e.g. all instances created at once) this is the same as {@link RoundRobin}.
+   */
+  private static final class LeastQueued implements IHydPyPlacementPolicy
+  {
+    @Override
+    public int selectProcess( final List<HydPyProcessLoad> loads )
+    {
+      return selectMinimum( loads, HydPyProcessLoad::getQueueDepth );
+    }
+  }
+
+  /**
+   * Selects the process that is expected to be done first with all its work including the new instance, i.e. with the smallest
+   * <code>(instances + queued calls + 1) / throughput</code>.<br/>
+   * Processes without measured throughput are assumed to be as fast as the average of the others.
+   */
+  private static final class Throughput implements IHydPyPlacementPolicy
+  {
+    @Override
+    public int selectProcess( final List<HydPyProcessLoad> loads )
+    {
+      final double averageThroughput = loads.stream() //
+          .mapToDouble( HydPyProcessLoad::getThroughput ) //
+          .filter( throughput -> !Double.isNaN( throughput ) && throughput > 0 ) //
+          .average() //
+          .orElse( 1.0 );
+
+      return selectMinimum( loads, load -> {
+        final double throughput = Double.isNaN( load.getThroughput() ) || load.getThroughput() <= 0 ? averageThroughput : load.getThroughput();
+        return (load.getInstanceCount() + load.getQueueDepth() + 1) / throughput;
+      } );
+    }
+  }
+
+  private HydPyPlacementPolicies( )
+  {
+    throw new UnsupportedOperationException();
+  }
+
+  public static IHydPyPlacementPolicy create( final Policy policy )
+  {
+    switch( policy )
+    {
+      case roundrobin:
+        return new RoundRobin();
+
+      case leastqueued:
+        return new LeastQueued();
+
+      case throughput:
+        return new Throughput();
+
+      default:
+        throw new IllegalStateException();
+    }
+  }
+
+  /* ties are broken by the number of instances and then by the process id, so the choice is deterministic */
+  private static int selectMinimum( final List<HydPyProcessLoad> loads, final ToDoubleFunction<HydPyProcessLoad> score )
+  {
+    final Comparator<HydPyProcessLoad> comparator = Comparator.comparingDouble( score ) //
+        .thenComparingInt( HydPyProcessLoad::getInstanceCount ) //
+        .thenComparingInt( HydPyProcessLoad::getProcessId );
+
+    return loads.stream() //
+        .min( comparator ) //
+        .orElseThrow( IllegalStateException::new ) //
+        .getProcessId();
+  }
+}
@@ -0,0 +1,82 @@
+/**
+ * Copyright (c) 2021 by
+ * - Bundesanstalt für Gewässerkunde
+ * - Björnsen Beratende Ingenieure GmbH
+ * All rights reserved.
+ *
+ * This file is Free Software under the under the terms of the
+ * GNU Lesser General Public License (LGPL >=v3)
+ * and comes with ABSOLUTELY NO WARRANTY! Check out the
+ * documentation coming with HydPy for details.
+ */
+package org.hydpy.openda.server;
+
+/**
+ * Snapshot of the load of one HydPy server process, as seen by the {@link HydPyServerManager}.
+ *
+ * @author Gernot Belger
+ */
+public final class HydPyProcessLoad
+{
+  private final int m_processId;
+
+  private final boolean m_started;
+
+  private final int m_instanceCount;
+
+  private final int m_queueDepth;
+
+  private final double m_throughput;
+
+  public HydPyProcessLoad( final int processId, final boolean started, final int instanceCount, final int queueDepth, final double throughput )
+  {
+    m_processId = processId;
+    m_started = started;
+    m_instanceCount = instanceCount;
+    m_queueDepth = queueDepth;
+    m_throughput = throughput;
+  }
+
+  public int getProcessId( )
+  {
+    return m_processId;
+  }
+
+  /**
+   * @return <code>false</code>, if the process is not yet started (or still starting up). Then all other values are 0.
+   */
+  public boolean isStarted( )
+  {
+    return m_started;
+  }
+
+  /**
+   * @return The number of model instances placed on this process.
+   */
+  public int getInstanceCount( )
+  {
+    return m_instanceCount;
+  }
+
+  /**
+   * @return The number of calls given to this process that are not yet completed.
+   */
+  public int getQueueDepth( )
+  {
+    return m_queueDepth;
+  }
+
+  /**
+   * @return The completed calls per second the process was busy; {@link Double#NaN} if not yet measured.
+   */
+  public double getThroughput( )
+  {
+    return m_throughput;
+  }
+
+  @Override
+  public String toString( )
+  {
+    return String.format( "process %d: %d instances, %d queued, %.2f calls/s", m_processId, m_instanceCount, m_queueDepth, m_throughput );
+  }
+}
@@ -0,0 +1,104 @@
+/**
+ * Copyright (c) 2021 by
+ * - Bundesanstalt für Gewässerkunde
+ * - Björnsen Beratende Ingenieure GmbH
+ * All rights reserved.
+ *
+ * This file is Free Software under the under the terms of the
+ * GNU Lesser General Public License (LGPL >=v3)
+ * and comes with ABSOLUTELY NO WARRANTY! Check out the
+ * documentation coming with HydPy for details.
+ */
+package org.hydpy.openda.server;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintStream;
+import java.nio.charset.Charset;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Reads the standard output of a HydPy server process and signals once the process prints a line containing the ready marker.
+ * All lines are copied to where the output would be redirected to otherwise.
+ *
+ * @author Gernot Belger
+ */
+final class HydPyReadyMarkerWatcher implements Runnable
+{
+  private final CompletableFuture<Void> m_ready = new CompletableFuture<>();
+
+  private final String m_name;
+
+  private final Process m_process;
+
+  private final String m_marker;
+
+  /* optional, the output is discarded if not set */
+  private final PrintStream m_target;
+
+  private final boolean m_closeTarget;
+
+  /**
+   * Starts reading the output in a separate thread.
+   *
+   * @param target
+   *          Receives all output of the process; <code>null</code>, if the output should be discarded.
+   * @param closeTarget
+   *          If <code>true</code>, the target is closed once the process has ended.
+   */
+  public static HydPyReadyMarkerWatcher start( final String name, final Process process, final String marker, final PrintStream target, final boolean closeTarget )
+  {
+    final HydPyReadyMarkerWatcher watcher = new HydPyReadyMarkerWatcher( name, process, marker, target, closeTarget );
+
+    new HydPyThreadFactory( name + " output" ).newThread( watcher ).start(); //$NON-NLS-1$
+
+    return watcher;
+  }
+
+  private HydPyReadyMarkerWatcher( final String name, final Process process, final String marker, final PrintStream target, final boolean closeTarget )
+  {
+    m_name = name;
+    m_process = process;
+    m_marker = marker;
+    m_target = target;
+    m_closeTarget = closeTarget;
+  }
+
+  /**
+   * Completes once the marker was printed; fails if the process ends before.
+   */
+  public CompletableFuture<Void> getReady( )
+  {
+    return m_ready;
+  }
+
+  @Override
+  public void run( )
+  {
+    // REMARK: default charset should be ok, the output is only used for logging and the marker
+    try( final BufferedReader reader = new BufferedReader( new InputStreamReader( m_process.getInputStream(), Charset.defaultCharset() ) ) )
+    {
+      String line;
+      while( (line = reader.readLine()) != null )
+      {
+        if( m_target != null )
+          m_target.println( line );
+
+        if( !m_ready.isDone() && line.contains( m_marker ) )
+          m_ready.complete( null );
+      }
+    }
+    catch( final IOException e )
+    {
+      // REMARK: happens if the process is killed, nothing to do
+    }
+    finally
+    {
+      m_ready.completeExceptionally( new HydPyServerException( String.format( "%s: process ended before it printed the ready marker", m_name ) ) );
+
+      if( m_closeTarget )
+        m_target.close();
+    }
+  }
+}
@@ -0,0 +1,124 @@
+/**
+ * Copyright (c) 2021 by
+ * - Bundesanstalt für Gewässerkunde
+ * - Björnsen Beratende Ingenieure GmbH
+ * All rights reserved.
+ *
+ * This file is Free Software under the under the terms of the
+ * GNU Lesser General Public License (LGPL >=v3)
+ * and comes with ABSOLUTELY NO WARRANTY! Check out the
+ * documentation coming with HydPy for details.
+ */
+package org.hydpy.openda.server;
+
+import java.io.BufferedWriter;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The body of a POST call to HydPy, i.e. lines of 'key=value'.<br/>
+ * The values are not printed when they are added, but only when the body is written. So a big value can be printed directly into the request, without
+ * ever holding the complete body in memory.
+ *
+ * @author Gernot Belger
+ */
+final class HydPyRequestBody
+{
+  /**
+   * Prints one value of the body. Might be called more than once, e.g. for logging.
+   */
+  @FunctionalInterface
+  interface IValueWriter
+  {
+    void write( Writer writer ) throws IOException;
+  }
+
+  private static final class Part
+  {
+    private final String m_key;
+
+    private final IValueWriter m_value;
+
+    public Part( final String key, final IValueWriter value )
+    {
+      m_key = key;
+      m_value = value;
+    }
+  }
+
+  private final List<Part> m_parts = new ArrayList<>();
+
+  public void add( final String key, final String value )
+  {
+    add( key, writer -> writer.write( value ) );
+  }
+
+  public void add( final String key, final IValueWriter value )
+  {
+    m_parts.add( new Part( key, value ) );
+  }
+
+  /**
+   * Adds all parts of another body, each key prefixed with the given prefix.
+   */
+  public void addAll( final String keyPrefix, final HydPyRequestBody other )
+  {
+    for( final Part part : other.m_parts )
+      add( keyPrefix + part.m_key, part.m_value );
+  }
+
+  public void writeTo( final Writer writer ) throws IOException
+  {
+    for( final Part part : m_parts )
+    {
+      writer.write( part.m_key );
+      writer.write( '=' );
+      part.m_value.write( writer );
+      writer.write( "\r\n" ); //$NON-NLS-1$
+    }
+  }
+
+  /**
+   * Writes the body as utf-8 into the stream. The stream is flushed but not closed.
+   */
+  public void writeTo( final OutputStream out ) throws IOException
+  {
+    final Writer writer = new BufferedWriter( new OutputStreamWriter( out, StandardCharsets.UTF_8 ) );
+    writeTo( writer );
+    writer.flush();
+  }
+
+  public byte[] toBytes( ) throws IOException
+  {
+    final ByteArrayOutputStream bos = new ByteArrayOutputStream();
+    writeTo( bos );
+    return bos.toByteArray();
+  }
+
+  /**
+   * Prints the complete body, for logging only.
+   */
+  @Override
+  public String toString( )
+  {
+    try
+    {
+      final StringWriter writer = new StringWriter();
+      writeTo( writer );
+      return writer.toString();
+    }
+    catch( final IOException e )
+    {
+      /* should never happen */
+      e.printStackTrace();
+      return e.toString();
+    }
+  }
+}
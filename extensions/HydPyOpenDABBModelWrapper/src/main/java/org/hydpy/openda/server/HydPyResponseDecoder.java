@@ -0,0 +1,260 @@
+/**
+ * Copyright (c) 2021 by
+ * - Bundesanstalt für Gewässerkunde
+ * - Björnsen Beratende Ingenieure GmbH
+ * All rights reserved.
+ *
+ * This file is Free Software under the under the terms of the
+ * GNU Lesser General Public License (LGPL >=v3)
+ * and comes with ABSOLUTELY NO WARRANTY! Check out the
+ * documentation coming with HydPy for details.
+ */
+package org.hydpy.openda.server;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.CharBuffer;
+
+import org.apache.http.util.CharArrayBuffer;
+
+/**
+ * Decodes the (java properties like) key/value response of a HydPy-Server directly from a stream.
+ * In contrast to {@link java.util.Properties#load(Reader)}, the response is never completely held in memory,
+ * only the line (i.e. the item value) that is currently decoded.
+ * Supports the same syntax as {@link java.util.Properties#load(Reader)} (comments, escapes, continuation lines).
+ *
+ * @author Gernot Belger
+ */
+final class HydPyResponseDecoder
+{
+  private final char[] m_readBuffer = new char[8192];
+
+  private int m_readPos = 0;
+
+  private int m_readLimit = 0;
+
+  /* current logical line, grows to the size of the largest line */
+  private final CharArrayBuffer m_line = new CharArrayBuffer( 1024 );
+
+  /* only used for values that contain escape sequences */
+  private final CharArrayBuffer m_unescaped = new CharArrayBuffer( 1024 );
+
+  private final Reader m_reader;
+
+  public HydPyResponseDecoder( final Reader reader )
+  {
+    m_reader = reader;
+  }
+
+  public void decode( final IHydPyResponseHandler handler ) throws IOException, HydPyServerException
+  {
+    while( readLogicalLine() )
+      decodeLine( handler );
+  }
+
+  private boolean fillBuffer( ) throws IOException
+  {
+    if( m_readPos < m_readLimit )
+      return true;
+
+    final int read = m_reader.read( m_readBuffer );
+    if( read <= 0 )
+      return false;
+
+    m_readPos = 0;
+    m_readLimit = read;
+    return true;
+  }
+
+  /**
+   * Reads the next logical line (i.e. physical lines joined by their continuation marker) into {@link #m_line}.
+   *
+   * @return <code>false</code>, if the end of the stream is reached and no more line was read.
+   */
+  private boolean readLogicalLine( ) throws IOException
+  {
+    m_line.clear();
+
+    boolean anyRead = false;
+    boolean skipLeadingWhitespace = false;
+
+    while( fillBuffer() )
+    {
+      anyRead = true;
+
+      if( skipLeadingWhitespace )
+      {
+        while( m_readPos < m_readLimit && isWhitespace( m_readBuffer[m_readPos] ) )
+          m_readPos++;
+
+        if( m_readPos == m_readLimit )
+          continue;
+
+        skipLeadingWhitespace = false;
+      }
+
+      /* search for the end of the physical line */
+      final int start = m_readPos;
+      int end = start;
+      while( end < m_readLimit && m_readBuffer[end] != '\n' && m_readBuffer[end] != '\r' )
+        end++;
+
+      m_line.append( m_readBuffer, start, end - start );
+      m_readPos = end;
+
+      if( end == m_readLimit )
+        continue;
+
+      /* consume line terminator, handling \r\n as one terminator */
+      final char terminator = m_readBuffer[m_readPos++];
+      if( terminator == '\r' && fillBuffer() && m_readBuffer[m_readPos] == '\n' )
+        m_readPos++;
+
+      if( !isContinued() )
+        return true;
+
+      /* remove continuation marker and read the next physical line */
+      m_line.setLength( m_line.length() - 1 );
+      skipLeadingWhitespace = true;
+    }
+
+    return anyRead;
+  }
+
+  private boolean isContinued( )
+  {
+    final char[] chars = m_line.buffer();
+    final int length = m_line.length();
+
+    final int start = skipWhitespace( chars, 0, length );
+    if( start < length && isComment( chars[start] ) )
+      return false;
+
+    int backslashes = 0;
+    for( int i = length - 1; i >= start && chars[i] == '\\'; i-- )
+      backslashes++;
+
+    return backslashes % 2 == 1;
+  }
+
+  private void decodeLine( final IHydPyResponseHandler handler ) throws HydPyServerException
+  {
+    final char[] chars = m_line.buffer();
+    final int length = m_line.length();
+
+    final int keyStart = skipWhitespace( chars, 0, length );
+    if( keyStart == length || isComment( chars[keyStart] ) )
+      return;
+
+    /* find end of key */
+    int pos = keyStart;
+    boolean keyHasEscapes = false;
+    while( pos < length )
+    {
+      final char c = chars[pos];
+      if( c == '\\' )
+      {
+        keyHasEscapes = true;
+        pos += 2;
+      }
+      else if( c == '=' || c == ':' || isWhitespace( c ) )
+        break;
+      else
+        pos++;
+    }
+    final int keyEnd = Math.min( pos, length );
+
+    /* skip separator */
+    pos = skipWhitespace( chars, keyEnd, length );
+    if( pos < length && (chars[pos] == '=' || chars[pos] == ':') )
+      pos = skipWhitespace( chars, pos + 1, length );
+
+    final String key = keyHasEscapes ? unescape( chars, keyStart, keyEnd ).toString() : new String( chars, keyStart, keyEnd - keyStart );
+    final CharSequence value = toValue( chars, pos, length );
+
+    handler.handleValue( key, value );
+  }
+
+  private CharSequence toValue( final char[] chars, final int start, final int end )
+  {
+    for( int i = start; i < end; i++ )
+    {
+      if( chars[i] == '\\' )
+        return unescape( chars, start, end );
+    }
+
+    /* the normal case: directly hand out a view on the read line */
+    return CharBuffer.wrap( chars, start, end - start );
+  }
+
+  private CharArrayBuffer unescape( final char[] chars, final int start, final int end )
+  {
+    m_unescaped.clear();
+
+    int pos = start;
+    while( pos < end )
+    {
+      final char c = chars[pos++];
+      if( c != '\\' || pos == end )
+      {
+        m_unescaped.append( c );
+        continue;
+      }
+
+      final char escaped = chars[pos++];
+      switch( escaped )
+      {
+        case 't':
+          m_unescaped.append( '\t' );
+          break;
+
+        case 'r':
+          m_unescaped.append( '\r' );
+          break;
+
+        case 'n':
+          m_unescaped.append( '\n' );
+          break;
+
+        case 'f':
+          m_unescaped.append( '\f' );
+          break;
+
+        case 'u':
+        {
+          if( pos + 4 > end )
+            throw new IllegalArgumentException( "Malformed \\uxxxx encoding." );
+
+          final int unicode = Integer.parseInt( new String( chars, pos, 4 ), 16 );
+          m_unescaped.append( (char)unicode );
+          pos += 4;
+          break;
+        }
+
+        default:
+          m_unescaped.append( escaped );
+          break;
+      }
+    }
+
+    return m_unescaped;
+  }
+
+  private static int skipWhitespace( final char[] chars, final int start, final int end )
+  {
+    int pos = start;
+    while( pos < end && isWhitespace( chars[pos] ) )
+      pos++;
+    return pos;
+  }
+
+  private static boolean isWhitespace( final char c )
+  {
+    return c == ' ' || c == '\t' || c == '\f';
+  }
+
+  private static boolean isComment( final char c )
+  {
+    return c == '#' || c == '!';
+  }
+}
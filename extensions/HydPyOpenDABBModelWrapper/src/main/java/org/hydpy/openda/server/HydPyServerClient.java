@@ -12,25 +12,18 @@
 package org.hydpy.openda.server;
 
 import java.io.PrintStream;
-import java.io.StringReader;
-import java.net.URI;
-import java.net.URISyntaxException;
-import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Properties;
+import java.util.concurrent.CompletableFuture;
 
-import org.apache.http.HttpEntity;
-import org.apache.http.HttpResponse;
-import org.apache.http.HttpStatus;
-import org.apache.http.StatusLine;
-import org.apache.http.client.fluent.Request;
-import org.apache.http.client.utils.URIBuilder;
-import org.apache.http.entity.ContentType;
-import org.apache.http.util.EntityUtils;
+import org.apache.commons.io.output.NullPrintStream;
+import org.apache.commons.lang3.Validate;
 
 /**
- * Represents a client calling a HydPy server process which handles the basic http calls.
+ * Represents a client calling a HydPy server process. The calls are transported to the server by a {@link IHydPyTransport}.
  *
  * @author Gernot Belger
  */
@@ -56,12 +49,55 @@ final class HydPyServerClient
 
     public final Properties execute( ) throws HydPyServerException
     {
-      final String methods = String.join( ",", m_methods );
+      final Properties props = new Properties();
+
+      execute( ( key, value ) -> props.setProperty( key, value.toString() ) );
+
+      return props;
+    }
+
+    /**
+     * Executes the call and directly hands the received values to the given handler while the response is read.
+     */
+    public final void execute( final IHydPyResponseHandler handler ) throws HydPyServerException
+    {
+      callExecute( m_instanceId, getMethods(), getBody(), handler );
+    }
+
+    /**
+     * Same as {@link #execute()}, but does not block if the transport supports it.
+     */
+    public final CompletableFuture<Properties> executeAsync( )
+    {
+      final Properties props = new Properties();
+
+      return executeAsync( ( key, value ) -> props.setProperty( key, value.toString() ) ) //
+          .thenApply( ignored -> props );
+    }
+
+    /**
+     * Same as {@link #execute(IHydPyResponseHandler)}, but does not block if the transport supports it.<br/>
+     * Else, the call is executed directly in the calling thread and the returned future is already completed.
+     */
+    public final CompletableFuture<Void> executeAsync( final IHydPyResponseHandler handler )
+    {
+      return callExecuteAsync( m_instanceId, getMethods(), getBody(), handler );
+    }
 
-      return doExecute( HydPyServerClient.this, m_instanceId, methods );
+    public final String getInstanceId( )
+    {
+      return m_instanceId;
+    }
+
+    public final String getMethods( )
+    {
+      return String.join( ",", m_methods );
     }
 
-    protected abstract Properties doExecute( HydPyServerClient client, String instanceId, String methods ) throws HydPyServerException;
+    /**
+     * @return <code>null</code>, for a GET call.
+     */
+    protected abstract HydPyRequestBody getBody( );
   }
 
   public final class Getter extends Caller<Getter>
@@ -72,15 +108,15 @@ final class HydPyServerClient
     }
 
     @Override
-    protected Properties doExecute( final HydPyServerClient client, final String instanceId, final String methods ) throws HydPyServerException
+    protected HydPyRequestBody getBody( )
     {
-      return client.callGet( instanceId, methods );
+      return null;
     }
   }
 
   public final class Poster extends Caller<Poster>
   {
-    private final StringBuffer m_body = new StringBuffer();
+    private final HydPyRequestBody m_body = new HydPyRequestBody();
 
     public Poster( final String instanceId )
     {
@@ -89,168 +125,156 @@ final class HydPyServerClient
 
     public Poster body( final String key, final String value )
     {
-      m_body.append( key ).append( '=' ).append( value ).append( '\r' ).append( '\n' );
+      m_body.add( key, value );
+      return this;
+    }
+
+    /**
+     * Adds a value that is only printed when the request is sent, directly into the request.
+     */
+    public Poster body( final String key, final HydPyRequestBody.IValueWriter value )
+    {
+      m_body.add( key, value );
       return this;
     }
 
     @Override
-    protected Properties doExecute( final HydPyServerClient client, final String instanceId, final String methods ) throws HydPyServerException
+    protected HydPyRequestBody getBody( )
     {
-      return client.callPost( instanceId, methods, m_body.toString() );
+      return m_body;
     }
   }
 
-  private static final String PATH_STATUS = "status"; //$NON-NLS-1$
-
-  private static final String PATH_VERSION = "version"; //$NON-NLS-1$
+  static final String PATH_STATUS = "status"; //$NON-NLS-1$
 
-  private static final String PATH_EXECUTE = "execute"; //$NON-NLS-1$
+  static final String PATH_VERSION = "version"; //$NON-NLS-1$
 
-  private static final String PATH_CLOSE_SERVER = "close_server"; //$NON-NLS-1$
+  static final String PATH_EXECUTE = "execute"; //$NON-NLS-1$
 
-  private static final String PARAMETER_INSTANCE_NUMBER = "id"; //$NON-NLS-1$
+  static final String PATH_CLOSE_SERVER = "close_server"; //$NON-NLS-1$
 
-  private static final String PARAMETER_METHODS = "methods"; //$NON-NLS-1$
+  static final String PATH_EXECUTE_BATCH = "execute_batch"; //$NON-NLS-1$
 
-  private final URI m_address;
+  /* separates the instance id from the key in the body and in the response of batched calls */
+  private static final char BATCH_KEY_SEPARATOR = '/';
 
   private final int m_timeoutMillis;
 
   private final PrintStream m_debugOut;
 
-  public HydPyServerClient( final URI address, final PrintStream debugOut, final int timeoutMillis )
+  private final IHydPyTransport m_transport;
+
+  /* the content of responses is only logged if someone really listens, as it is potentially very big */
+  private final boolean m_logContent;
+
+  public HydPyServerClient( final PrintStream debugOut, final int timeoutMillis, final IHydPyTransport transport )
   {
-    m_address = address;
     m_debugOut = debugOut;
     m_timeoutMillis = timeoutMillis;
+    m_transport = transport;
+    m_logContent = !(debugOut instanceof NullPrintStream);
   }
 
-  private HttpEntity callGet( final URI endpoint, final int timeout ) throws HydPyServerException
+  private IHydPyResponseHandler withDebugOut( final IHydPyResponseHandler handler )
   {
-    m_debugOut.println( "Calling GET:" );
-    m_debugOut.println( endpoint );
+    if( !m_logContent )
+      return handler;
 
-    final Request request = Request.Get( endpoint );
-    return callServer( request, timeout );
-  }
-
-  private Properties callGetAndParse( final URI endpoint, final int timeoutMillis ) throws HydPyServerException
-  {
-    final HttpEntity entity = callGet( endpoint, timeoutMillis );
-    return parseAsProperties( entity );
+    return ( key, value ) -> {
+      m_debugOut.append( key ).append( " = " ).append( value ).println();
+      handler.handleValue( key, value );
+    };
   }
 
-  private Properties parseAsProperties( final HttpEntity entity ) throws HydPyServerException
+  private Properties callGetAndParse( final String path, final int timeoutMillis ) throws HydPyServerException
   {
-    try
-    {
-      final Properties props = new Properties();
-
-      final String content = EntityUtils.toString( entity );
-
-      m_debugOut.println( "Received from HydPy Server:" );
-      m_debugOut.println( content );
+    final Properties props = new Properties();
 
-      final StringReader reader = new StringReader( content );
+    m_transport.call( path, null, null, null, timeoutMillis, withDebugOut( ( key, value ) -> props.setProperty( key, value.toString() ) ) );
 
-      props.load( reader );
-      return props;
-    }
-    catch( final Exception e )
-    {
-      e.printStackTrace();
-
-      throw new HydPyServerException( "Failed to read HydPy-Server response", e );
-    }
+    return props;
   }
 
-  private URI buildEndpoint( final String path, final String instanceId, final String methods ) throws HydPyServerException
+  // REMARK: synchronized execute in order to block sequential calls to the same server.
+  // Normally this should already happen via the server-side (using non-threaded HttpServer),
+  // however we still get sometimes 'Connection Refused' errors if too many calls are made within a small timespan.
+  // Enlarging the socket-queue-size does not really help.
+  synchronized void callExecute( final String instanceId, final String methods, final HydPyRequestBody body, final IHydPyResponseHandler handler ) throws HydPyServerException
   {
-    try
-    {
-      final URIBuilder builder = new URIBuilder( m_address ).setPath( path );
-      if( instanceId != null )
-        builder.addParameter( PARAMETER_INSTANCE_NUMBER, instanceId );
-      if( methods != null )
-        builder.addParameter( PARAMETER_METHODS, methods );
-
-      return builder.build();
-    }
-    catch( final URISyntaxException e )
-    {
-      throw new HydPyServerException( "Invalid uri", e );
-    }
+    m_transport.call( PATH_EXECUTE, instanceId, methods, body, m_timeoutMillis, withDebugOut( handler ) );
   }
 
-  private Properties callPostAndParse( final URI endpoint, final int timeout, final String body ) throws HydPyServerException
+  CompletableFuture<Void> callExecuteAsync( final String instanceId, final String methods, final HydPyRequestBody body, final IHydPyResponseHandler handler )
   {
-    final HttpEntity response = callPost( endpoint, timeout, body );
-    return parseAsProperties( response );
+    // REMARK: no synchronization necessary here, the calls to one server are always chained one after the other by the HydPyServerInstance
+    return m_transport.callAsync( PATH_EXECUTE, instanceId, methods, body, m_timeoutMillis, withDebugOut( handler ) );
   }
 
-  private HttpEntity callPost( final URI endpoint, final int timeout, final String body ) throws HydPyServerException
+  /**
+   * Executes the same method chain for several instances in one call. The body of each caller is sent with its keys prefixed by the instance id, the values of the
+   * response are handed to the handler of the instance they belong to.<br/>
+   * Only possible if the server supports this, see {@link #checkBatchSupport(int)}.
+   *
+   * @param callers
+   *          All callers must have the same methods and different instances.
+   */
+  public CompletableFuture<Void> executeBatch( final List<Poster> callers, final List<IHydPyResponseHandler> handlers )
   {
-    m_debugOut.println( "Calling POST:" );
-    m_debugOut.println( endpoint );
-    m_debugOut.println( body );
+    final Map<String, IHydPyResponseHandler> instanceHandlers = new HashMap<>( callers.size() );
+    final List<String> instanceIds = new ArrayList<>( callers.size() );
+    final HydPyRequestBody body = new HydPyRequestBody();
 
-    final ContentType contentType = ContentType.TEXT_PLAIN.withCharset( StandardCharsets.UTF_8 );
+    final String methods = callers.get( 0 ).getMethods();
 
-    final Request request = Request.Post( endpoint ).bodyString( body, contentType );
+    for( int i = 0; i < callers.size(); i++ )
+    {
+      final Poster caller = callers.get( i );
+      Validate.isTrue( methods.equals( caller.getMethods() ), "Only the same methods can be executed as batch" );
+
+      final String instanceId = caller.getInstanceId();
+      instanceIds.add( instanceId );
+      instanceHandlers.put( instanceId, handlers.get( i ) );
+
+      body.addAll( instanceId + BATCH_KEY_SEPARATOR, caller.getBody() );
+    }
+
+    final IHydPyResponseHandler batchHandler = ( key, value ) -> {
+      final int separator = key.indexOf( BATCH_KEY_SEPARATOR );
+      final IHydPyResponseHandler handler = separator == -1 ? null : instanceHandlers.get( key.substring( 0, separator ) );
+      if( handler == null )
+        throw new HydPyServerException( String.format( "Response of batched call contains value for unknown instance: %s", key ) );
 
-    return callServer( request, timeout );
+      handler.handleValue( key.substring( separator + 1 ), value );
+    };
+
+    final String instanceIdsParameter = String.join( ",", instanceIds );
+    // REMARK: no synchronization necessary here, the calls to one server are always chained one after the other by the HydPyServerInstance
+    return m_transport.callAsync( PATH_EXECUTE_BATCH, instanceIdsParameter, methods, body, m_timeoutMillis, withDebugOut( batchHandler ) );
   }
 
-  private HttpEntity callServer( final Request request, final int timeout ) throws HydPyServerException
+  /**
+   * Checks if the server is able to execute batched calls for several instances.
+   */
+  public boolean checkBatchSupport( final int timeout )
   {
     try
     {
-      final HttpResponse response = request //
-          .connectTimeout( timeout ) //
-          .socketTimeout( timeout ) //
-          .execute()//
-          .returnResponse();
-
-      final StatusLine statusLine = response.getStatusLine();
-      final int statusCode = statusLine.getStatusCode();
-      if( statusCode != HttpStatus.SC_OK )
-      {
-        final String message = String.format( "HydPy-Server returned with invalid code: %s / %s", statusLine.getStatusCode(), statusLine.getReasonPhrase() );
-        throw new HydPyServerException( message );
-      }
-
-      return response.getEntity();
+      // REMARK: a batch without any instance does nothing, servers without support will answer with an error
+      m_transport.call( PATH_EXECUTE_BATCH, null, null, null, timeout, ( key, value ) -> {
+        /* response is ignored */
+      } );
+      return true;
     }
     catch( final HydPyServerException e )
     {
-      throw e;
-    }
-    catch( final Exception e )
-    {
-      throw new HydPyServerException( "Failed to connect to HydPy-Server", e );
+      m_debugOut.format( "HydPy-Server does not support batched calls: %s%n", e.getLocalizedMessage() );
+      return false;
     }
   }
 
-  // REMARK: synchronized execute in order to block sequential calls to the same server.
-  // Normally this should already happen via the server-side (using non-threaded HttpServer),
-  // however we still get sometimes 'Connection Refused' errors if too many calls are made within a small timespan.
-  // Enlarging the socket-queue-size does not really help.
-  synchronized Properties callGet( final String instanceId, final String methods ) throws HydPyServerException
-  {
-    final URI endpoint = buildEndpoint( PATH_EXECUTE, instanceId, methods );
-    return callGetAndParse( endpoint, m_timeoutMillis );
-  }
-
-  synchronized Properties callPost( final String instanceId, final String methods, final String postBody ) throws HydPyServerException
-  {
-    final URI endpoint = buildEndpoint( PATH_EXECUTE, instanceId, methods );
-    return callPostAndParse( endpoint, m_timeoutMillis, postBody );
-  }
-
   public boolean checkStatus( final int timeout ) throws HydPyServerException
   {
-    final URI endpoint = buildEndpoint( PATH_STATUS, null, null );
-    final Properties response = callGetAndParse( endpoint, timeout );
+    final Properties response = callGetAndParse( PATH_STATUS, timeout );
 
     final String status = response.getProperty( "status" );
     return "ready".equalsIgnoreCase( status );
@@ -258,22 +282,34 @@ final class HydPyServerClient
 
   public Version getVersion( final int timeout ) throws HydPyServerException
   {
-    final URI endpoint = buildEndpoint( PATH_VERSION, null, null );
-    final Properties response = callGetAndParse( endpoint, timeout );
+    final Properties response = callGetAndParse( PATH_VERSION, timeout );
     return Version.parse( response.getProperty( "version" ) );
   }
 
-  public void closeServer( )
+  public CompletableFuture<Void> closeServer( )
   {
-    try
-    {
-      final URI endpoint = buildEndpoint( PATH_CLOSE_SERVER, null, null );
-      callGet( endpoint, m_timeoutMillis );
-    }
-    catch( final HydPyServerException e )
-    {
-      e.printStackTrace();
-    }
+    final CompletableFuture<Void> call = m_transport.callAsync( PATH_CLOSE_SERVER, null, null, null, m_timeoutMillis, ( key, value ) -> {
+      /* response is ignored */
+    } );
+
+    return call.handle( ( result, error ) -> {
+      if( error != null )
+        error.printStackTrace();
+
+      m_debugOut.format( "HydPy-Server transport: %s%n", m_transport.getStatistics() );
+      m_transport.close();
+
+      return null;
+    } );
+  }
+
+  /**
+   * Closes the transport without calling the server, e.g. because the server process has crashed.
+   */
+  public void abandon( )
+  {
+    m_debugOut.format( "HydPy-Server transport: %s%n", m_transport.getStatistics() );
+    m_transport.close();
   }
 
   public void debugOut( final String name, final String message, final Object... arguments )
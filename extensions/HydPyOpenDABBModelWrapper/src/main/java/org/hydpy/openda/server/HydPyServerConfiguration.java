@@ -13,7 +13,12 @@ package org.hydpy.openda.server;
 
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
 import java.util.Properties;
+import java.util.Set;
 
 import org.apache.commons.lang3.StringUtils;
 
@@ -29,6 +34,12 @@ final class HydPyServerConfiguration
     file
   }
 
+  public enum Transport
+  {
+    http,
+    pipe
+  }
+
   private static final String PROPERTY_SERVER_PORT = "serverPort"; //$NON-NLS-1$
 
   private static final String PROPERTY_SERVER_MAX_PROCESSES = "serverInstances"; //$NON-NLS-1$
@@ -45,7 +56,7 @@ final class HydPyServerConfiguration
 
   private static final String PROPERTY_CONFIG_FILE = "configFile"; //$NON-NLS-1$
 
-  private static final String PROPERTY_LOG_MODE = "logMode"; //$NON-NLS-1$
+  static final String PROPERTY_LOG_MODE = "logMode"; //$NON-NLS-1$
 
   private static final String PROPERTY_LOG_DIRECTORY = "logDirectory"; //$NON-NLS-1$
 
@@ -63,6 +74,75 @@ final class HydPyServerConfiguration
 
   private static final String PROPERTY_TIMEOUT_SECONDS = "timeoutSeconds"; //$NON-NLS-1$
 
+  private static final String PROPERTY_CONNECTION_POOL_SIZE = "serverConnectionPoolSize"; //$NON-NLS-1$
+
+  private static final String PROPERTY_CONNECTION_IDLE_SECONDS = "serverConnectionIdleSeconds"; //$NON-NLS-1$
+
+  private static final String PROPERTY_COMPRESSION = "serverCompression"; //$NON-NLS-1$
+
+  private static final String PROPERTY_COMPRESSION_THRESHOLD = "serverCompressionThreshold"; //$NON-NLS-1$
+
+  private static final String PROPERTY_ASYNC_CLIENT = "serverAsyncClient"; //$NON-NLS-1$
+
+  private static final String PROPERTY_ASYNC_WORKER_THREADS = "serverAsyncWorkerThreads"; //$NON-NLS-1$
+
+  private static final String PROPERTY_TRANSPORT = "serverTransport"; //$NON-NLS-1$
+
+  private static final String PROPERTY_SHARED_MEMORY_DIRECTORY = "serverSharedMemoryDirectory"; //$NON-NLS-1$
+
+  private static final String PROPERTY_SHARED_MEMORY_THRESHOLD = "serverSharedMemoryThreshold"; //$NON-NLS-1$
+
+  private static final String PROPERTY_BATCH_SIZE = "serverBatchSize"; //$NON-NLS-1$
+
+  private static final String PROPERTY_CHUNKED_BODY = "serverChunkedBody"; //$NON-NLS-1$
+
+  private static final String PROPERTY_PLACEMENT = "serverPlacement"; //$NON-NLS-1$
+
+  private static final String PROPERTY_MIGRATION_THRESHOLD = "serverMigrationThreshold"; //$NON-NLS-1$
+
+  private static final String PROPERTY_MIN_PROCESSES = "serverMinInstances"; //$NON-NLS-1$
+
+  private static final String PROPERTY_RESPAWN_LIMIT = "serverRespawnLimit"; //$NON-NLS-1$
+
+  private static final String PROPERTY_CHECKPOINT_INTERVAL = "serverCheckpointInterval"; //$NON-NLS-1$
+
+  private static final String PROPERTY_FUSE_CALLS = "serverFuseCalls"; //$NON-NLS-1$
+
+  private static final String PROPERTY_PARSE_THREADS = "serverParseThreads"; //$NON-NLS-1$
+
+  private static final String PROPERTY_PRIORITY_INSTANCES = "serverPriorityInstances"; //$NON-NLS-1$
+
+  private static final String PROPERTY_DEDICATED_ANY_INSTANCE = "serverDedicatedAnyInstance"; //$NON-NLS-1$
+
+  private static final String PROPERTY_READY_MARKER = "serverReadyMarker"; //$NON-NLS-1$
+
+  private static final String PROPERTY_STARTUP_CONCURRENCY = "serverStartupConcurrency"; //$NON-NLS-1$
+
+  private static final String PROPERTY_POOL_DIRECTORY = "serverPoolDirectory"; //$NON-NLS-1$
+
+  private static final String PROPERTY_BROADCAST_CONDITIONS = "serverBroadcastConditions"; //$NON-NLS-1$
+
+  private static final String PROPERTY_CPU_SETS = "serverCpuSets"; //$NON-NLS-1$
+
+  private static final String PROPERTY_PROCESS_THREADS = "serverProcessThreads"; //$NON-NLS-1$
+
+  private static final String PROPERTY_SHUTDOWN_SECONDS = "serverShutdownSeconds"; //$NON-NLS-1$
+
+  private static final String PROPERTY_UPDATE_CACHE_IN_PLACE = "serverUpdateCacheInPlace"; //$NON-NLS-1$
+
+  private static final String PROPERTY_BINARY_ENCODING = "serverBinaryEncoding"; //$NON-NLS-1$
+
+  private static final String VALUE_AUTO = "auto"; //$NON-NLS-1$
+
+  /* a cpu list as understood by taskset and numactl, e.g. '0-3,8' */
+  private static final String CPU_LIST_PATTERN = "[0-9]+(-[0-9]+)?(,[0-9]+(-[0-9]+)?)*"; //$NON-NLS-1$
+
+  private static final String PROPERTY_SCALE_UP_QUEUE_DEPTH = "serverScaleUpQueueDepth"; //$NON-NLS-1$
+
+  private static final String PROPERTY_SCALE_DOWN_QUEUE_DEPTH = "serverScaleDownQueueDepth"; //$NON-NLS-1$
+
+  private static final String PROPERTY_SCALE_DOWN_DELAY_SECONDS = "serverScaleDownDelaySeconds"; //$NON-NLS-1$
+
   public final Path workingDir;
 
   // REAMRK: we open a local process, so this is always localhost (for now)
@@ -94,6 +174,85 @@ final class HydPyServerConfiguration
 
   public final int timeout;
 
+  public final int connectionPoolSize;
+
+  public final int connectionIdleSeconds;
+
+  public final HydPyCompression.Mode compression;
+
+  public final int compressionThreshold;
+
+  public final boolean asyncClient;
+
+  public final int asyncWorkerThreads;
+
+  public final Transport transport;
+
+  /* optional */
+  public final Path sharedMemoryDirectory;
+
+  public final int sharedMemoryThreshold;
+
+  public final int batchSize;
+
+  public final boolean chunkedBody;
+
+  public final HydPyPlacementPolicies.Policy placement;
+
+  /* 0, if instances are never migrated */
+  public final int migrationThreshold;
+
+  /* 0, if crashed processes are not respawned */
+  public final int respawnLimit;
+
+  /* the conditions of an instance are saved with every n-th simulation, only used if processes are respawned */
+  public final int checkpointInterval;
+
+  public final boolean fuseCalls;
+
+  /* 0, if responses are parsed by the thread of each server */
+  public final int parseThreads;
+
+  /* always contains ANY_INSTANCE */
+  public final Set<String> priorityInstances;
+
+  public final boolean dedicatedAnyInstance;
+
+  /* optional */
+  public final String readyMarker;
+
+  /* 0, if all processes may start at the same time */
+  public final int startupConcurrency;
+
+  /* optional, if set the processes are leased from a pool of persistent servers instead of being started for each run */
+  public final Path poolDirectory;
+
+  public final boolean broadcastConditions;
+
+  /* optional, the cpus each process is bound to, used round-robin by process id */
+  public final List<String> cpuSets;
+
+  /* 0, if the number of threads of the numerical libraries is not limited */
+  public final int processThreads;
+
+  /* overall time for writing the final conditions and shutting down all processes */
+  public final int shutdownSeconds;
+
+  /* if set, exchange items handed out earlier change with later simulations */
+  public final boolean updateCacheInPlace;
+
+  /* only used if the server supports it, see HydPyBinaryEncoding */
+  public final boolean binaryEncoding;
+
+  /* the pool is elastic, if less than maxProcesses */
+  public final int minProcesses;
+
+  public final int scaleUpQueueDepth;
+
+  public final int scaleDownQueueDepth;
+
+  public final int scaleDownDelaySeconds;
+
   public HydPyServerConfiguration( final Path workDir, final Properties args )
   {
     workingDir = workDir;
@@ -138,6 +297,185 @@ final class HydPyServerConfiguration
       throw new RuntimeException( String.format( "Argument '%s': set to '%s', but '%s' not set", PROPERTY_LOG_DIRECTORY, LogMode.file, PROPERTY_LOG_DIRECTORY ) );
 
     timeout = 1000 * HydPyUtils.getOptionalPropertyAsInt( args, PROPERTY_TIMEOUT_SECONDS, 60 );
+
+    connectionPoolSize = HydPyUtils.getOptionalPropertyAsInt( args, PROPERTY_CONNECTION_POOL_SIZE, 2 );
+    if( connectionPoolSize < 1 )
+      throw new RuntimeException( String.format( "Argument '%s': must be positive", PROPERTY_CONNECTION_POOL_SIZE ) );
+
+    connectionIdleSeconds = HydPyUtils.getOptionalPropertyAsInt( args, PROPERTY_CONNECTION_IDLE_SECONDS, 30 );
+    if( connectionIdleSeconds < 1 )
+      throw new RuntimeException( String.format( "Argument '%s': must be positive", PROPERTY_CONNECTION_IDLE_SECONDS ) );
+
+    compression = HydPyUtils.getOptionalPropertyAsEnum( args, PROPERTY_COMPRESSION, HydPyCompression.Mode.off );
+
+    compressionThreshold = HydPyUtils.getOptionalPropertyAsInt( args, PROPERTY_COMPRESSION_THRESHOLD, 16384 );
+    if( compressionThreshold < 0 )
+      throw new RuntimeException( String.format( "Argument '%s': must not be negative", PROPERTY_COMPRESSION_THRESHOLD ) );
+
+    asyncClient = HydPyUtils.getOptionalPropertyAsBoolean( args, PROPERTY_ASYNC_CLIENT, false );
+
+    asyncWorkerThreads = HydPyUtils.getOptionalPropertyAsInt( args, PROPERTY_ASYNC_WORKER_THREADS, Runtime.getRuntime().availableProcessors() );
+    if( asyncWorkerThreads < 1 )
+      throw new RuntimeException( String.format( "Argument '%s': must be positive", PROPERTY_ASYNC_WORKER_THREADS ) );
+
+    transport = HydPyUtils.getOptionalPropertyAsEnum( args, PROPERTY_TRANSPORT, Transport.http );
+    if( transport == Transport.pipe && preStarted )
+      throw new RuntimeException( String.format( "Argument '%s': set to '%s', but '%s' is set; pipes need a process started by the wrapper", PROPERTY_TRANSPORT, Transport.pipe, PROPERTY_SERVER_PRE_STARTED ) );
+    if( transport == Transport.pipe && asyncClient )
+      throw new RuntimeException( String.format( "Argument '%s': set to '%s', but '%s' is set; the non-blocking client only supports http", PROPERTY_TRANSPORT, Transport.pipe, PROPERTY_ASYNC_CLIENT ) );
+
+    final String sharedMemoryDirectoryArgument = args.getProperty( PROPERTY_SHARED_MEMORY_DIRECTORY, null );
+    sharedMemoryDirectory = sharedMemoryDirectoryArgument == null ? null : workingDir.resolve( sharedMemoryDirectoryArgument ).normalize();
+    if( sharedMemoryDirectory != null && !Files.isDirectory( sharedMemoryDirectory ) )
+      throw new RuntimeException( String.format( "Argument '%s': Directory does not exist: %s", PROPERTY_SHARED_MEMORY_DIRECTORY, sharedMemoryDirectory ) );
+
+    sharedMemoryThreshold = HydPyUtils.getOptionalPropertyAsInt( args, PROPERTY_SHARED_MEMORY_THRESHOLD, 10000 );
+    if( sharedMemoryThreshold < 0 )
+      throw new RuntimeException( String.format( "Argument '%s': must not be negative", PROPERTY_SHARED_MEMORY_THRESHOLD ) );
+
+    batchSize = HydPyUtils.getOptionalPropertyAsInt( args, PROPERTY_BATCH_SIZE, 1 );
+    if( batchSize < 1 )
+      throw new RuntimeException( String.format( "Argument '%s': must be positive", PROPERTY_BATCH_SIZE ) );
+
+    chunkedBody = HydPyUtils.getOptionalPropertyAsBoolean( args, PROPERTY_CHUNKED_BODY, false );
+
+    placement = HydPyUtils.getOptionalPropertyAsEnum( args, PROPERTY_PLACEMENT, HydPyPlacementPolicies.Policy.roundrobin );
+
+    minProcesses = HydPyUtils.getOptionalPropertyAsInt( args, PROPERTY_MIN_PROCESSES, maxProcesses );
+    if( minProcesses < 1 || minProcesses > maxProcesses )
+      throw new RuntimeException( String.format( "Argument '%s': must be between 1 and '%s'", PROPERTY_MIN_PROCESSES, PROPERTY_SERVER_MAX_PROCESSES ) );
+
+    // REMARK: an elastic pool only makes sense if instances are moved to new processes
+    migrationThreshold = HydPyUtils.getOptionalPropertyAsInt( args, PROPERTY_MIGRATION_THRESHOLD, isElastic() ? 2 : 0 );
+    if( migrationThreshold < 0 )
+      throw new RuntimeException( String.format( "Argument '%s': must not be negative", PROPERTY_MIGRATION_THRESHOLD ) );
+
+    respawnLimit = HydPyUtils.getOptionalPropertyAsInt( args, PROPERTY_RESPAWN_LIMIT, 0 );
+    if( respawnLimit < 0 )
+      throw new RuntimeException( String.format( "Argument '%s': must not be negative", PROPERTY_RESPAWN_LIMIT ) );
+
+    checkpointInterval = HydPyUtils.getOptionalPropertyAsInt( args, PROPERTY_CHECKPOINT_INTERVAL, 5 );
+    if( checkpointInterval < 1 )
+      throw new RuntimeException( String.format( "Argument '%s': must be positive", PROPERTY_CHECKPOINT_INTERVAL ) );
+
+    fuseCalls = HydPyUtils.getOptionalPropertyAsBoolean( args, PROPERTY_FUSE_CALLS, false );
+
+    parseThreads = HydPyUtils.getOptionalPropertyAsInt( args, PROPERTY_PARSE_THREADS, 0 );
+    if( parseThreads < 0 )
+      throw new RuntimeException( String.format( "Argument '%s': must not be negative", PROPERTY_PARSE_THREADS ) );
+
+    final Set<String> priorities = new HashSet<>();
+    priorities.add( HydPyServerManager.ANY_INSTANCE );
+    for( final String instanceId : StringUtils.split( args.getProperty( PROPERTY_PRIORITY_INSTANCES, StringUtils.EMPTY ), ',' ) )
+    {
+      if( !StringUtils.isBlank( instanceId ) )
+        priorities.add( instanceId.trim() );
+    }
+    priorityInstances = Collections.unmodifiableSet( priorities );
+
+    dedicatedAnyInstance = HydPyUtils.getOptionalPropertyAsBoolean( args, PROPERTY_DEDICATED_ANY_INSTANCE, false );
+    // REMARK: the dedicated process uses the port after all other processes
+    if( dedicatedAnyInstance && startPort + maxProcesses > 0xFFFF )
+      throw new RuntimeException( String.format( "Argument '%s': the port of the dedicated process exceeds maximal possible port 0xFFFF", PROPERTY_DEDICATED_ANY_INSTANCE ) );
+
+    readyMarker = StringUtils.defaultIfEmpty( args.getProperty( PROPERTY_READY_MARKER, null ), null );
+    if( readyMarker != null && transport == Transport.pipe )
+      throw new RuntimeException( String.format( "Argument '%s': set, but '%s' is '%s'; the output of the process is used for the calls", PROPERTY_READY_MARKER, PROPERTY_TRANSPORT, Transport.pipe ) );
+
+    startupConcurrency = HydPyUtils.getOptionalPropertyAsInt( args, PROPERTY_STARTUP_CONCURRENCY, 0 );
+    if( startupConcurrency < 0 )
+      throw new RuntimeException( String.format( "Argument '%s': must not be negative", PROPERTY_STARTUP_CONCURRENCY ) );
+
+    final String poolDirectoryArgument = args.getProperty( PROPERTY_POOL_DIRECTORY, null );
+    poolDirectory = poolDirectoryArgument == null ? null : workingDir.resolve( poolDirectoryArgument ).normalize();
+    if( poolDirectory != null && !Files.isDirectory( poolDirectory ) )
+      throw new RuntimeException( String.format( "Argument '%s': Directory does not exist: %s", PROPERTY_POOL_DIRECTORY, poolDirectory ) );
+    if( poolDirectory != null && transport != Transport.http )
+      throw new RuntimeException( String.format( "Argument '%s': set, but '%s' is '%s'; only servers reachable via http can outlive a run", PROPERTY_POOL_DIRECTORY, PROPERTY_TRANSPORT, transport ) );
+    if( poolDirectory != null && preStarted )
+      throw new RuntimeException( String.format( "Argument '%s': set, but '%s' is set; pooled processes are started by the wrapper", PROPERTY_POOL_DIRECTORY, PROPERTY_SERVER_PRE_STARTED ) );
+    if( poolDirectory != null && readyMarker != null )
+      throw new RuntimeException( String.format( "Argument '%s': set, but '%s' is set; the output of a pooled process can not be watched beyond a single run", PROPERTY_POOL_DIRECTORY, PROPERTY_READY_MARKER ) );
+
+    broadcastConditions = HydPyUtils.getOptionalPropertyAsBoolean( args, PROPERTY_BROADCAST_CONDITIONS, false );
+
+    // REMARK: 'auto' divides the cores of this machine evenly between all processes (including the dedicated one)
+    final int processCount = maxProcesses + (dedicatedAnyInstance ? 1 : 0);
+    final int cores = Runtime.getRuntime().availableProcessors();
+
+    cpuSets = parseCpuSets( args.getProperty( PROPERTY_CPU_SETS, null ), processCount, cores );
+    if( cpuSets != null && preStarted )
+      throw new RuntimeException( String.format( "Argument '%s': set, but the processes are not started by the wrapper", PROPERTY_CPU_SETS ) );
+
+    final String processThreadsArgument = args.getProperty( PROPERTY_PROCESS_THREADS, null );
+    processThreads = VALUE_AUTO.equalsIgnoreCase( processThreadsArgument ) ? Math.max( 1, cores / processCount ) : HydPyUtils.getOptionalPropertyAsInt( args, PROPERTY_PROCESS_THREADS, 0 );
+    if( processThreads < 0 )
+      throw new RuntimeException( String.format( "Argument '%s': must not be negative", PROPERTY_PROCESS_THREADS ) );
+
+    shutdownSeconds = HydPyUtils.getOptionalPropertyAsInt( args, PROPERTY_SHUTDOWN_SECONDS, 300 );
+    if( shutdownSeconds < 1 )
+      throw new RuntimeException( String.format( "Argument '%s': must be positive", PROPERTY_SHUTDOWN_SECONDS ) );
+
+    updateCacheInPlace = HydPyUtils.getOptionalPropertyAsBoolean( args, PROPERTY_UPDATE_CACHE_IN_PLACE, false );
+
+    binaryEncoding = HydPyUtils.getOptionalPropertyAsBoolean( args, PROPERTY_BINARY_ENCODING, false );
+
+    scaleUpQueueDepth = HydPyUtils.getOptionalPropertyAsInt( args, PROPERTY_SCALE_UP_QUEUE_DEPTH, 4 );
+    if( scaleUpQueueDepth < 1 )
+      throw new RuntimeException( String.format( "Argument '%s': must be positive", PROPERTY_SCALE_UP_QUEUE_DEPTH ) );
+
+    scaleDownQueueDepth = HydPyUtils.getOptionalPropertyAsInt( args, PROPERTY_SCALE_DOWN_QUEUE_DEPTH, 1 );
+    if( scaleDownQueueDepth < 0 || scaleDownQueueDepth >= scaleUpQueueDepth )
+      throw new RuntimeException( String.format( "Argument '%s': must not be negative and less than '%s'", PROPERTY_SCALE_DOWN_QUEUE_DEPTH, PROPERTY_SCALE_UP_QUEUE_DEPTH ) );
+
+    scaleDownDelaySeconds = HydPyUtils.getOptionalPropertyAsInt( args, PROPERTY_SCALE_DOWN_DELAY_SECONDS, 60 );
+    if( scaleDownDelaySeconds < 0 )
+      throw new RuntimeException( String.format( "Argument '%s': must not be negative", PROPERTY_SCALE_DOWN_DELAY_SECONDS ) );
+  }
+
+  /**
+   * @return <code>true</code>, if the number of server processes grows and shrinks with their load.
+   */
+  public boolean isElastic( )
+  {
+    return minProcesses < maxProcesses;
+  }
+
+  /**
+   * Parses the argument 'serverCpuSets' into one cpu list per process (assigned round-robin).
+   */
+  private static List<String> parseCpuSets( final String argument, final int processCount, final int cores )
+  {
+    if( StringUtils.isBlank( argument ) )
+      return null;
+
+    final List<String> cpuSets = new ArrayList<>();
+
+    if( VALUE_AUTO.equalsIgnoreCase( argument.trim() ) )
+    {
+      /* consecutive blocks of cores; if there are more processes than cores, each process gets one core and the cores are shared */
+      final int coresPerProcess = Math.max( 1, cores / processCount );
+      for( int i = 0; i < processCount; i++ )
+      {
+        final int first = (i * coresPerProcess) % cores;
+        final int last = Math.min( first + coresPerProcess, cores ) - 1;
+        cpuSets.add( first == last ? Integer.toString( first ) : String.format( "%d-%d", first, last ) ); //$NON-NLS-1$
+      }
+      return Collections.unmodifiableList( cpuSets );
+    }
+
+    for( final String cpuSet : StringUtils.split( argument, ';' ) )
+    {
+      final String trimmed = StringUtils.deleteWhitespace( cpuSet );
+      if( !trimmed.matches( CPU_LIST_PATTERN ) )
+        throw new RuntimeException( String.format( "Argument '%s': invalid cpu list '%s', expected e.g. '0-3,8'", PROPERTY_CPU_SETS, cpuSet ) );
+      cpuSets.add( trimmed );
+    }
+
+    if( cpuSets.isEmpty() )
+      return null;
+
+    return Collections.unmodifiableList( cpuSets );
   }
 
   private String getLocalOrSystemPropertyAsString( final Properties args, final String localKey, final String environmentKey, final String defaultValue )
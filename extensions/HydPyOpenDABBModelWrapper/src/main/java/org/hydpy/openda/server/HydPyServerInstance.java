@@ -12,18 +12,31 @@
 package org.hydpy.openda.server;
 
 import java.io.File;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Deque;
 import java.util.HashMap;
-import java.util.Iterator;
-import java.util.LinkedList;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.concurrent.Callable;
+import java.util.Map.Entry;
+import java.util.Set;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutionException;
-import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executor;
 import java.util.concurrent.Future;
-
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+import org.hydpy.openda.server.HydPyOpenDACaller.PreparedCall;
 import org.openda.interfaces.IExchangeItem;
 
 /**
@@ -33,55 +46,702 @@ import org.openda.interfaces.IExchangeItem;
  */
 final class HydPyServerInstance
 {
-  private final List<Future< ? >> m_pendingTasks = new LinkedList<>();
+  /**
+   * Calls of the same kind for different instances, that were enqueued one directly after the other.
+   * They are executed in as few calls to HydPy as possible, once it is their turn.
+   */
+  private final class Batch<RESULT>
+  {
+    private final String m_kind;
+
+    private final Map<String, Function<HydPyOpenDACaller, PreparedCall<RESULT>>> m_preparers = new LinkedHashMap<>();
+
+    private final Map<String, CompletableFuture<RESULT>> m_results = new HashMap<>();
+
+    /* the previous call of each instance, see #enqueueBatched */
+    private final Map<String, CompletableFuture< ? >> m_previousCalls = new HashMap<>();
+
+    /* the calls and errors of the current execution */
+    private final Map<String, PreparedCall<RESULT>> m_calls = new HashMap<>();
+
+    private final Map<String, Throwable> m_errors = new HashMap<>();
+
+    private boolean m_started = false;
+
+    public Batch( final String kind )
+    {
+      m_kind = kind;
+    }
+
+    /**
+     * @return <code>null</code>, if the call can not be added to this batch.
+     */
+    public synchronized CompletableFuture<RESULT> add( final String kind, final String instanceId, final CompletableFuture< ? > previousCall, final Function<HydPyOpenDACaller, PreparedCall<RESULT>> preparer )
+    {
+      // REMARK: the same instance can not be called twice in one batch, the order of its calls would be lost
+      if( m_started || !m_kind.equals( kind ) || m_preparers.size() >= m_batchSize || m_preparers.containsKey( instanceId ) )
+        return null;
+
+      final CompletableFuture<RESULT> result = new CompletableFuture<>();
+      m_preparers.put( instanceId, preparer );
+      m_results.put( instanceId, result );
+      m_previousCalls.put( instanceId, previousCall );
+      return result;
+    }
+
+    public CompletableFuture<Void> execute( )
+    {
+      synchronized( this )
+      {
+        m_started = true;
+      }
+
+      // REMARK: the results are only completed after all calls were executed, so the whole batch can be replayed after a crash of the server process
+      return withRecovery( this::executeCalls ).handle( ( ignored, error ) -> {
+        for( final Entry<String, CompletableFuture<RESULT>> entry : m_results.entrySet() )
+        {
+          final String instanceId = entry.getKey();
+          final CompletableFuture<RESULT> result = entry.getValue();
+
+          final Throwable callError = error != null ? error : m_errors.get( instanceId );
+          if( callError != null )
+            result.completeExceptionally( callError );
+          else
+            finish( result, m_calls.get( instanceId ) );
+        }
+
+        return null;
+      } );
+    }
+
+    private CompletableFuture<Void> executeCalls( )
+    {
+      // REMARK: the responses of the previous calls of the same instances must be completely parsed, as the new calls depend on their state
+      final CompletableFuture< ? >[] previousCalls = m_previousCalls.values().toArray( new CompletableFuture< ? >[m_previousCalls.size()] );
+      return CompletableFuture.allOf( previousCalls ) //
+          .handle( ( result, error ) -> null ) //
+          .thenCompose( ignored -> prepareAndExecuteCalls() );
+    }
+
+    private CompletableFuture<Void> prepareAndExecuteCalls( )
+    {
+      m_calls.clear();
+      m_errors.clear();
+
+      /* prepare all calls, and group those with the same methods (normally all) */
+      final Map<String, List<PreparedCall<RESULT>>> groups = new LinkedHashMap<>();
+      for( final Entry<String, Function<HydPyOpenDACaller, PreparedCall<RESULT>>> entry : m_preparers.entrySet() )
+      {
+        final String instanceId = entry.getKey();
+        try
+        {
+          // REMARK: a call is never sent, if the previous call of the same instance failed (e.g. simulating after setting the values failed)
+          checkSucceeded( m_previousCalls.get( instanceId ) );
+
+          final PreparedCall<RESULT> call = entry.getValue().apply( getServer() );
+          groups.computeIfAbsent( call.getMethods(), key -> new ArrayList<>() ).add( call );
+          m_calls.put( instanceId, call );
+        }
+        catch( final Throwable e )
+        {
+          m_errors.put( instanceId, e );
+        }
+      }
+
+      /* execute one group after the other */
+      CompletableFuture<Void> last = CompletableFuture.completedFuture( null );
+      for( final List<PreparedCall<RESULT>> group : groups.values() )
+        last = last.thenCompose( ignored -> executeGroup( group ) );
+
+      return last;
+    }
+
+    private CompletableFuture<Void> executeGroup( final List<PreparedCall<RESULT>> group )
+    {
+      final CompletableFuture<Void> executed = group.size() == 1 ? getServer().execute( group.get( 0 ) ) : getServer().executeBatch( group );
+
+      return executed.handle( ( ignored, error ) -> {
+        // REMARK: if the server could not be reached, the remaining groups will fail as well
+        if( error != null && HydPyUtils.isCommunicationFailure( error ) )
+          throw new CompletionException( error );
+
+        if( error != null )
+        {
+          for( final Entry<String, PreparedCall<RESULT>> entry : m_calls.entrySet() )
+          {
+            if( group.contains( entry.getValue() ) )
+              m_errors.put( entry.getKey(), error );
+          }
+        }
+
+        return null;
+      } );
+    }
+  }
+
+  /**
+   * The state of one model instance on this server. Calls of the same instance are given to the server in the order they are made, while holding the lock of the mailbox;
+   * the server itself is only locked for enqueuing the call, so waiting for one instance never blocks the calls of others.
+   */
+  private static final class InstanceMailbox
+  {
+    private final boolean m_priority;
+
+    private CompletableFuture<List<IExchangeItem>> m_currentSimulation = null;
+
+    /* the last call of this instance, every call depends on its predecessor */
+    private CompletableFuture< ? > m_lastCall = CompletableFuture.completedFuture( null );
+
+    private final List<File> m_filesToDelete = new ArrayList<>();
+
+    /* item values that are not yet given to the server, in order to send them together with the next simulation */
+    private Collection<IExchangeItem> m_deferredValues = null;
+
+    private CompletableFuture<Void> m_deferredResult = null;
+
+    public InstanceMailbox( final boolean priority )
+    {
+      m_priority = priority;
+    }
+
+    public boolean isPriority( )
+    {
+      return m_priority;
+    }
+
+    public synchronized CompletableFuture<List<IExchangeItem>> getCurrentSimulation( )
+    {
+      return m_currentSimulation;
+    }
+
+    public synchronized void setCurrentSimulation( final CompletableFuture<List<IExchangeItem>> currentSimulation )
+    {
+      m_currentSimulation = currentSimulation;
+    }
+
+    public synchronized CompletableFuture< ? > getLastCall( )
+    {
+      return m_lastCall;
+    }
+
+    public synchronized void setLastCall( final CompletableFuture< ? > lastCall )
+    {
+      m_lastCall = lastCall;
+    }
+
+    public synchronized void addFileToDelete( final File file )
+    {
+      m_filesToDelete.add( file );
+    }
+
+    public synchronized void deferItemValues( final Collection<IExchangeItem> values, final CompletableFuture<Void> result )
+    {
+      m_deferredValues = values;
+      m_deferredResult = result;
+    }
+
+    /**
+     * @return <code>null</code>, if no item values are deferred.
+     */
+    public synchronized Collection<IExchangeItem> takeDeferredItemValues( )
+    {
+      final Collection<IExchangeItem> values = m_deferredValues;
+      m_deferredValues = null;
+      return values;
+    }
+
+    public synchronized CompletableFuture<Void> takeDeferredResult( )
+    {
+      final CompletableFuture<Void> result = m_deferredResult;
+      m_deferredResult = null;
+      return result;
+    }
+
+    public synchronized List<File> takeFilesToDelete( )
+    {
+      final List<File> files = new ArrayList<>( m_filesToDelete );
+      m_filesToDelete.clear();
+      return files;
+    }
+  }
+
+  /* the first error of a task where normally get is never called, see #checkLater */
+  private final AtomicReference<Throwable> m_pendingError = new AtomicReference<>();
+
+  private final Map<String, InstanceMailbox> m_mailboxes = new ConcurrentHashMap<>();
+
+  /* may change, if the process is respawned after a crash */
+  private volatile HydPyOpenDACaller m_server;
+
+  private final Executor m_executor;
+
+  private final int m_batchSize;
+
+  private final boolean m_fuseCalls;
+
+  /* optional */
+  private final Executor m_parseExecutor;
+
+  /* responses that are still parsed by the parse executor */
+  private final Set<CompletableFuture<Void>> m_finishing = ConcurrentHashMap.newKeySet();
 
-  private final Map<String, Future<List<IExchangeItem>>> m_currentSimulations = new HashMap<>();
+  private final AtomicLong m_simulations = new AtomicLong();
 
-  private final Map<String, List<File>> m_fileToDeleteAfterGetItems = new HashMap<>();
+  private final AtomicLong m_fusedSimulations = new AtomicLong();
 
-  private final HydPyOpenDACaller m_server;
+  /* optional */
+  private final IHydPyServerSupervisor m_supervisor;
 
-  private final ExecutorService m_executor;
+  private final int m_respawnLimit;
 
-  public HydPyServerInstance( final HydPyOpenDACaller server, final ExecutorService executor )
+  private final AtomicInteger m_respawns = new AtomicInteger();
+
+  private final AtomicLong m_recoveryNanos = new AtomicLong();
+
+  /* the dirs of all instances ever on this server, needed to re-initialize them after a crash */
+  private final Map<String, HydPyInstanceDirs> m_instanceDirs = new ConcurrentHashMap<>();
+
+  /* the last enqueued task, if it is a batch that still accepts calls */
+  private Batch< ? > m_openBatch = null;
+
+  /* tasks waiting for the server; tasks of priority instances are started before all others */
+  private final Deque<Runnable> m_priorityTasks = new ArrayDeque<>();
+
+  private final Deque<Runnable> m_tasks = new ArrayDeque<>();
+
+  /* if a task is currently executed, tasks are always executed one after the other */
+  private boolean m_running = false;
+
+  private final Set<String> m_priorityInstances;
+
+  /* calls given to this server that are not yet completed */
+  private final AtomicInteger m_queueDepth = new AtomicInteger();
+
+  private final AtomicLong m_completedCalls = new AtomicLong();
+
+  /* time spent executing tasks, i.e. not waiting in the queue */
+  private final AtomicLong m_busyNanos = new AtomicLong();
+
+  /**
+   * @param executor
+   *          The executor on which each task will be started. Either a single thread dedicated to this server (then each task blocks this thread until it's http calls are done),
+   *          or a shared pool if the server uses the non-blocking http engine.
+   * @param batchSize
+   *          The maximal number of consecutive calls of the same kind that are executed in one call to HydPy. 1, if the server does not support batched calls.
+   * @param fuseCalls
+   *          If <code>true</code>, setting the item values of an instance is deferred and sent together with its next simulation, if it directly follows.
+   * @param parseExecutor
+   *          If set, the responses of batched calls (i.e. simulations) are parsed on this executor, while the server is already working on the next call; else they are parsed before the next call starts.
+   * @param supervisor
+   *          Respawns the process after a crash; <code>null</code>, if calls to a crashed process should simply fail.
+   * @param respawnLimit
+   *          The maximal number of times the process is respawned.
+   * @param priorityInstances
+   *          The calls of these instances are given to the server before waiting calls of all other instances.
+   */
+  public HydPyServerInstance( final HydPyOpenDACaller server, final Executor executor, final int batchSize, final boolean fuseCalls, final Executor parseExecutor, final IHydPyServerSupervisor supervisor, final int respawnLimit, final Set<String> priorityInstances )
   {
     m_server = server;
     m_executor = executor;
+    m_batchSize = batchSize;
+    m_fuseCalls = fuseCalls;
+    m_parseExecutor = parseExecutor;
+    m_supervisor = supervisor;
+    m_respawnLimit = respawnLimit;
+    m_priorityInstances = priorityInstances;
   }
 
-  protected HydPyOpenDACaller getServer( )
+  /**
+   * Enqueues a task for the server. Tasks are always executed one after the other, in the order they are given, regardless of the executor.
+   * Any exception will be logged, as exceptions will typically only propagated once Future#get is called, which we sometimes don't do.
+   */
+  private synchronized <RESULT> CompletableFuture<RESULT> enqueue( final boolean priority, final Supplier<CompletableFuture<RESULT>> task )
   {
-    return m_server;
+    return track( schedule( priority, task ) );
   }
 
-  public String getName( )
+  /**
+   * Enqueues a call of an instance. The call is given to the server, once the previous call of the instance is completely done (including parsing its response).
+   *
+   * @param requiresSuccess
+   *          If <code>true</code>, the call fails without being sent, if the previous call of the instance failed.
+   */
+  private <RESULT> CompletableFuture<RESULT> enqueueFor( final InstanceMailbox mailbox, final boolean requiresSuccess, final Supplier<CompletableFuture<RESULT>> task )
   {
-    return getServer().getName();
+    final CompletableFuture< ? > previousCall = mailbox.getLastCall();
+
+    final CompletableFuture<RESULT> future = enqueue( mailbox.isPriority(), ( ) -> previousCall //
+        .handle( ( result, error ) -> null ) //
+        .thenCompose( ignored -> {
+          if( requiresSuccess )
+            checkSucceeded( previousCall );
+          return task.get();
+        } ) );
+
+    mailbox.setLastCall( future );
+    return future;
+  }
+
+  /**
+   * Same as {@link #enqueueFor(InstanceMailbox, boolean, Supplier)}, but for a prepared call whose response is parsed in parallel to the following calls to the
+   * server, same as for batched calls. The next call of the instance still waits until the response is parsed.
+   */
+  private <RESULT> CompletableFuture<RESULT> enqueuePrepared( final InstanceMailbox mailbox, final boolean requiresSuccess, final Function<HydPyOpenDACaller, PreparedCall<RESULT>> preparer )
+  {
+    final CompletableFuture<RESULT> result = new CompletableFuture<>();
+
+    final CompletableFuture<Void> executed = enqueueFor( mailbox, requiresSuccess, ( ) -> {
+      final PreparedCall<RESULT> call = preparer.apply( getServer() );
+      return getServer().execute( call ).thenRun( ( ) -> finish( result, call ) );
+    } );
+
+    executed.whenComplete( ( ignored, error ) -> {
+      if( error != null )
+        result.completeExceptionally( error );
+    } );
+
+    // REMARK: replaces the call set by enqueueFor, the next call of the instance depends on the parsed result
+    mailbox.setLastCall( result );
+    return result;
+  }
+
+  /**
+   * Builds the result from the response, in parallel to the following calls to the server if a parse executor is given.
+   */
+  private <RESULT> void finish( final CompletableFuture<RESULT> result, final PreparedCall<RESULT> call )
+  {
+    if( m_parseExecutor == null )
+    {
+      completeWithResult( result, call );
+      return;
+    }
+
+    final CompletableFuture<Void> finished = CompletableFuture.runAsync( ( ) -> completeWithResult( result, call ), m_parseExecutor );
+    m_finishing.add( finished );
+    finished.whenComplete( ( ignored, error ) -> m_finishing.remove( finished ) );
+  }
+
+  private static <RESULT> void completeWithResult( final CompletableFuture<RESULT> result, final PreparedCall<RESULT> call )
+  {
+    try
+    {
+      result.complete( call.finish() );
+    }
+    catch( final Throwable e )
+    {
+      result.completeExceptionally( e );
+    }
+  }
+
+  /**
+   * Throws an exception, if the given (already completed) call has failed.
+   */
+  private static void checkSucceeded( final CompletableFuture< ? > previousCall ) throws HydPyServerException
+  {
+    if( !previousCall.isCompletedExceptionally() )
+      return;
+
+    try
+    {
+      previousCall.join();
+    }
+    catch( final CompletionException | CancellationException e )
+    {
+      // REMARK: the error is not given as cause, it was already reported and should not be mistaken for a communication failure of this call
+      final Throwable cause = e.getCause() == null ? e : e.getCause();
+      throw new HydPyServerException( String.format( "Previous call failed: %s", cause.getLocalizedMessage() ) );
+    }
+  }
+
+  /**
+   * @return A future that is completed once all currently parsed responses are parsed.
+   */
+  private CompletableFuture<Void> awaitFinishing( )
+  {
+    final CompletableFuture< ? >[] finishing = m_finishing.toArray( new CompletableFuture< ? >[0] );
+    return CompletableFuture.allOf( finishing ).handle( ( result, error ) -> null );
+  }
+
+  /**
+   * Same as {@link #enqueue(boolean, Supplier)}, but the task is not counted as call, see {@link #track(CompletableFuture)}.
+   */
+  private synchronized <RESULT> CompletableFuture<RESULT> schedule( final boolean priority, final Supplier<CompletableFuture<RESULT>> task )
+  {
+    return scheduleWithoutRecovery( priority, ( ) -> withRecovery( task ) );
+  }
+
+  /**
+   * @param priority
+   *          If <code>true</code>, the task is started before all waiting tasks without priority. The order of the calls of one instance is kept anyways, as all its calls have the same priority.
+   */
+  private synchronized <RESULT> CompletableFuture<RESULT> scheduleWithoutRecovery( final boolean priority, final Supplier<CompletableFuture<RESULT>> task )
+  {
+    final CompletableFuture<RESULT> future = new CompletableFuture<>();
+
+    final Runnable start = ( ) -> m_executor.execute( ( ) -> {
+      measureSafely( task ).whenComplete( ( result, error ) -> {
+        if( error != null )
+          future.completeExceptionally( error );
+        else
+          future.complete( result );
+
+        // REMARK: the next task starts after the previous one, even if the previous one failed
+        startNextTask();
+      } );
+    } );
+
+    if( priority )
+      m_priorityTasks.add( start );
+    else
+    {
+      m_tasks.add( start );
+      m_openBatch = null;
+    }
+
+    logErrors( future );
+
+    if( !m_running )
+      startNextTask();
+
+    return future;
   }
 
-  public synchronized void checkPendingTasks( ) throws HydPyServerException
+  private synchronized void startNextTask( )
   {
-    // REMARK: checks the 'pending' tasks (i.e. tasks where normally get is never called)
-    // if they are finished and force an exception in the main thread if they failed.
+    final Runnable next = m_priorityTasks.isEmpty() ? m_tasks.poll() : m_priorityTasks.poll();
 
-    final List<Future< ? >> x = m_pendingTasks;
-    for( final Iterator<Future< ? >> iterator = x.iterator(); iterator.hasNext(); )
+    m_running = next != null;
+    if( next != null )
+      next.run();
+  }
+
+  private <RESULT> CompletableFuture<RESULT> measureSafely( final Supplier<CompletableFuture<RESULT>> task )
+  {
+    try
+    {
+      return measure( task );
+    }
+    catch( final Throwable e )
+    {
+      return HydPyUtils.failedFuture( e );
+    }
+  }
+
+  /**
+   * Executes the call; if it fails because the server process is not reachable, the process is respawned, its instances are restored and the call is repeated.
+   */
+  private <RESULT> CompletableFuture<RESULT> withRecovery( final Supplier<CompletableFuture<RESULT>> call )
+  {
+    if( m_supervisor == null )
+      return call.get();
+
+    return callWithRecovery( call, false );
+  }
+
+  private <RESULT> CompletableFuture<RESULT> callWithRecovery( final Supplier<CompletableFuture<RESULT>> call, final boolean isRetry )
+  {
+    CompletableFuture<RESULT> future;
+    try
+    {
+      future = call.get();
+    }
+    catch( final Throwable e )
     {
-      final Future< ? > future = iterator.next();
-      if( future.isDone() )
+      future = HydPyUtils.failedFuture( e );
+    }
+
+    return future.handle( ( result, error ) -> {
+      if( error == null )
+        return CompletableFuture.completedFuture( result );
+
+      if( !HydPyUtils.isCommunicationFailure( error ) )
+        return HydPyUtils.<RESULT> failedFuture( error );
+
+      // REMARK: a process that is still running gets a second chance, e.g. after a single timeout
+      if( !isRetry && !m_supervisor.isTerminated() )
       {
-        iterator.remove();
+        getServer().debugOut( "call failed, repeating it: %s", error.getLocalizedMessage() );
+        return callWithRecovery( call, true );
+      }
 
-        try
-        {
-          future.get();
-        }
-        catch( final InterruptedException | ExecutionException e )
-        {
-          throw HydPyUtils.toHydPyServerException( e );
-        }
+      if( m_respawns.get() >= m_respawnLimit )
+      {
+        System.err.format( "%s: HydPy server not reachable, giving up after %d restart(s)%n", getName(), m_respawns.get() );
+        return HydPyUtils.<RESULT> failedFuture( error );
+      }
+
+      return recover( error ).thenCompose( ignored -> callWithRecovery( call, false ) );
+    } ).thenCompose( Function.identity() );
+  }
+
+  /**
+   * Respawns the process and restores all instances into it.
+   */
+  private CompletableFuture<Void> recover( final Throwable error )
+  {
+    final long start = System.nanoTime();
+    final int respawn = m_respawns.incrementAndGet();
+
+    System.err.format( "%s: HydPy server not reachable, restarting process (%d. restart): %s%n", getName(), respawn, error.getLocalizedMessage() );
+
+    final HydPyOpenDACaller crashed = getServer();
+
+    // REMARK: the checkpoints of the instances are only up to date, once all received responses are parsed
+    return awaitFinishing().thenCompose( ignored -> respawn( crashed, start, respawn ) );
+  }
+
+  private CompletableFuture<Void> respawn( final HydPyOpenDACaller crashed, final long start, final int respawn )
+  {
+    final List<HydPyMigratedInstance> states;
+    try
+    {
+      states = crashed.getRecoveryStates();
+    }
+    catch( final HydPyServerException e )
+    {
+      return HydPyUtils.failedFuture( e );
+    }
+
+    return m_supervisor.respawn( crashed ).thenCompose( respawned -> {
+      CompletableFuture< ? > restored = CompletableFuture.completedFuture( null );
+      for( final HydPyMigratedInstance state : states )
+        restored = restored.thenCompose( ignored -> respawned.importInstance( state, m_instanceDirs.get( state.getInstanceId() ) ) );
+
+      return restored.thenRun( ( ) -> {
+        m_server = respawned;
+
+        final long recoveryNanos = System.nanoTime() - start;
+        final long totalNanos = m_recoveryNanos.addAndGet( recoveryNanos );
+        System.out.format( "%s: recovered %d instance(s) after %.2f seconds (%d restart(s), %.2f seconds recovery in total)%n", getName(), states.size(), recoveryNanos / 1e9, respawn, totalNanos / 1e9 );
+      } );
+    } );
+  }
+
+  private <RESULT> CompletableFuture<RESULT> measure( final Supplier<CompletableFuture<RESULT>> task )
+  {
+    final long start = System.nanoTime();
+
+    final CompletableFuture<RESULT> future = task.get();
+
+    future.whenComplete( ( result, error ) -> m_busyNanos.addAndGet( System.nanoTime() - start ) );
+
+    return future;
+  }
+
+  /**
+   * Counts the call as queued until it completes.
+   */
+  private <RESULT> CompletableFuture<RESULT> track( final CompletableFuture<RESULT> call )
+  {
+    m_queueDepth.incrementAndGet();
+
+    call.whenComplete( ( result, error ) -> {
+      m_queueDepth.decrementAndGet();
+      m_completedCalls.incrementAndGet();
+    } );
+
+    return call;
+  }
+
+  /**
+   * @return The number of calls given to this server that are not yet completed.
+   */
+  public int getQueueDepth( )
+  {
+    return m_queueDepth.get();
+  }
+
+  /**
+   * @return The completed calls per second this server was busy; {@link Double#NaN} if nothing was completed yet.
+   */
+  public double getThroughput( )
+  {
+    final long busyNanos = m_busyNanos.get();
+    if( busyNanos == 0 )
+      return Double.NaN;
+
+    return m_completedCalls.get() / (busyNanos / (double)TimeUnit.SECONDS.toNanos( 1 ));
+  }
+
+  private static void logErrors( final CompletableFuture< ? > future )
+  {
+    future.whenComplete( ( result, error ) -> {
+      if( error != null )
+        error.printStackTrace();
+    } );
+  }
+
+  /**
+   * Enqueues a call, that might be executed together with directly preceding calls of the same kind for other instances.
+   */
+  private synchronized <RESULT> CompletableFuture<RESULT> enqueueBatched( final String kind, final String instanceId, final InstanceMailbox mailbox, final Function<HydPyOpenDACaller, PreparedCall<RESULT>> preparer )
+  {
+    final CompletableFuture< ? > previousCall = mailbox.getLastCall();
+
+    // REMARK: calls of priority instances are never batched, they should not wait for other calls
+    final boolean priority = mailbox.isPriority();
+    if( m_openBatch != null && !priority )
+    {
+      @SuppressWarnings( "unchecked" ) final Batch<RESULT> openBatch = (Batch<RESULT>)m_openBatch;
+      final CompletableFuture<RESULT> result = openBatch.add( kind, instanceId, previousCall, preparer );
+      if( result != null )
+      {
+        logErrors( result );
+        mailbox.setLastCall( result );
+        return track( result );
       }
     }
+
+    final Batch<RESULT> batch = new Batch<>( kind );
+    final CompletableFuture<RESULT> result = batch.add( kind, instanceId, previousCall, preparer );
+    logErrors( result );
+    mailbox.setLastCall( result );
+
+    // REMARK: the calls of the batch are counted, not the batch itself; the batch handles crashes itself
+    scheduleWithoutRecovery( priority, batch::execute );
+    track( result );
+
+    if( m_batchSize > 1 && !priority )
+      m_openBatch = batch;
+
+    return result;
+  }
+
+  protected HydPyOpenDACaller getServer( )
+  {
+    return m_server;
+  }
+
+  public String getName( )
+  {
+    return getServer().getName();
+  }
+
+  /**
+   * Throws the first error of a task where normally get is never called (i.e. setItemValues, closeServer), in order to force an exception in the main thread.
+   */
+  public void checkPendingTasks( ) throws HydPyServerException
+  {
+    final Throwable error = m_pendingError.getAndSet( null );
+    if( error == null )
+      return;
+
+    if( error instanceof HydPyServerException )
+      throw (HydPyServerException)error;
+
+    throw new HydPyServerException( error );
+  }
+
+  /**
+   * Specially remember task, where get normally is never called.
+   * We will check for exceptions of these special tasks, else OpenDA will keep running even if exceptions have occured.
+   */
+  private void checkLater( final CompletableFuture< ? > future )
+  {
+    future.whenComplete( ( result, error ) -> {
+      if( error != null )
+        m_pendingError.compareAndSet( null, error instanceof CompletionException && error.getCause() != null ? error.getCause() : error );
+    } );
   }
 
   public Collection<HydPyExchangeItemDescription> getItems( )
@@ -90,20 +750,37 @@ final class HydPyServerInstance
     return getServer().getItems();
   }
 
-  public synchronized void initializeInstance( final String instanceId, final HydPyInstanceDirs instanceDirs )
+  private InstanceMailbox getMailbox( final String instanceId ) throws HydPyServerException
   {
-    final Callable<List<IExchangeItem>> callable = ( ) -> getServer().initializeInstance( instanceId, instanceDirs );
+    final InstanceMailbox mailbox = m_mailboxes.get( instanceId );
+    if( mailbox == null )
+      throw new HydPyServerException( String.format( "Unknown instance: %s", instanceId ) );
 
-    final Future<List<IExchangeItem>> future = HydPyUtils.submitAndLogExceptions( m_executor, callable );
+    return mailbox;
+  }
 
-    m_currentSimulations.put( instanceId, future );
+  public void initializeInstance( final String instanceId, final HydPyInstanceDirs instanceDirs )
+  {
+    m_instanceDirs.put( instanceId, instanceDirs );
+
+    final InstanceMailbox mailbox = new InstanceMailbox( m_priorityInstances.contains( instanceId ) );
+    synchronized( mailbox )
+    {
+      m_mailboxes.put( instanceId, mailbox );
+      mailbox.setCurrentSimulation( enqueueFor( mailbox, false, ( ) -> getServer().initializeInstance( instanceId, instanceDirs ) ) );
+    }
   }
 
-  public synchronized List<IExchangeItem> getItemValues( final String instanceId ) throws HydPyServerException
+  /**
+   * Blocks until the last simulation (or initialization) of the instance is done, but never blocks calls of other instances.
+   */
+  public List<IExchangeItem> getItemValues( final String instanceId ) throws HydPyServerException
   {
     checkPendingTasks();
 
-    final Future<List<IExchangeItem>> currentSimulation = m_currentSimulations.get( instanceId );
+    final InstanceMailbox mailbox = getMailbox( instanceId );
+
+    final Future<List<IExchangeItem>> currentSimulation = mailbox.getCurrentSimulation();
     if( currentSimulation == null )
       throw new HydPyServerException( "Get item values before simulation/initialization" );
 
@@ -111,10 +788,10 @@ final class HydPyServerInstance
     {
       final List<IExchangeItem> itemValues = currentSimulation.get();
       // we keep the last simulation forever in case of consecutive 'getItemsValues'
-      // m_currentSimulation = null;
 
       /* we can now also delete files that had been moarked for deletion */
-      deleteFilesMarkedForDeletion( instanceId );
+      // REMARK: delegate to a separate thread, in order to minimalize blocking the main thread
+      FileDeletionThread.instance().addFilesForDeletion( mailbox.takeFilesToDelete() );
 
       return itemValues;
     }
@@ -124,80 +801,202 @@ final class HydPyServerInstance
     }
   }
 
-  private void deleteFilesMarkedForDeletion( final String instanceId )
+  public void setItemValues( final String instanceId, final Collection<IExchangeItem> values ) throws HydPyServerException
   {
-    final List<File> filesToDelete = m_fileToDeleteAfterGetItems.computeIfAbsent( instanceId, key -> new ArrayList<>() );
+    checkPendingTasks();
 
-    // REMARK: delegate to a separate thread, in order to minimalize blocking the main thread
-    FileDeletionThread.instance().addFilesForDeletion( filesToDelete );
+    final InstanceMailbox mailbox = getMailbox( instanceId );
+    synchronized( mailbox )
+    {
+      if( m_fuseCalls )
+      {
+        // REMARK: the values are only sent with the next call of this instance, typically together with the following simulation
+        flushDeferredItemValues( instanceId, mailbox );
 
-    filesToDelete.clear();
+        final CompletableFuture<Void> result = new CompletableFuture<>();
+        mailbox.deferItemValues( values, result );
+        checkLater( result );
+      }
+      else
+        checkLater( enqueueBatched( "setItemValues", instanceId, mailbox, server -> server.prepareSetItemValues( instanceId, values ) ) );
+    }
   }
 
-  public synchronized void setItemValues( final String instanceId, final Collection<IExchangeItem> values ) throws HydPyServerException
+  /**
+   * Gives deferred item values of the instance to the server, so they are set before any following call of this instance.
+   */
+  private void flushDeferredItemValues( final String instanceId, final InstanceMailbox mailbox )
   {
-    checkPendingTasks();
+    final Collection<IExchangeItem> values = mailbox.takeDeferredItemValues();
+    if( values == null )
+      return;
 
-    final Callable<Void> callable = ( ) -> {
-      getServer().setItemValues( instanceId, values );
-      return null;
-    };
+    final CompletableFuture<Void> result = mailbox.takeDeferredResult();
+    completeWith( result, enqueueBatched( "setItemValues", instanceId, mailbox, server -> server.prepareSetItemValues( instanceId, values ) ) );
+  }
 
-    final Future<Void> future = HydPyUtils.submitAndLogExceptions( m_executor, callable );
-    // REMARK: specially remember task, where get normally is never called.
-    // We will check for exceptions of these special tasks, else OpenDA will keep running even if exceptions have occured.
-    m_pendingTasks.add( future );
+  private static <RESULT> void completeWith( final CompletableFuture<RESULT> target, final CompletableFuture<RESULT> source )
+  {
+    source.whenComplete( ( result, error ) -> {
+      if( error != null )
+        target.completeExceptionally( error );
+      else
+        target.complete( result );
+    } );
   }
 
-  public synchronized String[] getItemNames( final String itemId ) throws HydPyServerException
+  public String[] getItemNames( final String itemId ) throws HydPyServerException
   {
     return getServer().getItemNames( itemId );
   }
 
-  public synchronized void restoreInternalState( final String instanceId, final File stateConditionsDir, final boolean deleteFiles ) throws HydPyServerException
+  public void restoreInternalState( final String instanceId, final File stateConditionsDir, final boolean deleteFiles ) throws HydPyServerException
   {
     checkPendingTasks();
 
-    // REMARK: we always restore the conditions fetch the current exchange item state in one call
-    final Future<List<IExchangeItem>> future = HydPyUtils.submitAndLogExceptions( m_executor, ( ) -> getServer().restoreInternalState( instanceId, stateConditionsDir ) );
-    m_currentSimulations.put( instanceId, future );
-
-    if( deleteFiles )
+    final InstanceMailbox mailbox = getMailbox( instanceId );
+    synchronized( mailbox )
     {
-      final List<File> filesToDelete = m_fileToDeleteAfterGetItems.computeIfAbsent( instanceId, key -> new ArrayList<>() );
-      filesToDelete.add( stateConditionsDir );
+      flushDeferredItemValues( instanceId, mailbox );
+
+      // REMARK: we always restore the conditions fetch the current exchange item state in one call
+      // REMARK: restoring does not depend on the success of the previous call, as it replaces the whole state
+      mailbox.setCurrentSimulation( enqueuePrepared( mailbox, false, server -> server.prepareRestoreInternalState( instanceId, stateConditionsDir ) ) );
+
+      if( deleteFiles )
+        mailbox.addFileToDelete( stateConditionsDir );
     }
   }
 
-  public synchronized void simulate( final String instanceId, final File outputControlDir ) throws HydPyServerException
+  public void simulate( final String instanceId, final File outputControlDir ) throws HydPyServerException
   {
     checkPendingTasks();
 
-    // REMARK: we always directly simulate and fetch the results in one call
-    final Future<List<IExchangeItem>> future = HydPyUtils.submitAndLogExceptions( m_executor, ( ) -> getServer().simulate( instanceId, outputControlDir ) );
-    m_currentSimulations.put( instanceId, future );
+    final InstanceMailbox mailbox = getMailbox( instanceId );
+    synchronized( mailbox )
+    {
+      m_simulations.incrementAndGet();
+
+      final Collection<IExchangeItem> deferredValues = mailbox.takeDeferredItemValues();
+      if( deferredValues == null )
+      {
+        // REMARK: we always directly simulate and fetch the results in one call
+        mailbox.setCurrentSimulation( enqueueBatched( "simulate", instanceId, mailbox, server -> server.prepareSimulate( instanceId, outputControlDir ) ) );
+        return;
+      }
+
+      /* set the values, simulate and fetch the results all in one call */
+      m_fusedSimulations.incrementAndGet();
+
+      final CompletableFuture<List<IExchangeItem>> simulation = enqueueBatched( "setItemValuesAndSimulate", instanceId, mailbox, server -> server.prepareSetItemValuesAndSimulate( instanceId, deferredValues, outputControlDir ) );
+      mailbox.setCurrentSimulation( simulation );
+
+      // REMARK: if the fused call fails, the error is reported by both, the simulation and the setting of the values
+      completeWith( mailbox.takeDeferredResult(), simulation.thenApply( values -> (Void)null ) );
+    }
+  }
+
+  public CompletableFuture<Void> closeServer( ) throws HydPyServerException
+  {
+    return shutdown( HydPyOpenDACaller::closeServer );
+  }
+
+  /**
+   * Same as {@link #closeServer()}, but the process keeps running in order to be reused by a later run, see {@link HydPyOpenDACaller#releaseInstances()}.
+   */
+  public CompletableFuture<Void> releaseToPool( ) throws HydPyServerException
+  {
+    return shutdown( HydPyOpenDACaller::releaseInstances );
   }
 
-  public synchronized void closeServer( ) throws HydPyServerException
+  private CompletableFuture<Void> shutdown( final Function<HydPyOpenDACaller, CompletableFuture<Void>> closer ) throws HydPyServerException
   {
     // REMARK: we do NOT check for pending tasks here, else shutdown will not terminate correctly
 
-    final Future<Void> future = HydPyUtils.submitAndLogExceptions( m_executor, ( ) -> getServer().closeServer() );
+    for( final Entry<String, InstanceMailbox> entry : m_mailboxes.entrySet() )
+    {
+      final InstanceMailbox mailbox = entry.getValue();
+      synchronized( mailbox )
+      {
+        flushDeferredItemValues( entry.getKey(), mailbox );
+      }
+    }
+
+    if( m_fuseCalls )
+      System.out.format( "%s: %d of %d simulation(s) fused with setting the item values%n", getName(), m_fusedSimulations.get(), m_simulations.get() );
 
-    // REMARK: specially remember task, where get normally is never called.
-    // We will check for exceptions ofthese special tasks, else OpenDA will keep running even if exceptions have occured.
-    m_pendingTasks.add( future );
+    // REMARK: closing deletes the checkpoints, so all responses must be parsed before
+    final CompletableFuture<Void> future = enqueue( false, ( ) -> awaitFinishing().thenCompose( ignored -> closer.apply( getServer() ) ) );
+    checkLater( future );
+    return future;
   }
 
-  public synchronized Future<Void> writeConditions( final String instanceId, final File outputConditionsDir ) throws HydPyServerException
+  public Future<Void> writeConditions( final String instanceId, final File outputConditionsDir ) throws HydPyServerException
   {
     checkPendingTasks();
 
-    final Callable<Void> callable = ( ) -> {
-      getServer().writeConditions( instanceId, outputConditionsDir );
-      return null;
-    };
+    final InstanceMailbox mailbox = getMailbox( instanceId );
+    synchronized( mailbox )
+    {
+      flushDeferredItemValues( instanceId, mailbox );
+
+      // REMARK: the conditions of an instance whose previous call failed are not written, its state is unknown
+      return enqueueFor( mailbox, true, ( ) -> getServer().writeConditions( instanceId, outputConditionsDir ) );
+    }
+  }
 
-    return HydPyUtils.submitAndLogExceptions( m_executor, callable );
+  /**
+   * @return <code>true</code>, if the last simulation (or initialization) of the instance has completed successfully, so its state is consistent and can be exported.
+   */
+  public boolean isSettled( final String instanceId )
+  {
+    final InstanceMailbox mailbox = m_mailboxes.get( instanceId );
+    if( mailbox == null )
+      return false;
+
+    final CompletableFuture<List<IExchangeItem>> currentSimulation = mailbox.getCurrentSimulation();
+    return currentSimulation != null && currentSimulation.isDone() && !currentSimulation.isCompletedExceptionally();
+  }
+
+  /**
+   * Removes the instance from this server, see {@link HydPyOpenDACaller#exportInstance(String, List)}.
+   */
+  public CompletableFuture<HydPyMigratedInstance> exportInstance( final String instanceId ) throws HydPyServerException
+  {
+    final InstanceMailbox mailbox = getMailbox( instanceId );
+    synchronized( mailbox )
+    {
+      m_mailboxes.remove( instanceId );
+
+      flushDeferredItemValues( instanceId, mailbox );
+
+      final CompletableFuture<List<IExchangeItem>> currentSimulation = mailbox.getCurrentSimulation();
+      final List<File> filesToDelete = mailbox.takeFilesToDelete();
+
+      final CompletableFuture<HydPyMigratedInstance> future = enqueueFor( mailbox, true, ( ) -> currentSimulation.thenCompose( currentValues -> getServer().exportInstance( instanceId, currentValues ) ) );
+
+      /* HydPy has read these files at latest when the export is done */
+      future.thenRun( ( ) -> FileDeletionThread.instance().addFilesForDeletion( filesToDelete ) );
+
+      return future;
+    }
+  }
+
+  /**
+   * Adds an instance exported from another server, see {@link HydPyOpenDACaller#importInstance(HydPyMigratedInstance, HydPyInstanceDirs)}.
+   */
+  public void importInstance( final String instanceId, final HydPyInstanceDirs instanceDirs, final CompletableFuture<HydPyMigratedInstance> exported )
+  {
+    m_instanceDirs.put( instanceId, instanceDirs );
+
+    final InstanceMailbox mailbox = new InstanceMailbox( m_priorityInstances.contains( instanceId ) );
+    synchronized( mailbox )
+    {
+      m_mailboxes.put( instanceId, mailbox );
+
+      // REMARK: this server waits (without blocking a thread) until the other server has exported the instance.
+      // This can not dead-lock, as an export never waits for another server.
+      mailbox.setCurrentSimulation( enqueueFor( mailbox, false, ( ) -> exported.thenComposeAsync( state -> getServer().importInstance( state, instanceDirs ), m_executor ) ) );
+    }
   }
-}
\ No newline at end of file
+}
@@ -18,12 +18,28 @@ import java.io.StringReader;
 import java.net.URL;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
 import java.util.Properties;
+import java.util.Set;
+import java.util.SortedSet;
+import java.util.TreeSet;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.locks.ReentrantLock;
 import java.util.jar.Attributes;
 import java.util.jar.JarFile;
 import java.util.jar.Manifest;
@@ -124,7 +140,7 @@ public final class HydPyServerManager
     return buffer.toString();
   }
 
-  private static Properties readConfiguration( final Path configFile )
+  static Properties readConfiguration( final Path configFile )
   {
     final Properties args = new Properties();
 
@@ -186,38 +202,97 @@ public final class HydPyServerManager
     }
   }
 
+  // REMARK: a lock instead of synchronized methods, so rebalancing can be skipped instead of waiting, see #rebalance
+  private final ReentrantLock m_lock = new ReentrantLock();
+
   private final Map<Integer, HydPyServerStarter> m_starters = new HashMap<>();
 
-  private final Map<String, HydPyModelInstance> m_instances = new HashMap<>();
+  /* starters of shut down processes of an elastic pool */
+  private final List<HydPyServerStarter> m_retiredStarters = new ArrayList<>();
+
+  // REMARK: accessed without the lock of the manager, so creating an instance only waits for the process of this instance
+  private final Map<String, CompletableFuture<HydPyModelInstance>> m_instances = new ConcurrentHashMap<>();
 
   private final HydPyServerConfiguration m_config;
 
   private final HydPyInstanceConfiguration m_instanceDirs;
 
-  private int m_nextProcessId = 0;
+  /* the process of each model instance */
+  private final Map<String, Integer> m_processIds = new HashMap<>();
+
+  private final IHydPyPlacementPolicy m_placement;
+
+  /* the instance migrated last; only one instance is migrated at a time */
+  private HydPyModelInstance m_lastMigrated = null;
+
+  /* the processes that may receive instances; all processes, if the pool is not elastic */
+  private final SortedSet<Integer> m_activeProcesses = new TreeSet<>();
+
+  /* processes of an elastic pool that are shut down once all their instances are migrated */
+  private final Set<Integer> m_drainingProcesses = new HashSet<>();
+
+  /* shut down processes of an elastic pool, their ports can be reused once they are terminated */
+  private final Map<Integer, Future<Void>> m_retiredProcesses = new HashMap<>();
+
+  /* since when the elastic pool is idle; 0 if it is not */
+  private long m_idleSinceMillis = 0;
 
   private final Path m_configFile;
 
+  /* only set if the non-blocking http engine should be used */
+  private final HydPyAsyncEngine m_engine;
+
+  /* only set if responses should be parsed in parallel to the calls to HydPy */
+  private final ExecutorService m_parseExecutor;
+
+  /* only set if the number of processes starting at the same time is limited */
+  private final Semaphore m_startupPermits;
+
+  /* only set if the processes are replaced by transports inside the JVM, see tests */
+  private final IHydPyTransportFactory m_transportFactory;
+
   public HydPyServerManager( final HydPyServerConfiguration config, final HydPyInstanceConfiguration instanceDirs, final Path configFile )
+  {
+    this( config, instanceDirs, configFile, null );
+  }
+
+  /**
+   * @param transportFactory
+   *          If set, no processes are started, instead each server is connected via the transport created by this factory.
+   */
+  HydPyServerManager( final HydPyServerConfiguration config, final HydPyInstanceConfiguration instanceDirs, final Path configFile, final IHydPyTransportFactory transportFactory )
   {
     m_config = config;
     m_instanceDirs = instanceDirs;
     m_configFile = configFile;
+    m_transportFactory = transportFactory;
+
+    m_engine = config.asyncClient ? new HydPyAsyncEngine( config.connectionPoolSize, config.maxProcesses + (config.dedicatedAnyInstance ? 1 : 0), config.asyncWorkerThreads ) : null;
+    m_parseExecutor = config.parseThreads > 0 ? Executors.newFixedThreadPool( config.parseThreads, new HydPyThreadFactory( "HydPyServer parser" ) ) : null;
+    m_startupPermits = config.startupConcurrency > 0 ? new Semaphore( config.startupConcurrency, true ) : null;
+
+    m_placement = HydPyPlacementPolicies.create( config.placement );
 
     // REMARK: always try to shutdown the running HydPy servers.
     Runtime.getRuntime().addShutdownHook( new ShutdownThread( this ) );
 
+    for( int i = 0; i < config.minProcesses; i++ )
+      m_activeProcesses.add( i );
+
     if( config.parallelStartup )
     {
-      for( int i = 0; i < config.maxProcesses; i++ )
-        getOrCreateStarter( i );
+      for( final Integer processId : m_activeProcesses )
+        getOrCreateStarter( processId );
+
+      if( config.dedicatedAnyInstance )
+        getOrCreateStarter( getAnyInstanceProcessId() );
     }
   }
 
   private HydPyServerStarter getOrCreateStarter( final int processId )
   {
     if( !m_starters.containsKey( processId ) )
-      m_starters.put( processId, new HydPyServerStarter( m_config, m_instanceDirs, processId ) );
+      m_starters.put( processId, new HydPyServerStarter( m_config, m_instanceDirs, processId, m_engine, m_parseExecutor, m_startupPermits, m_transportFactory ) );
 
     return m_starters.get( processId );
   }
@@ -229,40 +304,358 @@ public final class HydPyServerManager
    *          Several calls with the same instanceId are guaranteed to return the same {@link HydPyModelInstance} process.<br/>
    *          Depending on the configuration of this manager, multiple instanceId's may be mapped to the same HydPy server process.
    */
-  public synchronized HydPyModelInstance getOrCreateInstance( final String instanceId, final File instanceDir )
+  public HydPyModelInstance getOrCreateInstance( final String instanceId, final File instanceDir )
   {
-    if( !m_instances.containsKey( instanceId ) )
+    CompletableFuture<HydPyModelInstance> instance = m_instances.get( instanceId );
+    if( instance == null )
+    {
+      final CompletableFuture<HydPyModelInstance> created = new CompletableFuture<>();
+      instance = m_instances.putIfAbsent( instanceId, created );
+      if( instance == null )
+      {
+        instance = created;
+        createInstance( instanceId, instanceDir, created );
+      }
+    }
+
+    /* blocks only until the process of this instance is started */
+    try
     {
-      final HydPyModelInstance instance = createInstance( instanceId, instanceDir );
-      m_instances.put( instanceId, instance );
+      return instance.get();
     }
+    catch( final InterruptedException e )
+    {
+      throw new HydPyServerException( String.format( "Interrupted while creating instance '%s'", instanceId ), e );
+    }
+    catch( final ExecutionException e )
+    {
+      final Throwable cause = e.getCause();
+      if( cause instanceof HydPyServerException )
+        throw (HydPyServerException)cause;
 
-    return m_instances.get( instanceId );
+      throw new HydPyServerException( cause );
+    }
   }
 
-  private HydPyModelInstance createInstance( final String instanceId, final File instanceDir )
+  private void createInstance( final String instanceId, final File instanceDir, final CompletableFuture<HydPyModelInstance> created )
   {
-    final int processId = toServerId( instanceId );
+    // REMARK: only successfully created instances are kept, so the next call for this id tries again
+    created.whenComplete( ( instance, error ) -> {
+      if( error != null )
+        m_instances.remove( instanceId, created );
+    } );
+
+    final HydPyServerStarter starter;
+    final HydPyInstanceDirs instanceDirs;
+    try
+    {
+      final File hydpyModelDir = m_config.modelDir.toFile();
+      instanceDirs = m_instanceDirs.resolve( instanceId, instanceDir, hydpyModelDir );
 
-    final HydPyServerInstance server = getOrCreateServer( processId );
+      /* only the placement needs the lock, not the startup of the process */
+      m_lock.lock();
+      try
+      {
+        starter = getOrCreateStarter( toServerId( instanceId ) );
+      }
+      finally
+      {
+        m_lock.unlock();
+      }
+    }
+    catch( final RuntimeException e )
+    {
+      created.completeExceptionally( e );
+      return;
+    }
 
-    final File hydpyModelDir = m_config.modelDir.toFile();
-    final HydPyInstanceDirs instanceDirs = m_instanceDirs.resolve( instanceId, instanceDir, hydpyModelDir );
+    starter.getServerAsync().whenComplete( ( server, error ) -> {
+      if( error != null )
+      {
+        created.completeExceptionally( error );
+        return;
+      }
 
-    return new HydPyModelInstance( instanceId, instanceDirs, server );
+      try
+      {
+        created.complete( new HydPyModelInstance( instanceId, instanceDirs, server, this ) );
+      }
+      catch( final RuntimeException e )
+      {
+        created.completeExceptionally( e );
+      }
+    } );
   }
 
   private int toServerId( final String instanceId )
   {
     if( instanceId == ANY_INSTANCE )
-      return 0;
+      return getAnyInstanceProcessId();
+
+    final List<HydPyProcessLoad> loads = getActiveLoads( getProcessLoadsLocked() );
+    final int processId = m_placement.selectProcess( loads );
+    m_processIds.put( instanceId, processId );
+
+    if( m_config.placement != HydPyPlacementPolicies.Policy.roundrobin )
+      System.out.format( "HydPy instance '%s' placed on process %d (%s)%n", instanceId, processId, loads );
+
+    return processId;
+  }
+
+  /**
+   * @return The process serving {@link #ANY_INSTANCE}; a dedicated process is never used for other instances, as it is not one of the (active) processes.
+   */
+  private int getAnyInstanceProcessId( )
+  {
+    return m_config.dedicatedAnyInstance ? m_config.maxProcesses : 0;
+  }
+
+  /**
+   * Moves the given instance to the least busy server process, if its current process is busier by at least the configured threshold
+   * or if its current process is drained. Also grows or shrinks an elastic pool.<br/>
+   * Called before every setting of item values, so this never waits: if another thread is already rebalancing (or the manager is busy otherwise), nothing
+   * happens and the instance is considered again with its next call.
+   */
+  void rebalance( final HydPyModelInstance instance )
+  {
+    if( m_config.maxProcesses < 2 || (m_config.migrationThreshold == 0 && !m_config.isElastic()) )
+      return;
+
+    if( !m_lock.tryLock() )
+      return;
+
+    try
+    {
+      rebalanceLocked( instance );
+    }
+    finally
+    {
+      m_lock.unlock();
+    }
+  }
+
+  private void rebalanceLocked( final HydPyModelInstance instance )
+  {
+    final List<HydPyProcessLoad> loads = getProcessLoadsLocked();
+
+    if( m_config.isElastic() )
+      scale( loads );
+
+    final String instanceId = instance.getInstanceId();
+    final Integer sourceId = m_processIds.get( instanceId );
+    if( sourceId == null )
+      return;
+
+    if( m_drainingProcesses.contains( sourceId ) )
+    {
+      // REMARK: draining is not restricted to one migration at a time, the process should be shut down as early as possible
+      if( instance.canMigrate() )
+        migrate( instance, loads.get( sourceId ), loads );
+
+      return;
+    }
+
+    if( m_config.migrationThreshold == 0 )
+      return;
+
+    // REMARK: let a running migration complete first, else instances might be moved back and forth on queue depths that are not yet up to date
+    if( m_lastMigrated != null && !m_lastMigrated.canMigrate() )
+      return;
+
+    if( !instance.canMigrate() )
+      return;
 
-    /* simply distributing the instances to consecutive processes, restarting with first process if we encounter maxProcesses */
-    final int currentProcessId = m_nextProcessId;
+    final HydPyProcessLoad source = loads.get( sourceId );
+    final HydPyProcessLoad target = findMigrationTarget( loads );
+    if( target == null || source.getQueueDepth() - target.getQueueDepth() < m_config.migrationThreshold )
+      return;
 
-    m_nextProcessId = (m_nextProcessId + 1) % m_config.maxProcesses;
+    migrate( instance, source, loads );
+    m_lastMigrated = instance;
+  }
+
+  private HydPyProcessLoad findMigrationTarget( final List<HydPyProcessLoad> loads )
+  {
+    HydPyProcessLoad target = null;
+    for( final HydPyProcessLoad load : getActiveLoads( loads ) )
+    {
+      // REMARK: never start a new process just for migrating
+      if( load.isStarted() && (target == null || load.getQueueDepth() < target.getQueueDepth()) )
+        target = load;
+    }
 
-    return currentProcessId;
+    return target;
+  }
+
+  private void migrate( final HydPyModelInstance instance, final HydPyProcessLoad source, final List<HydPyProcessLoad> loads )
+  {
+    final HydPyProcessLoad target = findMigrationTarget( loads );
+    if( target == null )
+      return;
+
+    final String instanceId = instance.getInstanceId();
+
+    System.out.format( "HydPy instance '%s' migrated from process %d to process %d (%s)%n", instanceId, source.getProcessId(), target.getProcessId(), loads );
+
+    instance.migrateTo( getOrCreateServer( target.getProcessId() ) );
+
+    m_processIds.put( instanceId, target.getProcessId() );
+
+    retireDrainedProcesses();
+  }
+
+  /**
+   * Starts another process if the started ones are busy, or starts draining one if they are idle for long enough.
+   */
+  private void scale( final List<HydPyProcessLoad> loads )
+  {
+    final List<HydPyProcessLoad> activeLoads = getActiveLoads( loads );
+
+    /* wait until recently added processes are started, else we would immediately add the next one */
+    if( activeLoads.stream().anyMatch( load -> !load.isStarted() && m_starters.containsKey( load.getProcessId() ) ) )
+      return;
+
+    final double averageQueueDepth = activeLoads.stream() //
+        .filter( HydPyProcessLoad::isStarted ) //
+        .mapToInt( HydPyProcessLoad::getQueueDepth ) //
+        .average() //
+        .orElse( 0.0 );
+
+    if( averageQueueDepth >= m_config.scaleUpQueueDepth )
+    {
+      m_idleSinceMillis = 0;
+      scaleUp( activeLoads );
+      return;
+    }
+
+    if( averageQueueDepth > m_config.scaleDownQueueDepth )
+    {
+      m_idleSinceMillis = 0;
+      return;
+    }
+
+    final long now = System.currentTimeMillis();
+    if( m_idleSinceMillis == 0 )
+      m_idleSinceMillis = now;
+
+    if( now - m_idleSinceMillis >= TimeUnit.SECONDS.toMillis( m_config.scaleDownDelaySeconds ) )
+    {
+      m_idleSinceMillis = 0;
+      scaleDown( activeLoads );
+    }
+  }
+
+  private void scaleUp( final List<HydPyProcessLoad> activeLoads )
+  {
+    if( m_activeProcesses.size() + m_drainingProcesses.size() >= m_config.maxProcesses )
+      return;
+
+    for( int processId = 0; processId < m_config.maxProcesses; processId++ )
+    {
+      if( m_activeProcesses.contains( processId ) || m_drainingProcesses.contains( processId ) )
+        continue;
+
+      // REMARK: the port of a shut down process can only be reused once it has terminated
+      final Future<Void> retired = m_retiredProcesses.get( processId );
+      if( retired != null && !retired.isDone() )
+        continue;
+
+      m_retiredProcesses.remove( processId );
+
+      System.out.format( "HydPy process %d started, as the processes are busy (%s)%n", processId, activeLoads );
+
+      m_activeProcesses.add( processId );
+      getOrCreateStarter( processId );
+      return;
+    }
+  }
+
+  private void scaleDown( final List<HydPyProcessLoad> activeLoads )
+  {
+    if( m_activeProcesses.size() <= m_config.minProcesses )
+      return;
+
+    // REMARK: never the process that also serves ANY_INSTANCE
+    final HydPyProcessLoad emptiest = activeLoads.stream() //
+        .filter( load -> load.getProcessId() != getAnyInstanceProcessId() ) //
+        .min( Comparator.comparingInt( HydPyProcessLoad::getInstanceCount ).thenComparing( HydPyProcessLoad::getProcessId, Comparator.reverseOrder() ) ) //
+        .orElse( null );
+    if( emptiest == null )
+      return;
+
+    System.out.format( "HydPy process %d is drained, as the processes are idle (%s)%n", emptiest.getProcessId(), activeLoads );
+
+    m_activeProcesses.remove( emptiest.getProcessId() );
+    m_drainingProcesses.add( emptiest.getProcessId() );
+
+    retireDrainedProcesses();
+  }
+
+  /**
+   * Shuts down all draining processes without any instances left. Their last calls (i.e. the exports of the migrated instances) are still completed before.
+   */
+  private void retireDrainedProcesses( )
+  {
+    for( final Iterator<Integer> iterator = m_drainingProcesses.iterator(); iterator.hasNext(); )
+    {
+      final Integer processId = iterator.next();
+      if( m_processIds.containsValue( processId ) )
+        continue;
+
+      iterator.remove();
+
+      System.out.format( "HydPy process %d shut down%n", processId );
+
+      final HydPyServerStarter starter = m_starters.remove( processId );
+      if( starter != null )
+      {
+        m_retiredStarters.add( starter );
+        m_retiredProcesses.put( processId, starter.retire() );
+      }
+    }
+  }
+
+  private List<HydPyProcessLoad> getActiveLoads( final List<HydPyProcessLoad> loads )
+  {
+    return loads.stream() //
+        .filter( load -> m_activeProcesses.contains( load.getProcessId() ) ) //
+        .collect( Collectors.toList() );
+  }
+
+  /**
+   * The current load of all possible server processes, including those not yet started.
+   */
+  public List<HydPyProcessLoad> getProcessLoads( )
+  {
+    m_lock.lock();
+    try
+    {
+      return getProcessLoadsLocked();
+    }
+    finally
+    {
+      m_lock.unlock();
+    }
+  }
+
+  private List<HydPyProcessLoad> getProcessLoadsLocked( )
+  {
+    final int[] instanceCounts = new int[m_config.maxProcesses];
+    for( final Integer processId : m_processIds.values() )
+      instanceCounts[processId]++;
+
+    final List<HydPyProcessLoad> loads = new ArrayList<>( m_config.maxProcesses );
+    for( int processId = 0; processId < m_config.maxProcesses; processId++ )
+    {
+      final HydPyServerStarter starter = m_starters.get( processId );
+      final HydPyServerInstance server = starter == null ? null : starter.getServerIfStarted();
+      if( server == null )
+        loads.add( new HydPyProcessLoad( processId, false, instanceCounts[processId], 0, Double.NaN ) );
+      else
+        loads.add( new HydPyProcessLoad( processId, true, instanceCounts[processId], server.getQueueDepth(), server.getThroughput() ) );
+    }
+
+    return loads;
   }
 
   private HydPyServerInstance getOrCreateServer( final int processId )
@@ -272,17 +665,47 @@ public final class HydPyServerManager
     return starter.getServer();
   }
 
-  synchronized void killAllServers( )
+  void killAllServers( )
   {
-    for( final HydPyServerStarter starter : m_starters.values() )
-      starter.kill();
+    m_lock.lock();
+    try
+    {
+      for( final HydPyServerStarter starter : m_starters.values() )
+        starter.kill();
+
+      for( final HydPyServerStarter starter : m_retiredStarters )
+        starter.kill();
+    }
+    finally
+    {
+      m_lock.unlock();
+    }
+  }
+
+  void finish( )
+  {
+    m_lock.lock();
+    try
+    {
+      finishLocked();
+    }
+    finally
+    {
+      m_lock.unlock();
+    }
   }
 
-  synchronized void finish( )
+  private void finishLocked( )
   {
+    final long start = System.currentTimeMillis();
+    final long deadline = start + TimeUnit.SECONDS.toMillis( m_config.shutdownSeconds );
+
     /* let each instance write its conditions */
     System.out.println( "Start HydPy finalization (may take a while if writing conditions is configured)" );
+    // REMARK: instances whose process never started have nothing to write
     final List<Future<Void>> conditionsFutures = m_instances.values().stream() //
+        .map( created -> created.getNow( null ) ) //
+        .filter( Objects::nonNull ) //
         .map( instance -> {
           try
           {
@@ -298,39 +721,72 @@ public final class HydPyServerManager
         .collect( Collectors.toList() );
 
     /* wait until all conditions are written */
-    waitForGetAll( conditionsFutures );
+    final int conditionsTimeouts = waitForGetAll( conditionsFutures, deadline );
+    final long conditionsWritten = System.currentTimeMillis();
 
-    /* start shutdown for all servers (asynchronous for each server) */
-    m_starters.values().forEach( HydPyServerStarter::closeServerAndWaitForProcessEnd );
+    /* processes shut down by an elastic pool should be terminated by now */
+    int shutdownTimeouts = waitForGetAll( new ArrayList<>( m_retiredProcesses.values() ), deadline );
 
-    /* shutdown executors and await executor termination (synchronous, waits for termination of all tasks) */
-    m_starters.values().forEach( HydPyServerStarter::terminate );
+    /* start shutdown for all servers at once (asynchronous for each server) */
+    final List<Future<Void>> shutdowns = m_starters.values().stream() //
+        .map( HydPyServerStarter::retire ) //
+        .collect( Collectors.toList() );
+    shutdownTimeouts += waitForGetAll( shutdowns, deadline );
+
+    /* await executor termination, normally immediately as all tasks are done */
+    m_starters.values().forEach( starter -> starter.terminate( deadline ) );
+
+    final long end = System.currentTimeMillis();
+    System.out.format( "HydPy finalization: final conditions written after %.2f seconds, %d server(s) shut down after another %.2f seconds, total %.2f seconds%n", //
+        (conditionsWritten - start) / 1000.0, m_starters.size(), (end - conditionsWritten) / 1000.0, (end - start) / 1000.0 );
+    if( conditionsTimeouts > 0 || shutdownTimeouts > 0 )
+      System.err.format( "HydPy finalization: stopped waiting after %d seconds for %d conditions writing(s) and %d server shutdown(s), remaining processes will be killed%n", m_config.shutdownSeconds, conditionsTimeouts, shutdownTimeouts );
 
     /* also check a last time for pending futures */
+    // REMARK: servers that never finished starting have no tasks
     m_starters.values().forEach( starter -> {
       try
       {
-        starter.getServer().checkPendingTasks();
+        final HydPyServerInstance server = starter.getServerIfStarted();
+        if( server != null )
+          server.checkPendingTasks();
       }
       catch( final Exception e )
       {
         e.printStackTrace();
       }
     } );
+
+    if( m_engine != null )
+      m_engine.close();
+
+    if( m_parseExecutor != null )
+      m_parseExecutor.shutdown();
   }
 
-  private void waitForGetAll( final List<Future<Void>> futures )
+  /**
+   * @return The number of futures that did not complete before the deadline.
+   */
+  private int waitForGetAll( final List<Future<Void>> futures, final long deadline )
   {
+    int timeouts = 0;
+
     for( final Future<Void> future : futures )
     {
       try
       {
-        future.get();
+        future.get( Math.max( 0, deadline - System.currentTimeMillis() ), TimeUnit.MILLISECONDS );
+      }
+      catch( final TimeoutException e )
+      {
+        timeouts++;
       }
       catch( final Exception e )
       {
         e.printStackTrace();
       }
     }
+
+    return timeouts;
   }
 }
\ No newline at end of file
@@ -0,0 +1,291 @@
+/**
+ * Copyright (c) 2021 by
+ * - Bundesanstalt für Gewässerkunde
+ * - Björnsen Beratende Ingenieure GmbH
+ * All rights reserved.
+ *
+ * This file is Free Software under the under the terms of the
+ * GNU Lesser General Public License (LGPL >=v3)
+ * and comes with ABSOLUTELY NO WARRANTY! Check out the
+ * documentation coming with HydPy for details.
+ */
+package org.hydpy.openda.server;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+
+import org.hydpy.openda.HydPyInstanceConfiguration;
+import org.hydpy.openda.server.HydPyServerConfiguration.LogMode;
+
+/**
+ * A pool of HydPy server processes that outlive a single OpenDA run, see argument 'serverPoolDirectory'.<br/>
+ * Each port of the pool is leased by locking a file in the pool directory. A second file remembers the configuration the process on this port was started with, so
+ * a later run with the same configuration can reuse the already initialized process instead of starting a new one.<br/>
+ * {@link #main(String[])} keeps the pool warm, i.e. starts all processes in advance and restarts them, if they died.
+ *
+ * @author Gernot Belger
+ */
+public final class HydPyServerPool
+{
+  private static final String PROPERTY_CONFIG_HASH = "configHash"; //$NON-NLS-1$
+
+  private static final long LEASE_RETRY_MILLIS = 100;
+
+  private static final int DEFAULT_CHECK_SECONDS = 60;
+
+  /**
+   * Exclusive access to one process of the pool, released at the end of the run.
+   */
+  static final class Lease
+  {
+    private final String m_name;
+
+    private final FileChannel m_channel;
+
+    private final FileLock m_lock;
+
+    private final Path m_stateFile;
+
+    private final String m_configHash;
+
+    /* the configuration hash of the process currently running on this port, if any */
+    private final String m_previousHash;
+
+    Lease( final String name, final FileChannel channel, final FileLock lock, final Path stateFile, final String configHash, final String previousHash )
+    {
+      m_name = name;
+      m_channel = channel;
+      m_lock = lock;
+      m_stateFile = stateFile;
+      m_configHash = configHash;
+      m_previousHash = previousHash;
+    }
+
+    /**
+     * @return <code>true</code>, if the process on this port was started with the same configuration as ours (if it is still alive).
+     */
+    public boolean isWarm( )
+    {
+      return m_configHash.equals( m_previousHash );
+    }
+
+    /**
+     * Remembers that the process on this port was started with our configuration.
+     */
+    public void register( ) throws HydPyServerException
+    {
+      final Properties state = new Properties();
+      state.setProperty( PROPERTY_CONFIG_HASH, m_configHash );
+
+      try( final OutputStream os = Files.newOutputStream( m_stateFile ) )
+      {
+        state.store( os, null );
+      }
+      catch( final IOException e )
+      {
+        throw new HydPyServerException( String.format( "%s: failed to write pool state: %s", m_name, m_stateFile ), e );
+      }
+    }
+
+    /**
+     * Releases the lease, the process keeps running for the next run.
+     */
+    public void release( )
+    {
+      try
+      {
+        m_lock.release();
+        m_channel.close();
+      }
+      catch( final IOException e )
+      {
+        e.printStackTrace();
+      }
+    }
+
+    /**
+     * Releases the lease, but the process is not reused, as its state is unknown. The next lease will replace it.
+     */
+    public void discard( )
+    {
+      try
+      {
+        Files.deleteIfExists( m_stateFile );
+      }
+      catch( final IOException e )
+      {
+        e.printStackTrace();
+      }
+
+      release();
+    }
+  }
+
+  private HydPyServerPool( )
+  {
+    throw new UnsupportedOperationException();
+  }
+
+  /**
+   * Blocks until the process on the given port is not leased by another run (or the initialization timeout is reached).
+   */
+  static Lease lease( final HydPyServerConfiguration config, final HydPyInstanceConfiguration instanceDirs, final int port, final String name ) throws HydPyServerException
+  {
+    final Path lockFile = config.poolDirectory.resolve( String.format( "HydPy_Pool_%d.lock", port ) ); //$NON-NLS-1$
+    final Path stateFile = config.poolDirectory.resolve( String.format( "HydPy_Pool_%d.properties", port ) ); //$NON-NLS-1$
+
+    final long deadline = System.currentTimeMillis() + TimeUnit.SECONDS.toMillis( config.initRetrySeconds );
+
+    try
+    {
+      final FileChannel channel = FileChannel.open( lockFile, StandardOpenOption.CREATE, StandardOpenOption.WRITE );
+      try
+      {
+        FileLock lock;
+        while( (lock = channel.tryLock()) == null )
+        {
+          if( System.currentTimeMillis() > deadline )
+            throw new HydPyServerException( String.format( "%s: still leased by another run after %d seconds: %s", name, config.initRetrySeconds, lockFile ) );
+
+          Thread.sleep( LEASE_RETRY_MILLIS );
+        }
+
+        return new Lease( name, channel, lock, stateFile, computeConfigHash( config, instanceDirs ), readConfigHash( stateFile ) );
+      }
+      catch( final IOException | InterruptedException | RuntimeException e )
+      {
+        channel.close();
+        throw e;
+      }
+    }
+    catch( final IOException | InterruptedException e )
+    {
+      throw new HydPyServerException( String.format( "%s: failed to lease pooled process: %s", name, lockFile ), e );
+    }
+  }
+
+  private static String readConfigHash( final Path stateFile ) throws IOException
+  {
+    if( !Files.isRegularFile( stateFile ) )
+      return null;
+
+    final Properties state = new Properties();
+    try( final InputStream is = Files.newInputStream( stateFile ) )
+    {
+      state.load( is );
+    }
+    return state.getProperty( PROPERTY_CONFIG_HASH );
+  }
+
+  /**
+   * Everything that determines how a process is started and initialized. A process is only reused, if all of these are unchanged.
+   */
+  private static String computeConfigHash( final HydPyServerConfiguration config, final HydPyInstanceConfiguration instanceDirs ) throws HydPyServerException
+  {
+    final StringBuilder key = new StringBuilder();
+    key.append( config.serverExe ).append( '\n' );
+    key.append( config.hydPyScript ).append( '\n' );
+    key.append( config.modelDir ).append( '\n' );
+    key.append( config.modelName ).append( '\n' );
+    key.append( config.configFile ).append( '\n' );
+    // REMARK: the model is only read on startup, so a changed configuration requires a new process
+    key.append( config.configFile.toFile().lastModified() ).append( '\n' );
+    key.append( instanceDirs.isLoadConditions() ).append( '\n' );
+    key.append( instanceDirs.isLoadSeries() ).append( '\n' );
+    key.append( config.cpuSets ).append( '\n' );
+    key.append( config.processThreads ).append( '\n' );
+
+    try
+    {
+      final byte[] digest = MessageDigest.getInstance( "SHA-256" ).digest( key.toString().getBytes( StandardCharsets.UTF_8 ) ); //$NON-NLS-1$
+
+      final StringBuilder hash = new StringBuilder();
+      for( final byte b : digest )
+        hash.append( String.format( "%02x", b ) ); //$NON-NLS-1$
+      return hash.toString();
+    }
+    catch( final NoSuchAlgorithmException e )
+    {
+      /* should never happen, every java runtime supports SHA-256 */
+      throw new HydPyServerException( "Failed to compute configuration hash", e );
+    }
+  }
+
+  static File getLogFile( final Path poolDirectory, final int port, final String extension )
+  {
+    return poolDirectory.resolve( String.format( "HydPy_Pool_%d.%s", port, extension ) ).toFile(); //$NON-NLS-1$
+  }
+
+  /**
+   * Runs the pool as a local process manager, that starts all processes of the given configuration and keeps them alive.<br/>
+   * Arguments: the HydPy server configuration file and optionally the interval in seconds in which the processes are checked.
+   */
+  public static void main( final String[] args ) throws InterruptedException
+  {
+    if( args.length < 1 || args.length > 2 )
+    {
+      System.err.println( "Usage: HydPyServerPool <configuration file> [<check interval seconds>]" );
+      System.exit( 1 );
+    }
+
+    final Path configFile = Paths.get( args[0] ).toAbsolutePath().normalize();
+    final int checkSeconds = args.length > 1 ? Integer.parseInt( args[1] ) : DEFAULT_CHECK_SECONDS;
+
+    final Properties properties = HydPyServerManager.readConfiguration( configFile );
+    // REMARK: the runs using the pool write their logs into the same files; the state of each process is printed to the console anyway
+    properties.setProperty( HydPyServerConfiguration.PROPERTY_LOG_MODE, LogMode.off.name() );
+
+    final File workingDir = configFile.getParent().toFile();
+    final HydPyServerConfiguration config = new HydPyServerConfiguration( workingDir.toPath(), properties );
+    if( config.poolDirectory == null )
+    {
+      System.err.format( "%s: 'serverPoolDirectory' is not set%n", configFile );
+      System.exit( 1 );
+    }
+
+    final HydPyInstanceConfiguration instanceDirs = HydPyInstanceConfiguration.read( workingDir, properties );
+
+    final int processCount = config.maxProcesses + (config.dedicatedAnyInstance ? 1 : 0);
+    System.out.format( "HydPy server pool: keeping %d process(es) warm in %s%n", processCount, config.poolDirectory );
+
+    while( true )
+    {
+      for( int processId = 0; processId < processCount; processId++ )
+        keepWarm( config, instanceDirs, processId );
+
+      Thread.sleep( TimeUnit.SECONDS.toMillis( checkSeconds ) );
+    }
+  }
+
+  private static void keepWarm( final HydPyServerConfiguration config, final HydPyInstanceConfiguration instanceDirs, final int processId )
+  {
+    // REMARK: the starter does the real work: it leases the process, checks if it is alive and (re-)starts it if not
+    final HydPyServerStarter starter = new HydPyServerStarter( config, instanceDirs, processId, null, null, null, null );
+    try
+    {
+      starter.getServer();
+    }
+    catch( final HydPyServerException e )
+    {
+      System.err.format( "HydPy server pool: %s%n", e.getLocalizedMessage() );
+    }
+    finally
+    {
+      starter.retire();
+      starter.terminate( System.currentTimeMillis() + TimeUnit.SECONDS.toMillis( config.shutdownSeconds ) );
+    }
+  }
+}
@@ -12,29 +12,51 @@
 package org.hydpy.openda.server;
 
 import java.io.File;
+import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.PrintStream;
+import java.lang.ProcessBuilder.Redirect;
 import java.net.URI;
 import java.net.URISyntaxException;
 import java.nio.charset.Charset;
 import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
 import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
 import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
 import org.apache.commons.io.output.NullPrintStream;
 import org.apache.http.client.utils.URIBuilder;
 import org.hydpy.openda.HydPyInstanceConfiguration;
 import org.hydpy.openda.server.HydPyServerConfiguration.LogMode;
+import org.hydpy.openda.server.HydPyServerConfiguration.Transport;
 
 /**
  * @author Gernot Belger
  */
 final class HydPyServerStarter
 {
+  /* the server is probed with exponentially increasing intervals between these bounds while it is starting */
+  private static final long PROBE_MIN_DELAY_MILLIS = 50;
+
+  private static final long PROBE_MAX_DELAY_MILLIS = 2000;
+
+  private static final int PROBE_TIMEOUT_MILLIS = 250;
+
+  /* the variables that limit the threads of the numerical libraries used by HydPy (numpy with its BLAS implementation, numba) */
+  private static final String[] THREAD_VARIABLES = { "OMP_NUM_THREADS", "OPENBLAS_NUM_THREADS", "MKL_NUM_THREADS", "NUMEXPR_NUM_THREADS", "NUMBA_NUM_THREADS" }; //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$ //$NON-NLS-4$ //$NON-NLS-5$
+
   private final ExecutorService m_executor;
 
   private final HydPyServerConfiguration m_config;
@@ -45,9 +67,10 @@ final class HydPyServerStarter
 
   private final String m_name;
 
-  private final Future<HydPyServerInstance> m_future;
+  private final CompletableFuture<HydPyServerInstance> m_future;
 
-  private Process m_process = null;
+  /* may change, if the process is respawned */
+  private volatile Process m_process = null;
 
   // REMARK: initialize with System.out so we do not need to worry about NPE.
   private PrintStream m_debugOut = System.out;
@@ -56,19 +79,54 @@ final class HydPyServerStarter
 
   private final HydPyInstanceConfiguration m_instanceDirs;
 
-  public HydPyServerStarter( final HydPyServerConfiguration config, final HydPyInstanceConfiguration instanceDirs, final int processId )
+  /* optional */
+  private final HydPyAsyncEngine m_engine;
+
+  /* optional */
+  private final Executor m_parseExecutor;
+
+  /* optional, limits the number of processes starting at the same time */
+  private final Semaphore m_startupPermits;
+
+  /* optional, replaces the process by a transport inside the JVM */
+  private final IHydPyTransportFactory m_transportFactory;
+
+  /* only set while a process is started, if its output is watched for the ready marker */
+  private HydPyReadyMarkerWatcher m_watcher = null;
+
+  private CompletableFuture<Void> m_processShutdown = null;
+
+  private long m_shutdownStart = 0;
+
+  /* only set, if the process is leased from the pool of persistent processes */
+  private volatile HydPyServerPool.Lease m_lease = null;
+
+  public HydPyServerStarter( final HydPyServerConfiguration config, final HydPyInstanceConfiguration instanceDirs, final int processId, final HydPyAsyncEngine engine, final Executor parseExecutor, final Semaphore startupPermits, final IHydPyTransportFactory transportFactory )
   {
     m_config = config;
     m_instanceDirs = instanceDirs;
     m_processId = processId;
+    m_engine = engine;
+    m_parseExecutor = parseExecutor;
+    m_startupPermits = startupPermits;
+    m_transportFactory = transportFactory;
 
     m_port = config.startPort + processId;
     m_name = String.format( "HydPyServer %d - %s", processId, m_port );
 
     final ThreadFactory threadFactory = new HydPyThreadFactory( m_name );
-    m_executor = Executors.newSingleThreadExecutor( threadFactory );
-
-    m_future = HydPyUtils.submitAndLogExceptions( m_executor, this::doStart );
+    final ThreadPoolExecutor executor = new ThreadPoolExecutor( 1, 1, 30, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(), threadFactory );
+    // REMARK: with the non-blocking http engine, this thread is only needed for starting and stopping the process, so we let it die in between
+    if( engine != null )
+      executor.allowCoreThreadTimeOut( true );
+    m_executor = executor;
+
+    m_future = CompletableFuture.supplyAsync( this::doStart, m_executor );
+    // REMARK: same as HydPyUtils#submitAndLogExceptions, as get might never be called
+    m_future.whenComplete( ( server, error ) -> {
+      if( error != null )
+        error.printStackTrace();
+    } );
   }
 
   /**
@@ -86,6 +144,32 @@ final class HydPyServerStarter
     }
   }
 
+  /**
+   * Same as {@link #getServer()}, but never blocks.
+   */
+  public CompletableFuture<HydPyServerInstance> getServerAsync( )
+  {
+    return m_future;
+  }
+
+  /**
+   * @return <code>null</code>, if the server is not yet started (or failed to start). Never blocks.
+   */
+  public HydPyServerInstance getServerIfStarted( )
+  {
+    if( !m_future.isDone() )
+      return null;
+
+    try
+    {
+      return m_future.get();
+    }
+    catch( final Exception e )
+    {
+      return null;
+    }
+  }
+
   private HydPyServerException toHydPyServerException( final Exception e )
   {
     final Throwable cause = e.getCause();
@@ -96,41 +180,274 @@ final class HydPyServerStarter
   }
 
   protected HydPyServerInstance doStart( ) throws HydPyServerException
+  {
+    m_debugOut = createDebugOut();
+
+    final HydPyServerClient client = startAndConnect( false );
+
+    try
+    {
+      final HydPyOpenDACaller openDaCaller = createCaller( client );
+
+      /* return the real implementation which is always threaded per process; without blocking calls, the shared worker threads are sufficient */
+      final Executor serverExecutor = m_engine == null ? m_executor : m_engine.getWorkers();
+      final int batchSize = m_config.batchSize > 1 && client.checkBatchSupport( m_config.timeout ) ? m_config.batchSize : 1;
+      // REMARK: only a process started by ourselves (or a transport inside the JVM, which is simply created again) can be respawned
+      final IHydPyServerSupervisor supervisor = m_config.respawnLimit > 0 && (m_process != null || m_transportFactory != null) ? new Supervisor() : null;
+      return new HydPyServerInstance( openDaCaller, serverExecutor, batchSize, m_config.fuseCalls, m_parseExecutor, supervisor, m_config.respawnLimit, m_config.priorityInstances );
+    }
+    catch( final HydPyServerException e )
+    {
+      destroyProcess( client );
+      throw e;
+    }
+  }
+
+  /**
+   * Starts the process and waits until it answers.
+   *
+   * @param respawn
+   *          If <code>true</code>, the log of the previous process is continued.
+   */
+  private HydPyServerClient startAndConnect( final boolean respawn ) throws HydPyServerException
   {
     final URI address = createAddress();
 
+    if( m_config.poolDirectory != null && !respawn )
+    {
+      final HydPyServerClient pooled = leaseFromPool( address );
+      if( pooled != null )
+        return pooled;
+    }
+
     final long start = System.currentTimeMillis();
 
-    m_debugOut = createDebugOut();
+    acquireStartupPermit();
+
+    try
+    {
+      final long startProcess = System.currentTimeMillis();
+
+      m_process = startProcess( m_debugOut, respawn );
+
+      final IHydPyTransport transport = createTransport( address );
+      final HydPyServerClient client = new HydPyServerClient( m_debugOut, m_config.timeout, transport );
+
+      try
+      {
+        final int probes = tryCallServer( client, m_debugOut );
+
+        if( m_lease != null )
+          m_lease.register();
+
+        final long end = System.currentTimeMillis();
+        final double time = (end - startProcess) / 1000.0;
+        final double waitTime = (startProcess - start) / 1000.0;
+        final String readiness = m_watcher == null ? "probing" : m_watcher.getReady().isDone() && !m_watcher.getReady().isCompletedExceptionally() ? "ready marker" : "probing (no ready marker)";
+        m_debugOut.format( "%s: ready after %.2f seconds%n", m_name, time );
+        // REMARK: always printed, in order to tune the startup concurrency
+        System.out.format( "%s: ready after %.2f seconds (%.2f seconds waiting for startup, detected by %s, %d probe(s))%n", m_name, time, waitTime, readiness, probes );
+
+        return client;
+      }
+      catch( final HydPyServerException e )
+      {
+        destroyProcess( client );
+        throw e;
+      }
+    }
+    finally
+    {
+      m_watcher = null;
+
+      if( m_startupPermits != null )
+        m_startupPermits.release();
+    }
+  }
+
+  /**
+   * Leases the process from the pool and reuses it, if it is still alive and was started with our configuration.
+   *
+   * @return <code>null</code>, if a new process must be started.
+   */
+  private HydPyServerClient leaseFromPool( final URI address ) throws HydPyServerException
+  {
+    m_lease = HydPyServerPool.lease( m_config, m_instanceDirs, m_port, m_name );
 
-    m_process = startProcess( m_debugOut );
+    final HydPyServerClient client = new HydPyServerClient( m_debugOut, m_config.timeout, createTransport( address ) );
+    final boolean alive = isAnswering( client );
+    if( alive && m_lease.isWarm() )
+    {
+      m_debugOut.format( "%s: reusing pooled process%n", m_name );
+      System.out.format( "%s: reusing pooled process%n", m_name );
+      return client;
+    }
 
-    final HydPyServerClient client = new HydPyServerClient( address, m_debugOut, m_config.timeout );
+    if( !alive )
+    {
+      client.abandon();
+      return null;
+    }
 
+    // REMARK: the process was started with another configuration (or by a run that did not end regularly) and blocks our port
+    m_debugOut.format( "%s: closing pooled process with unknown state%n", m_name );
+    client.closeServer().join();
+
+    final HydPyServerClient probe = new HydPyServerClient( m_debugOut, m_config.timeout, createTransport( address ) );
     try
     {
-      tryCallServer( client, m_debugOut );
+      final long deadline = System.currentTimeMillis() + TimeUnit.SECONDS.toMillis( m_config.initRetrySeconds );
+      while( isAnswering( probe ) )
+      {
+        if( System.currentTimeMillis() > deadline )
+          throw new HydPyServerException( String.format( "%s: timeout waiting for pooled process to close", m_name ) );
 
-      final long end = System.currentTimeMillis();
-      final double time = (end - start) / 1000.0;
-      m_debugOut.format( "%s: ready after %.2f seconds%n", m_name, time );
+        waitForNextProbe( null, PROBE_MIN_DELAY_MILLIS );
+      }
+    }
+    finally
+    {
+      probe.abandon();
+    }
 
-      /* wrap for OpenDA specific calling */
-      final HydPyOpenDACaller openDaCaller = new HydPyOpenDACaller( m_name, client );
+    return null;
+  }
 
-      /* return the real implementation which is always threaded per process */
-      return new HydPyServerInstance( openDaCaller, m_executor );
+  private boolean isAnswering( final HydPyServerClient client )
+  {
+    try
+    {
+      final Version version = client.getVersion( PROBE_TIMEOUT_MILLIS );
+      HydPyRequirements.checkHydPyVersion( version, m_debugOut );
+      return true;
     }
     catch( final HydPyServerException e )
     {
-      /* if the test-call fails, we directly destroy the process, the manager can't do it */
-      if( m_process != null )
+      return false;
+    }
+  }
+
+  private void acquireStartupPermit( ) throws HydPyServerException
+  {
+    if( m_startupPermits == null )
+      return;
+
+    try
+    {
+      m_startupPermits.acquire();
+    }
+    catch( final InterruptedException e )
+    {
+      throw new HydPyServerException( String.format( "%s: interrupted while waiting for startup", m_name ), e );
+    }
+  }
+
+  private HydPyOpenDACaller createCaller( final HydPyServerClient client ) throws HydPyServerException
+  {
+    /* wrap for OpenDA specific calling */
+    final HydPySharedMemory sharedMemory = m_config.sharedMemoryDirectory == null ? null : new HydPySharedMemory( m_config.sharedMemoryDirectory, m_processId, m_config.sharedMemoryThreshold, m_debugOut );
+    return new HydPyOpenDACaller( m_name, client, sharedMemory, m_config.respawnLimit > 0 ? m_config.checkpointInterval : 0, m_config.broadcastConditions, m_config.updateCacheInPlace, m_config.binaryEncoding );
+  }
+
+  private void destroyProcess( final HydPyServerClient client )
+  {
+    client.abandon();
+
+    final HydPyServerPool.Lease lease = m_lease;
+    if( lease != null )
+    {
+      m_lease = null;
+      lease.discard();
+    }
+
+    /* if the test-call fails, we directly destroy the process, the manager can't do it */
+    if( m_process != null )
+    {
+      m_process.destroyForcibly();
+      m_process = null;
+    }
+  }
+
+  /**
+   * Restarts the process on the same port, see {@link IHydPyServerSupervisor}.
+   */
+  private final class Supervisor implements IHydPyServerSupervisor
+  {
+    @Override
+    public boolean isTerminated( )
+    {
+      final Process process = m_process;
+      return process == null || !process.isAlive();
+    }
+
+    @Override
+    public CompletableFuture<HydPyOpenDACaller> respawn( final HydPyOpenDACaller crashed )
+    {
+      // REMARK: starting a process blocks, so we use our own thread, never the one of the server
+      return CompletableFuture.supplyAsync( ( ) -> {
+        crashed.abandon();
+
+        final Process process = m_process;
+        if( process != null && process.isAlive() )
+        {
+          m_debugOut.format( "%s: killing unresponsive process%n", m_name );
+          process.destroyForcibly();
+        }
+
+        waitForTermination( process );
+
+        m_debugOut.format( "%s: respawning process%n", m_name );
+        final HydPyServerClient client = startAndConnect( true );
+        try
+        {
+          return createCaller( client );
+        }
+        catch( final HydPyServerException e )
+        {
+          destroyProcess( client );
+          throw e;
+        }
+      }, m_executor );
+    }
+
+    private void waitForTermination( final Process process )
+    {
+      if( process == null )
+        return;
+
+      try
+      {
+        // REMARK: the port must be free again for the new process
+        if( !process.waitFor( 10, TimeUnit.SECONDS ) )
+          m_debugOut.format( "%s: timeout waiting for termination of crashed process%n", m_name );
+      }
+      catch( final InterruptedException e )
+      {
+        e.printStackTrace();
+      }
+    }
+  }
+
+  private IHydPyTransport createTransport( final URI address )
+  {
+    if( m_transportFactory != null )
+      return m_transportFactory.createTransport( m_name, m_debugOut );
+
+    switch( m_config.transport )
+    {
+      case http:
       {
-        m_process.destroyForcibly();
-        m_process = null;
+        // REMARK: the non-blocking engine brings its own connections
+        final HydPyConnectionPool connections = m_engine == null ? new HydPyConnectionPool( m_config.connectionPoolSize, m_config.connectionIdleSeconds ) : null;
+        final HydPyCompression compression = new HydPyCompression( m_config.compression, m_config.compressionThreshold, m_debugOut );
+        return new HydPyHttpTransport( address, m_debugOut, connections, compression, m_engine, m_config.chunkedBody );
       }
 
-      throw e;
+      case pipe:
+        return new HydPyPipeTransport( m_process, m_debugOut );
+
+      default:
+        throw new IllegalStateException();
     }
   }
 
@@ -188,7 +505,7 @@ final class HydPyServerStarter
     }
   }
 
-  private Process startProcess( final PrintStream debugOut ) throws HydPyServerException
+  private Process startProcess( final PrintStream debugOut, final boolean respawn ) throws HydPyServerException
   {
     try
     {
@@ -198,9 +515,15 @@ final class HydPyServerStarter
         return null;
       }
 
+      if( m_transportFactory != null )
+      {
+        debugOut.format( "%s: using transport inside the JVM, no process is started%n", m_name );
+        return null;
+      }
+
       final String command = m_config.serverExe;
-      final String operation = "start_server";
-      final String portArgument = Integer.toString( m_port );
+      final boolean isPipe = m_config.transport == Transport.pipe;
+      final String operation = isPipe ? "start_pipe_server" : "start_server";
       final String configFile = m_config.configFile.toString();
 
       // REMARK: let hydpy load conditions/series only if it's not triggered via the wrapper.
@@ -209,19 +532,36 @@ final class HydPyServerStarter
       final String loadConditionsParam = "load_conditions=" + doHydPyLoadConditions;
       final String loadSeriesParam = "load_series=" + doHdPyLoadSeries;
 
-      final String[] parameters = new String[] { command, //
-          m_config.hydPyScript, //
-          operation, //
-          portArgument, //
-          m_config.modelName, //
-          configFile, //
-          loadConditionsParam, //
-          loadSeriesParam };
+      final List<String> parameters = new ArrayList<>();
+      parameters.add( command );
+      parameters.add( m_config.hydPyScript );
+      parameters.add( operation );
+      // REMARK: via pipes, there is no port
+      if( !isPipe )
+        parameters.add( Integer.toString( m_port ) );
+      parameters.add( m_config.modelName );
+      parameters.add( configFile );
+      parameters.add( loadConditionsParam );
+      parameters.add( loadSeriesParam );
+
+      // REMARK: the tools replace themselves by the python process, so the started process is still HydPy
+      if( m_config.cpuSets != null )
+        parameters.addAll( 0, createCpuBinding( m_config.cpuSets.get( m_processId % m_config.cpuSets.size() ), debugOut ) );
 
       final ProcessBuilder builder = new ProcessBuilder( parameters ) //
           .directory( m_config.modelDir.toFile() );
 
-      configureProcessForLogging( builder );
+      if( m_config.processThreads > 0 )
+      {
+        /* else each process uses as many threads as there are cores, which heavily oversubscribes the machine with many processes */
+        for( final String variable : THREAD_VARIABLES )
+          builder.environment().put( variable, Integer.toString( m_config.processThreads ) );
+        debugOut.format( "%s: limiting numerical libraries to %d thread(s)%n", m_name, m_config.processThreads );
+      }
+
+      // REMARK: if the output is watched for the ready marker, we read it ourselves instead of redirecting it
+      final boolean watchOutput = m_config.readyMarker != null && !isPipe;
+      configureProcessForLogging( builder, respawn, watchOutput );
 
       debugOut.format( "%s: starting ...%n", m_name );
       final List<String> commandLine = builder.command();
@@ -235,7 +575,12 @@ final class HydPyServerStarter
       }
       debugOut.println();
 
-      return builder.start();
+      final Process process = builder.start();
+
+      if( watchOutput )
+        m_watcher = startWatcher( process, respawn );
+
+      return process;
     }
     catch( final IOException e )
     {
@@ -243,8 +588,87 @@ final class HydPyServerStarter
     }
   }
 
-  private void configureProcessForLogging( final ProcessBuilder builder )
+  /**
+   * @return The start of the command line that binds the process to the given cpus; empty, if no suitable tool is available.
+   */
+  private List<String> createCpuBinding( final String cpuSet, final PrintStream debugOut )
+  {
+    // REMARK: taskset is preferred, as numactl fails on machines without NUMA support; memory is allocated on the node of the cpus by default anyway
+    final File taskset = findExecutable( "taskset" ); //$NON-NLS-1$
+    if( taskset != null )
+    {
+      debugOut.format( "%s: binding to cpus %s via %s%n", m_name, cpuSet, taskset );
+      return Arrays.asList( taskset.getPath(), "-c", cpuSet ); //$NON-NLS-1$
+    }
+
+    final File numactl = findExecutable( "numactl" ); //$NON-NLS-1$
+    if( numactl != null )
+    {
+      debugOut.format( "%s: binding to cpus %s via %s%n", m_name, cpuSet, numactl );
+      return Arrays.asList( numactl.getPath(), "--physcpubind=" + cpuSet ); //$NON-NLS-1$
+    }
+
+    System.err.format( "%s: neither taskset nor numactl found, cpus %s are ignored%n", m_name, cpuSet );
+    return Collections.emptyList();
+  }
+
+  private static File findExecutable( final String name )
+  {
+    final String path = System.getenv( "PATH" ); //$NON-NLS-1$
+    if( path == null )
+      return null;
+
+    for( final String dir : path.split( File.pathSeparator ) )
+    {
+      final File file = new File( dir, name );
+      if( file.isFile() && file.canExecute() )
+        return file;
+    }
+
+    return null;
+  }
+
+  private HydPyReadyMarkerWatcher startWatcher( final Process process, final boolean append ) throws IOException
   {
+    switch( m_config.logMode )
+    {
+      case off:
+        return HydPyReadyMarkerWatcher.start( m_name, process, m_config.readyMarker, null, false );
+
+      case console:
+        return HydPyReadyMarkerWatcher.start( m_name, process, m_config.readyMarker, System.out, false );
+
+      case file:
+      {
+        final File logFile = new File( m_config.logDirectory.toFile(), String.format( "HydPy_Server_%d.log", m_processId ) );
+        // REMARK: default charset should be ok, this is for debugging only
+        final PrintStream target = new PrintStream( new FileOutputStream( logFile, append ), true, Charset.defaultCharset().name() );
+        return HydPyReadyMarkerWatcher.start( m_name, process, m_config.readyMarker, target, true );
+      }
+
+      default:
+        throw new IllegalStateException();
+    }
+  }
+
+  /**
+   * @param keepOutput
+   *          If <code>true</code>, the standard output is not redirected, as it is read by ourselves.
+   */
+  private void configureProcessForLogging( final ProcessBuilder builder, final boolean append, final boolean keepOutput )
+  {
+    if( m_lease != null )
+    {
+      // REMARK: a pooled process outlives this run, so it must neither depend on our streams nor write into the logs of the next run
+      builder.redirectInput( getNullFile() );
+      builder.redirectOutput( Redirect.appendTo( HydPyServerPool.getLogFile( m_config.poolDirectory, m_port, "log" ) ) ); //$NON-NLS-1$
+      builder.redirectError( Redirect.appendTo( HydPyServerPool.getLogFile( m_config.poolDirectory, m_port, "err" ) ) ); //$NON-NLS-1$
+      return;
+    }
+
+    // REMARK: with the pipe transport, stdin and stdout are used for the calls and must not be redirected
+    final boolean redirectOutput = m_config.transport != Transport.pipe && !keepOutput;
+
     switch( m_config.logMode )
     {
       case off:
@@ -253,22 +677,27 @@ final class HydPyServerStarter
         // builder.redirectError( Redirect.DISCARD );
         // builder.redirectOutput( Redirect.DISCARD );
         // Simulate the Java 9 behavior
-        final File NULL_FILE = new File( System.getProperty( "os.name" ).startsWith( "Windows" ) ? "NUL" : "/dev/null" );
-        builder.redirectError( NULL_FILE );
-        builder.redirectOutput( NULL_FILE );
+        builder.redirectError( getNullFile() );
+        if( redirectOutput )
+          builder.redirectOutput( getNullFile() );
 
         return;
 
       case console:
-        builder.inheritIO();
+        if( redirectOutput )
+          builder.inheritIO();
+        else
+          builder.redirectError( Redirect.INHERIT );
         return;
 
       case file:
       {
         final File logFile = new File( m_config.logDirectory.toFile(), String.format( "HydPy_Server_%d.log", m_processId ) );
         final File errFile = new File( m_config.logDirectory.toFile(), String.format( "HydPy_Server_%d.err", m_processId ) );
-        builder.redirectError( errFile );
-        builder.redirectOutput( logFile );
+        // REMARK: a respawned process continues the log of the crashed one, which probably tells why it crashed
+        builder.redirectError( append ? Redirect.appendTo( errFile ) : Redirect.to( errFile ) );
+        if( redirectOutput )
+          builder.redirectOutput( append ? Redirect.appendTo( logFile ) : Redirect.to( logFile ) );
         return;
       }
 
@@ -277,82 +706,122 @@ final class HydPyServerStarter
     }
   }
 
-  private void tryCallServer( final HydPyServerClient client, final PrintStream debugOut ) throws HydPyServerException
+  private static File getNullFile( )
   {
-    final int retries = m_config.initRetrySeconds * 4;
-    final int timeoutMillis = 250;
+    return new File( System.getProperty( "os.name" ).startsWith( "Windows" ) ? "NUL" : "/dev/null" );
+  }
+
+  /**
+   * Waits until the server answers. The server is probed with increasing intervals; if the output of the process is watched, it is probed directly once it prints the ready marker.
+   *
+   * @return The number of probes that were needed.
+   */
+  private int tryCallServer( final HydPyServerClient client, final PrintStream debugOut ) throws HydPyServerException
+  {
+    final long deadline = System.currentTimeMillis() + TimeUnit.SECONDS.toMillis( m_config.initRetrySeconds );
+    final CompletableFuture<Void> ready = m_watcher == null ? null : m_watcher.getReady();
 
-    for( int i = 0; i < retries; i++ )
+    long delayMillis = PROBE_MIN_DELAY_MILLIS;
+    for( int probe = 1;; probe++ )
     {
-      final long startTime = System.currentTimeMillis();
+      checkProcessAlive();
 
       try
       {
-        if( m_process == null )
-        {
-          /* this happen if preStarted is set to true, we 'simulate' a running process an try to call getVersion */
-          throw new IllegalThreadStateException();
-        }
-
-        m_process.exitValue();
-        throw new HydPyServerException( String.format( "%s: unexpectedly terminated", m_name ) );
+        final Version version = client.getVersion( PROBE_TIMEOUT_MILLIS );
+        HydPyRequirements.checkHydPyVersion( version, debugOut );
+        return probe;
       }
-      catch( final IllegalThreadStateException e )
+      catch( final HydPyServerException ex )
       {
-        try
-        {
-          // Process is still living, continue
-          final Version version = client.getVersion( timeoutMillis );
-          HydPyRequirements.checkHydPyVersion( version, debugOut );
-          return;
-        }
-        catch( final HydPyServerException ex )
+        debugOut.format( "%s: waiting for startup...%n", m_name );
+        debugOut.format( "%s: %s%n", m_name, ex.getLocalizedMessage() );
+
+        final long remainingMillis = deadline - System.currentTimeMillis();
+        if( remainingMillis <= 0 )
         {
-          debugOut.format( "%s: waiting for startup...%n", m_name );
-          debugOut.format( "%s: %s%n", m_name, ex.getLocalizedMessage() );
-
-          if( i == retries - 1 )
-            ex.printStackTrace();
-
-          /* continue waiting */
-          try
-          {
-            // REMARK: make sure we wait 250ms in any case, because the first calls to HydPy might return immediately
-            // It then might happen, that we dont wait the full time and skip the check too early, before HydPy was really started.
-            final long waitTime = System.currentTimeMillis() - startTime;
-            if( waitTime < 250 )
-              Thread.sleep( 250 );
-          }
-          catch( final InterruptedException e1 )
-          {
-            e1.printStackTrace();
-          }
+          ex.printStackTrace();
+
+          final String message = String.format( "%s: timeout after %d seconds", m_name, m_config.initRetrySeconds );
+          throw new HydPyServerException( message );
         }
+
+        waitForNextProbe( ready, Math.min( delayMillis, remainingMillis ) );
+
+        delayMillis = Math.min( delayMillis * 2, PROBE_MAX_DELAY_MILLIS );
       }
     }
+  }
 
-    final String message = String.format( "%s: timeout after %d seconds", m_name, m_config.initRetrySeconds );
-    throw new HydPyServerException( message );
+  private void checkProcessAlive( ) throws HydPyServerException
+  {
+    /* no process, if preStarted is set to true; we 'simulate' a running process an try to call getVersion */
+    if( m_process != null && !m_process.isAlive() )
+      throw new HydPyServerException( String.format( "%s: unexpectedly terminated", m_name ) );
   }
 
-  public Future<Void> closeServerAndWaitForProcessEnd( )
+  /**
+   * Waits the given time, but returns early if the ready marker is printed in the meantime.
+   */
+  private void waitForNextProbe( final CompletableFuture<Void> ready, final long waitMillis )
   {
     try
     {
-      final HydPyServerInstance server = getServer();
-      server.closeServer();
+      if( ready == null || ready.isDone() )
+        Thread.sleep( waitMillis );
+      else
+        ready.get( waitMillis, TimeUnit.MILLISECONDS );
     }
-    catch( final Exception e )
+    catch( final TimeoutException | ExecutionException e )
+    {
+      /* marker not (yet) printed, the next probe will tell */
+    }
+    catch( final InterruptedException e )
     {
       e.printStackTrace();
     }
+  }
 
-    return HydPyUtils.submitAndLogExceptions( m_executor, this::shutdownProcessAndCloseDebugOut );
+  public Future<Void> closeServerAndWaitForProcessEnd( )
+  {
+    m_shutdownStart = System.currentTimeMillis();
+
+    // REMARK: a process that is still starting is closed as soon as it is started, so we never block here
+    final CompletableFuture<Void> closed = getServerAsync() //
+        .thenCompose( server -> m_lease == null ? server.closeServer() : server.releaseToPool() );
+    closed.whenComplete( ( result, error ) -> {
+      if( error != null )
+        error.printStackTrace();
+    } );
+
+    // REMARK: the close call might still wait behind other tasks of the server, so we wait for it before the process is shut down
+    m_processShutdown = closed //
+        .handle( ( result, error ) -> error == null ) //
+        .thenAcceptAsync( this::shutdownProcessAndCloseDebugOut, m_executor );
+
+    return m_processShutdown;
   }
 
-  private void shutdownProcessAndCloseDebugOut( )
+  /**
+   * Same as {@link #closeServerAndWaitForProcessEnd()} followed by {@link #terminate(long)}, but never blocks. Used for a process that is no longer needed while the others keep running,
+   * and at the end for all processes at once.
+   */
+  public Future<Void> retire( )
   {
-    shutdownProcess();
+    closeServerAndWaitForProcessEnd();
+
+    // REMARK: runs in the thread of the executor itself, so we must not wait for its termination
+    return m_processShutdown.thenRun( m_executor::shutdown );
+  }
+
+  private void shutdownProcessAndCloseDebugOut( final boolean closed )
+  {
+    shutdownProcess( closed );
+
+    // REMARK: always printed, in order to find the servers that delay the end of a run
+    final double time = (System.currentTimeMillis() - m_shutdownStart) / 1000.0;
+    m_debugOut.format( "%s: shut down after %.2f seconds%n", m_name, time );
+    System.out.format( "%s: shut down after %.2f seconds%n", m_name, time );
 
     if( m_debugOutToClose != null )
     {
@@ -368,50 +837,83 @@ final class HydPyServerStarter
     }
   }
 
-  private void shutdownProcess( )
+  /**
+   * @param closed
+   *          <code>false</code>, if closing the server failed.
+   */
+  private void shutdownProcess( final boolean closed )
   {
-    if( m_process == null )
+    final HydPyServerPool.Lease lease = m_lease;
+    if( lease != null )
+    {
+      m_lease = null;
+      /* the process belongs to the pool now, so we must not kill it later */
+      m_process = null;
+
+      // REMARK: the process keeps running for the next run; if its state is unknown, the next run replaces it
+      if( closed )
+      {
+        m_debugOut.format( "%s: process returned to pool%n", m_name );
+        lease.release();
+      }
+      else
+      {
+        m_debugOut.format( "%s: process discarded from pool%n", m_name );
+        lease.discard();
+      }
+      return;
+    }
+
+    final Process process = m_process;
+    if( process == null )
       return;
 
-    final int timeout = 2000;
-    final int waitTime = 50;
-    for( int i = 0; i < timeout; i += waitTime )
+    try
     {
-      try
+      // REMARK: returns as soon as the process ends, instead of polling for it
+      m_debugOut.format( "%s: waiting for process termination...%n", m_name );
+      if( process.waitFor( 2, TimeUnit.SECONDS ) )
       {
-        m_process.exitValue();
-
-        /* process has terminated, stop waiting for it */
         m_debugOut.format( "%s: process terminated%n", m_name );
         return;
       }
-      catch( final IllegalThreadStateException e )
-      {
-        try
-        {
-          /* process was not yet terminated, wait for it */
-          m_debugOut.format( "%s: waiting for process termination...%n", m_name );
-          Thread.sleep( waitTime );
-        }
-        catch( final InterruptedException e1 )
-        {
-          e1.printStackTrace();
-        }
-      }
+    }
+    catch( final InterruptedException e )
+    {
+      e.printStackTrace();
     }
 
     /* process was not correctly terminated, kill */
     m_debugOut.format( "%s: timeout waiting for process termination, process will be killed%n", m_name );
-    m_process.destroy();
+    process.destroy();
   }
 
-  public void terminate( )
+  /**
+   * @param deadline
+   *          The time (in milliseconds since the epoch) after which we stop waiting for the shutdown.
+   */
+  public void terminate( final long deadline )
   {
+    try
+    {
+      /* the process shutdown is only triggered after all tasks of the server are done, so we need to wait for it before the executor is shut down */
+      if( m_processShutdown != null )
+        m_processShutdown.get( remainingMillis( deadline ), TimeUnit.MILLISECONDS );
+    }
+    catch( final InterruptedException | ExecutionException e )
+    {
+      e.printStackTrace();
+    }
+    catch( final TimeoutException e )
+    {
+      m_debugOut.format( "%s: timeout waiting for process shutdown%n", m_name );
+    }
+
     try
     {
       /* stop accepting any new tasks */
       m_executor.shutdown();
-      final boolean terminatedWithoutTimeout = m_executor.awaitTermination( 5, TimeUnit.MINUTES );
+      final boolean terminatedWithoutTimeout = m_executor.awaitTermination( remainingMillis( deadline ), TimeUnit.MILLISECONDS );
       if( !terminatedWithoutTimeout )
         m_debugOut.format( "%s: timeout waiting for executor service termination, please check if all output data is complete%n", m_name );
     }
@@ -421,8 +923,22 @@ final class HydPyServerStarter
     }
   }
 
+  private static long remainingMillis( final long deadline )
+  {
+    return Math.max( 0, deadline - System.currentTimeMillis() );
+  }
+
   public void kill( )
   {
+    final HydPyServerPool.Lease lease = m_lease;
+    if( lease != null )
+    {
+      /* the run did not end regularly, so the process is left running, but will be replaced by the next run */
+      m_lease = null;
+      lease.discard();
+      return;
+    }
+
     if( m_process == null )
       return;
 
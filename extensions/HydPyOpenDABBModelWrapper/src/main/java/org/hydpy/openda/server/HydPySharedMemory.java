@@ -0,0 +1,276 @@
+/**
+ * Copyright (c) 2021 by
+ * - Bundesanstalt für Gewässerkunde
+ * - Björnsen Beratende Ingenieure GmbH
+ * All rights reserved.
+ *
+ * This file is Free Software under the under the terms of the
+ * GNU Lesser General Public License (LGPL >=v3)
+ * and comes with ABSOLUTELY NO WARRANTY! Check out the
+ * documentation coming with HydPy for details.
+ */
+package org.hydpy.openda.server;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Objects;
+
+import org.apache.commons.lang3.StringUtils;
+import org.openda.interfaces.IArray;
+import org.openda.utils.Array;
+
+/**
+ * Exchanges big array values with a HydPy server process on the same machine via memory-mapped files, instead of printing them into the http body.<br/>
+ * Only a descriptor is sent instead of the value: <code>shm:&lt;f8:&lt;offset&gt;:&lt;rows&gt;:&lt;columns&gt;:&lt;path&gt;</code>, i.e. little endian doubles in row-major
+ * order and the same layout as the nested lists of the text format.<br/>
+ * The mapped files are reused for every call of the same instance and item, the server must hence copy the values before it answers the call. The server
+ * tells us about its own files the same way in its responses.<br/>
+ * Our mappings of the files of the server are only reused while the file is unchanged (same file key and modification time), so a file the server replaced
+ * or rewrote is always mapped again before it is read.<br/>
+ * Shared memory is only used after the server has accepted the directory via 'POST_register_sharedmemorydir', else all values are exchanged as text.
+ *
+ * @author Gernot Belger
+ */
+final class HydPySharedMemory
+{
+  private static final String DESCRIPTOR_PREFIX = "shm:"; //$NON-NLS-1$
+
+  private static final String DTYPE = "<f8"; //$NON-NLS-1$
+
+  static final String ARGUMENT_SHAREDMEMORYDIR = "sharedmemorydir"; //$NON-NLS-1$
+
+  private static final class Region
+  {
+    private final Path m_file;
+
+    private final MappedByteBuffer m_buffer;
+
+    /* null, if the file system has no file keys */
+    private final Object m_fileKey;
+
+    private final FileTime m_lastModified;
+
+    public Region( final Path file, final MappedByteBuffer buffer, final BasicFileAttributes attributes )
+    {
+      m_file = file;
+      m_buffer = buffer;
+      m_fileKey = attributes.fileKey();
+      m_lastModified = attributes.lastModifiedTime();
+    }
+
+    public Path getFile( )
+    {
+      return m_file;
+    }
+
+    /**
+     * @return <code>true</code>, if the file was not changed since it was mapped. A file that was deleted and written again is another file, our mapping
+     *         would still show the old one.
+     */
+    public boolean isUnchanged( final BasicFileAttributes attributes )
+    {
+      return Objects.equals( m_fileKey, attributes.fileKey() ) && m_lastModified.equals( attributes.lastModifiedTime() ) && attributes.size() <= capacity();
+    }
+
+    public int capacity( )
+    {
+      return m_buffer.capacity();
+    }
+
+    public DoubleBuffer asDoubles( )
+    {
+      return m_buffer.duplicate().order( ByteOrder.LITTLE_ENDIAN ).asDoubleBuffer();
+    }
+  }
+
+  /* written by us, per instance and item */
+  private final Map<String, Region> m_writeRegions = new HashMap<>();
+
+  /* written by the server, per file */
+  private final Map<Path, Region> m_readRegions = new HashMap<>();
+
+  private final Path m_directory;
+
+  private final String m_filePrefix;
+
+  private final int m_threshold;
+
+  private final PrintStream m_debugOut;
+
+  private volatile boolean m_enabled = false;
+
+  public HydPySharedMemory( final Path directory, final int processId, final int threshold, final PrintStream debugOut )
+  {
+    m_directory = directory;
+    m_filePrefix = String.format( "HydPy_%d_", processId );
+    m_threshold = threshold;
+    m_debugOut = debugOut;
+  }
+
+  public Path getDirectory( )
+  {
+    return m_directory;
+  }
+
+  /**
+   * Called as soon as the server has accepted the shared memory directory. Before, all values are exchanged as text.
+   */
+  public void enable( )
+  {
+    m_enabled = true;
+  }
+
+  /**
+   * @return <code>true</code>, if the value should be exchanged via shared memory. Only 2-dimensional arrays with at least the configured number of elements
+   *         are.
+   */
+  public boolean accepts( final IArray values )
+  {
+    // REMARK: the descriptor only knows rows and columns
+    return m_enabled && values.getDimensions().length == 2 && values.length() >= m_threshold;
+  }
+
+  public static boolean isDescriptor( final CharSequence valueText )
+  {
+    return StringUtils.startsWith( valueText, DESCRIPTOR_PREFIX );
+  }
+
+  /**
+   * Writes the 2-dimensional array into the region of the given instance and item.
+   *
+   * @return The descriptor to be sent instead of the value.
+   */
+  public synchronized String write( final String instanceId, final String itemId, final IArray values ) throws HydPyServerException
+  {
+    final int[] dimensions = values.getDimensions();
+    if( dimensions.length != 2 )
+      throw new HydPyServerException( String.format( "Item '%s': only 2-dimensional arrays can be written to shared memory, got %d dimensions", itemId, dimensions.length ) );
+
+    final double[] doubles = values.getValuesAsDoubles( false );
+    final int size = doubles.length * Double.BYTES;
+
+    try
+    {
+      final String key = instanceId + '/' + itemId;
+      Region region = m_writeRegions.get( key );
+      if( region == null || region.capacity() < size )
+      {
+        final Path file = m_directory.resolve( m_filePrefix + toFilename( instanceId + '_' + itemId ) + ".f64" );
+        region = map( file, MapMode.READ_WRITE, size );
+        m_writeRegions.put( key, region );
+      }
+
+      region.asDoubles().put( doubles );
+
+      return String.format( "%s%s:%d:%d:%d:%s", DESCRIPTOR_PREFIX, DTYPE, 0, dimensions[0], dimensions[1], region.getFile() );
+    }
+    catch( final IOException e )
+    {
+      throw new HydPyServerException( String.format( "Failed to write shared memory for item '%s'", itemId ), e );
+    }
+  }
+
+  private static String toFilename( final String name )
+  {
+    return name.replaceAll( "[^a-zA-Z0-9._-]", "_" ); //$NON-NLS-1$ //$NON-NLS-2$
+  }
+
+  /**
+   * Reads the 2-dimensional array from a descriptor sent by the server.
+   */
+  public synchronized IArray read( final CharSequence descriptor ) throws HydPyServerException
+  {
+    // REMARK: the path is the last part, so it may contain ':' itself
+    final String[] parts = StringUtils.split( descriptor.toString().substring( DESCRIPTOR_PREFIX.length() ), ":", 5 );
+    if( parts.length != 5 || !DTYPE.equals( parts[0] ) )
+      throw new HydPyServerException( String.format( "Invalid shared memory descriptor: %s", descriptor ) );
+
+    try
+    {
+      final long offset = Long.parseLong( parts[1] );
+      final int rows = Integer.parseInt( parts[2] );
+      final int columns = Integer.parseInt( parts[3] );
+      final Path file = Paths.get( parts[4].trim() );
+
+      final long size = offset + (long)rows * columns * Double.BYTES;
+
+      // REMARK: the file may have been replaced by the server since we mapped it
+      final BasicFileAttributes attributes = Files.readAttributes( file, BasicFileAttributes.class );
+
+      Region region = m_readRegions.get( file );
+      if( region == null || region.capacity() < size || !region.isUnchanged( attributes ) )
+      {
+        region = map( file, MapMode.READ_ONLY, size );
+        m_readRegions.put( file, region );
+      }
+
+      final double[] values = new double[rows * columns];
+      final DoubleBuffer doubles = region.asDoubles();
+      doubles.position( (int)(offset / Double.BYTES) );
+      doubles.get( values );
+
+      return new Array( values, new int[] { rows, columns }, false );
+    }
+    catch( final NumberFormatException | IOException e )
+    {
+      throw new HydPyServerException( String.format( "Failed to read shared memory: %s", descriptor ), e );
+    }
+  }
+
+  private Region map( final Path file, final MapMode mode, final long size ) throws IOException
+  {
+    final boolean write = mode == MapMode.READ_WRITE;
+
+    try( final FileChannel channel = write ? FileChannel.open( file, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE ) : FileChannel.open( file, StandardOpenOption.READ ) )
+    {
+      // REMARK: map the whole file (if bigger), so the region can be reused as long as the values do not grow
+      final long mappedSize = Math.max( size, channel.size() );
+      if( mappedSize > Integer.MAX_VALUE )
+        throw new IOException( String.format( "Shared memory file too big: %s", file ) );
+
+      m_debugOut.format( "Mapping shared memory (%d bytes): %s%n", mappedSize, file );
+
+      final MappedByteBuffer buffer = channel.map( mode, 0, mappedSize );
+
+      // REMARK: the mapping stays valid after the channel is closed
+      return new Region( file, buffer, Files.readAttributes( file, BasicFileAttributes.class ) );
+    }
+  }
+
+  /**
+   * Releases all regions and deletes the files written by us.
+   */
+  public synchronized void close( )
+  {
+    m_enabled = false;
+
+    for( final Region region : m_writeRegions.values() )
+    {
+      try
+      {
+        // REMARK: Java 8 cannot unmap explicitly; deletion might hence fail on Windows, but the files are rewritten next time
+        Files.deleteIfExists( region.getFile() );
+      }
+      catch( final IOException e )
+      {
+        m_debugOut.format( "Failed to delete shared memory file: %s%n", region.getFile() );
+      }
+    }
+
+    m_writeRegions.clear();
+    m_readRegions.clear();
+  }
+}
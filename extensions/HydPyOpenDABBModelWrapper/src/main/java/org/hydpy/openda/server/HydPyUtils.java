@@ -14,6 +14,8 @@ package org.hydpy.openda.server;
 import java.io.BufferedOutputStream;
 import java.io.IOException;
 import java.io.OutputStream;
+import java.io.Writer;
+import java.nio.CharBuffer;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.util.ArrayList;
@@ -21,8 +23,8 @@ import java.util.Arrays;
 import java.util.List;
 import java.util.NoSuchElementException;
 import java.util.Properties;
-import java.util.StringTokenizer;
 import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Future;
 import java.util.stream.Collectors;
@@ -57,6 +59,9 @@ public final class HydPyUtils
 
   private static final double secondsToDays = 1.0 / daysToSeconds;
 
+  /* number of values printed at once into a writer */
+  private static final int WRITER_CHUNK_SIZE = 4096;
+
   public static final String HYD_PY_NAN = "nan";
 
   private HydPyUtils( )
@@ -129,50 +134,178 @@ public final class HydPyUtils
     }
   }
 
-  public static double[] parseDoubleArray( final String text )
+  public static double[] parseDoubleArray( final CharSequence text )
   {
-    final StringTokenizer st = new StringTokenizer( text, "[], " );
+    final int length = text.length();
 
-    final int countTokens = st.countTokens();
+    /* count the values first, so we do not need any intermediate list */
+    int count = 0;
+    for( int pos = skipArraySeparators( text, 0 ); pos < length; pos = skipArraySeparators( text, endOfArrayToken( text, pos ) ) )
+      count++;
 
-    final double[] values = new double[countTokens];
+    final double[] values = new double[count];
 
-    for( int i = 0; i < values.length; i++ )
-    {
-      final String token = st.nextToken();
-      values[i] = parseDouble( token );
-    }
+    int i = 0;
+    for( int pos = skipArraySeparators( text, 0 ); pos < length; pos = skipArraySeparators( text, endOfArrayToken( text, pos ) ) )
+      values[i++] = parseDouble( text, pos, endOfArrayToken( text, pos ) );
 
     return values;
   }
 
-  private static double parseDouble( final String token )
+  private static int skipArraySeparators( final CharSequence text, final int start )
+  {
+    int pos = start;
+    while( pos < text.length() && isArraySeparator( text.charAt( pos ) ) )
+      pos++;
+    return pos;
+  }
+
+  private static int endOfArrayToken( final CharSequence text, final int start )
+  {
+    int pos = start;
+    while( pos < text.length() && !isArraySeparator( text.charAt( pos ) ) )
+      pos++;
+    return pos;
+  }
+
+  private static boolean isArraySeparator( final char c )
+  {
+    return c == '[' || c == ']' || c == ',' || Character.isWhitespace( c );
+  }
+
+  /**
+   * Parses the double value from the given range of the text without creating a substring.
+   */
+  private static double parseDouble( final CharSequence text, final int start, final int end )
   {
-    if( HYD_PY_NAN.equals( token ) )
+    if( isHydPyNan( text, start, end ) )
       return Double.NaN;
 
-    return Double.parseDouble( token );
+    // REMARK: using this specialized double parser that if way faster than vanilla java
+    return FastDoubleParser.parseDouble( CharBuffer.wrap( text, start, end ) );
   }
 
-  public static String printDoubleArray( final double[] doubles )
+  private static boolean isHydPyNan( final CharSequence text, final int start, final int end )
   {
-    final StringBuilder buffer = new StringBuilder( "[" );
+    if( end - start != HYD_PY_NAN.length() )
+      return false;
 
-    for( int i = 0; i < doubles.length; i++ )
+    for( int i = 0; i < HYD_PY_NAN.length(); i++ )
     {
-      if( Double.isNaN( doubles[i] ) )
-        buffer.append( HYD_PY_NAN );
-      else
-        buffer.append( doubles[i] );
+      if( Character.toLowerCase( text.charAt( start + i ) ) != HYD_PY_NAN.charAt( i ) )
+        return false;
+    }
+
+    return true;
+  }
+
+  public static String printDoubleArray( final double[] doubles )
+  {
+    final StringBuilder buffer = new StringBuilder( estimatePrintLength( doubles.length ) );
+
+    appendDoubleArray( buffer, doubles, 0, 1, doubles.length );
 
-      if( i < doubles.length - 1 )
+    return buffer.toString();
+  }
+
+  /**
+   * Prints a 2D array (given by its flat row-major values) in transposed order, i.e. as one list per column.
+   * Avoids to create an intermediate swapped array.
+   */
+  public static String printDoubleArray2DTransposed( final double[] values, final int rows, final int columns )
+  {
+    final StringBuilder buffer = new StringBuilder( estimatePrintLength( values.length ) );
+
+    buffer.append( '[' );
+
+    for( int column = 0; column < columns; column++ )
+    {
+      if( column > 0 )
         buffer.append( ',' );
+
+      appendDoubleArray( buffer, values, column, columns, rows );
     }
 
     buffer.append( ']' );
+
     return buffer.toString();
   }
 
+  /**
+   * Same as {@link #printDoubleArray(double[])}, but prints directly into the writer.
+   */
+  public static void printDoubleArray( final Writer writer, final double[] doubles ) throws IOException
+  {
+    final StringBuilder buffer = new StringBuilder( estimatePrintLength( Math.min( doubles.length, WRITER_CHUNK_SIZE ) ) );
+
+    writer.write( '[' );
+
+    for( int offset = 0; offset < doubles.length; offset += WRITER_CHUNK_SIZE )
+    {
+      if( offset > 0 )
+        writer.write( ',' );
+
+      buffer.setLength( 0 );
+      appendDoubleValues( buffer, doubles, offset, 1, Math.min( WRITER_CHUNK_SIZE, doubles.length - offset ) );
+      writer.append( buffer );
+    }
+
+    writer.write( ']' );
+  }
+
+  /**
+   * Same as {@link #printDoubleArray2DTransposed(double[], int, int)}, but prints directly into the writer.<br/>
+   * Only one column is held in memory at once.
+   */
+  public static void printDoubleArray2DTransposed( final Writer writer, final double[] values, final int rows, final int columns ) throws IOException
+  {
+    final StringBuilder buffer = new StringBuilder( estimatePrintLength( rows ) );
+
+    writer.write( '[' );
+
+    for( int column = 0; column < columns; column++ )
+    {
+      if( column > 0 )
+        writer.write( ',' );
+
+      buffer.setLength( 0 );
+      appendDoubleArray( buffer, values, column, columns, rows );
+      writer.append( buffer );
+    }
+
+    writer.write( ']' );
+  }
+
+  private static int estimatePrintLength( final int count )
+  {
+    // REMARK: rough estimate, java prints most doubles with up to 20 characters; avoids most re-allocations of the buffer
+    return Math.max( 16, Math.min( count * 20, Integer.MAX_VALUE / 2 ) );
+  }
+
+  private static void appendDoubleArray( final StringBuilder buffer, final double[] values, final int offset, final int stride, final int count )
+  {
+    buffer.append( '[' );
+
+    appendDoubleValues( buffer, values, offset, stride, count );
+
+    buffer.append( ']' );
+  }
+
+  private static void appendDoubleValues( final StringBuilder buffer, final double[] values, final int offset, final int stride, final int count )
+  {
+    for( int i = 0, index = offset; i < count; i++, index += stride )
+    {
+      if( i > 0 )
+        buffer.append( ',' );
+
+      final double value = values[index];
+      if( Double.isNaN( value ) )
+        buffer.append( HYD_PY_NAN );
+      else
+        buffer.append( value );
+    }
+  }
+
   public static String[] parseStringArray( final String text )
   {
     // TODO: ugly hack
@@ -264,26 +397,21 @@ public final class HydPyUtils
   public static IArray swapArray2D( final IArray array )
   {
     final int[] dimensions = array.getDimensions();
-    final int[] swappedDimensions = new int[] { dimensions[1], dimensions[0] };
+    final int rows = dimensions[0];
+    final int columns = dimensions[1];
 
-    final Array swappedArray = new Array( swappedDimensions );
+    // REMARK: directly working on the flat (row-major) values, accessing single values via int[] indices is very slow for big arrays
+    final double[] values = array.getValuesAsDoubles( false );
+    final double[] swappedValues = new double[values.length];
 
-    final int[] iter = new int[2];
-    final int[] swappedIter = new int[2];
-    for( iter[0] = 0, swappedIter[1] = 0; //
-        iter[0] < dimensions[0]; //
-        iter[0]++, swappedIter[1]++ )
+    for( int row = 0; row < rows; row++ )
     {
-      for( iter[1] = 0, swappedIter[0] = 0; //
-          iter[1] < dimensions[1]; //
-          iter[1]++, swappedIter[0]++ )
-      {
-        final double value = array.getValueAsDouble( iter );
-        swappedArray.setValueAsDouble( swappedIter, value );
-      }
+      final int rowOffset = row * columns;
+      for( int column = 0; column < columns; column++ )
+        swappedValues[column * rows + row] = values[rowOffset + column];
     }
 
-    return swappedArray;
+    return new Array( swappedValues, new int[] { columns, rows }, false );
   }
 
   public static Instant[] mjdToInstant( final double[] times )
@@ -373,8 +501,8 @@ public final class HydPyUtils
 
   // REMARK: copy of the original parsing code of org.openda.utils.Array(String),
   // using a faster double parser and not using an ArrayList<Double>
-  // Also uses Json syntax instead.
-  public static IArray parseArrayFromJson( final String json )
+  // Also uses Json syntax instead, ignores whitespace and understands HydPy's 'nan'.
+  public static IArray parseArrayFromJson( final CharSequence json )
   {
     int stringIndex = 0;
 
@@ -405,7 +533,7 @@ public final class HydPyUtils
         curDim--;
         if( curDim < -1 )
         {
-          throw new RuntimeException( "Too many closing brackets in array at position=" + stringIndex + " in string=" + json );
+          throw new RuntimeException( "Too many closing brackets in array at position=" + stringIndex );
         }
         stringIndex++;
       }
@@ -414,30 +542,21 @@ public final class HydPyUtils
         counter[curDim]++;
         stringIndex++;
       }
+      else if( Character.isWhitespace( charAt ) )
+        stringIndex++;
       else
       {
         // try to find a number
-        int indexEnd = json.indexOf( ']', stringIndex );
-        // if a comma comes first
-        final int indexComma = json.indexOf( ',', stringIndex );
-        if( (indexComma >= 0) & (indexComma < indexEnd) )
-        {
-          indexEnd = indexComma;
-        }
-
-        final String numberString = json.substring( stringIndex, indexEnd );
+        final int indexEnd = endOfArrayToken( json, stringIndex );
         try
         {
-          // final double value = Double.parseDouble( numberString );
-          // REMARK: using this specialized double parser that if way faster than vanilla java
-          // TODO: consider making a fork, that does not require to build substrings
-          final double value = FastDoubleParser.parseDouble( numberString );
+          final double value = parseDouble( json, stringIndex, indexEnd );
           valuesList.add( value );
           stringIndex = indexEnd;
         }
         catch( final NumberFormatException e )
         {
-          throw new RuntimeException( "Problems parsing array at position=" + stringIndex + "while processing number " + numberString );
+          throw new RuntimeException( "Problems parsing array at position=" + stringIndex + "while processing number " + json.subSequence( stringIndex, indexEnd ) );
         }
       }
     }
@@ -497,6 +616,16 @@ public final class HydPyUtils
     }
   }
 
+  /**
+   * Same as CompletableFuture#failedFuture, which is only available since Java 9.
+   */
+  public static <RESULT> CompletableFuture<RESULT> failedFuture( final Throwable error )
+  {
+    final CompletableFuture<RESULT> future = new CompletableFuture<>();
+    future.completeExceptionally( error );
+    return future;
+  }
+
   static HydPyServerException toHydPyServerException( final Exception e )
   {
     final Throwable cause = e.getCause();
@@ -505,4 +634,18 @@ public final class HydPyUtils
 
     return new HydPyServerException( cause );
   }
-}
\ No newline at end of file
+
+  /**
+   * @return <code>true</code>, if the error (or one of its causes) is an {@link IOException}, i.e. HydPy could not be reached or did not answer, in contrast to an error reported by HydPy itself.
+   */
+  static boolean isCommunicationFailure( final Throwable error )
+  {
+    for( Throwable cause = error; cause != null; cause = cause.getCause() )
+    {
+      if( cause instanceof IOException )
+        return true;
+    }
+
+    return false;
+  }
+}
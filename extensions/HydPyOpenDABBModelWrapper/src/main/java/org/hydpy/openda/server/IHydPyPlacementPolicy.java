@@ -0,0 +1,29 @@
+/**
+ * Copyright (c) 2021 by
+ * - Bundesanstalt für Gewässerkunde
+ * - Björnsen Beratende Ingenieure GmbH
+ * All rights reserved.
+ *
+ * This file is Free Software under the under the terms of the
+ * GNU Lesser General Public License (LGPL >=v3)
+ * and comes with ABSOLUTELY NO WARRANTY! Check out the
+ * documentation coming with HydPy for details.
+ */
+package org.hydpy.openda.server;
+
+import java.util.List;
+
+/**
+ * Decides on which HydPy server process a new model instance is placed. The instance then stays on this process.
+ *
+ * @author Gernot Belger
+ */
+interface IHydPyPlacementPolicy
+{
+  /**
+   * @param loads
+   *          The current load of all processes that may receive the instance, including those not yet started; ordered by process id.
+   * @return The id of the process for the new instance.
+   */
+  int selectProcess( List<HydPyProcessLoad> loads );
+}
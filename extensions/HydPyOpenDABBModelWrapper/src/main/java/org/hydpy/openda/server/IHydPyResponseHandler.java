@@ -0,0 +1,28 @@
+/**
+ * Copyright (c) 2021 by
+ * - Bundesanstalt für Gewässerkunde
+ * - Björnsen Beratende Ingenieure GmbH
+ * All rights reserved.
+ *
+ * This file is Free Software under the under the terms of the
+ * GNU Lesser General Public License (LGPL >=v3)
+ * and comes with ABSOLUTELY NO WARRANTY! Check out the
+ * documentation coming with HydPy for details.
+ */
+package org.hydpy.openda.server;
+
+/**
+ * Receives the key/value pairs of a HydPy-Server response while it is being read.
+ *
+ * @author Gernot Belger
+ */
+interface IHydPyResponseHandler
+{
+  /**
+   * Called once for every key/value pair, in the order they are received from the server.
+   *
+   * @param value
+   *          The (already unescaped) value. Only valid during this call, implementors must not keep a reference to it.
+   */
+  void handleValue( String key, CharSequence value ) throws HydPyServerException;
+}
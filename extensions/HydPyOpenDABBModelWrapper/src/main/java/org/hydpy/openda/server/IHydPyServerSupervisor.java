@@ -0,0 +1,36 @@
+/**
+ * Copyright (c) 2021 by
+ * - Bundesanstalt für Gewässerkunde
+ * - Björnsen Beratende Ingenieure GmbH
+ * All rights reserved.
+ *
+ * This file is Free Software under the under the terms of the
+ * GNU Lesser General Public License (LGPL >=v3)
+ * and comes with ABSOLUTELY NO WARRANTY! Check out the
+ * documentation coming with HydPy for details.
+ */
+package org.hydpy.openda.server;
+
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Restarts the process of a {@link HydPyServerInstance} after it has crashed.
+ *
+ * @author Gernot Belger
+ */
+interface IHydPyServerSupervisor
+{
+  /**
+   * @return <code>true</code>, if the process has terminated.
+   */
+  boolean isTerminated( );
+
+  /**
+   * Kills the process (if it is still running) and starts a new one on the same port. Never blocks.
+   *
+   * @param crashed
+   *          The caller of the crashed process, will be abandoned.
+   * @return The caller for the new process. Its instances still need to be restored.
+   */
+  CompletableFuture<HydPyOpenDACaller> respawn( HydPyOpenDACaller crashed );
+}
@@ -0,0 +1,47 @@
+/**
+ * Copyright (c) 2021 by
+ * - Bundesanstalt für Gewässerkunde
+ * - Björnsen Beratende Ingenieure GmbH
+ * All rights reserved.
+ *
+ * This file is Free Software under the under the terms of the
+ * GNU Lesser General Public License (LGPL >=v3)
+ * and comes with ABSOLUTELY NO WARRANTY! Check out the
+ * documentation coming with HydPy for details.
+ */
+package org.hydpy.openda.server;
+
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Transports the calls of a {@link HydPyServerClient} to exactly one HydPy server process.
+ *
+ * @author Gernot Belger
+ */
+interface IHydPyTransport
+{
+  /**
+   * Executes one call and hands the received values to the given handler while the response is read.
+   *
+   * @param instanceId
+   *          Optional
+   * @param methods
+   *          Optional, comma separated list of HydPy methods.
+   * @param body
+   *          The body of a POST call; <code>null</code> for a GET call.
+   */
+  void call( String path, String instanceId, String methods, HydPyRequestBody body, int timeoutMillis, IHydPyResponseHandler handler ) throws HydPyServerException;
+
+  /**
+   * Same as {@link #call(String, String, String, HydPyRequestBody, int, IHydPyResponseHandler)}, but does not block if supported by this transport.<br/>
+   * Else, the call is executed directly in the calling thread and the returned future is already completed.
+   */
+  CompletableFuture<Void> callAsync( String path, String instanceId, String methods, HydPyRequestBody body, int timeoutMillis, IHydPyResponseHandler handler );
+
+  /**
+   * Human readable statistics about the calls made so far, for logging.
+   */
+  String getStatistics( );
+
+  void close( );
+}
@@ -0,0 +1,29 @@
+/**
+ * Copyright (c) 2021 by
+ * - Bundesanstalt für Gewässerkunde
+ * - Björnsen Beratende Ingenieure GmbH
+ * All rights reserved.
+ *
+ * This file is Free Software under the under the terms of the
+ * GNU Lesser General Public License (LGPL >=v3)
+ * and comes with ABSOLUTELY NO WARRANTY! Check out the
+ * documentation coming with HydPy for details.
+ */
+package org.hydpy.openda.server;
+
+import java.io.PrintStream;
+
+/**
+ * Replaces the HydPy server processes by transports that are created inside the JVM, e.g. to test the wrapper against a fake server without any python
+ * process. Not part of the configuration, only available to code in this package.
+ *
+ * @author Gernot Belger
+ */
+@FunctionalInterface
+interface IHydPyTransportFactory
+{
+  /**
+   * Called instead of starting a process, once for every (re-)connection to the server with the given name.
+   */
+  IHydPyTransport createTransport( String serverName, PrintStream debugOut );
+}
@@ -35,9 +35,9 @@ final class TimeItem extends AbstractSingleServerItem<Instant>
   }
 
   @Override
-  public Instant parseValue( final Instant startTime, final Instant endTime, final long stepSeconds, final String valueText )
+  public Instant parseValue( final Instant startTime, final Instant endTime, final long stepSeconds, final CharSequence valueText )
   {
-    return Instant.parse( valueText, HYD_PY_DATE_TIME_PARSER );
+    return Instant.parse( valueText.toString(), HYD_PY_DATE_TIME_PARSER );
   }
 
   @Override
@@ -11,7 +11,8 @@
  */
 package org.hydpy.openda.server;
 
-import java.util.Arrays;
+import java.io.IOException;
+import java.io.Writer;
 
 import org.joda.time.Instant;
 import org.openda.exchange.timeseries.TimeSeries;
@@ -29,11 +30,11 @@ final class Timeseries0DItem extends AbstractSingleServerItem<Timeseries0D>
   }
 
   @Override
-  public Timeseries0D parseValue( final Instant startTime, final Instant endTime, final long stepSeconds, final String valueText ) throws HydPyServerException
+  public Timeseries0D parseValue( final Instant startTime, final Instant endTime, final long stepSeconds, final CharSequence valueText ) throws HydPyServerException
   {
     try
     {
-      final double[] value = HydPyUtils.parseDoubleArray( valueText );
+      final double[] value = HydPyBinaryEncoding.isEncoded( valueText ) ? HydPyBinaryEncoding.parseDoubleArray( valueText ) : HydPyUtils.parseDoubleArray( valueText );
 
       final double[] times = HydPyUtils.buildTimes( value.length, startTime, stepSeconds, endTime );
 
@@ -69,23 +70,39 @@ final class Timeseries0DItem extends AbstractSingleServerItem<Timeseries0D>
     return HydPyUtils.printDoubleArray( value.getValues() );
   }
 
+  @Override
+  public void printValue( final Timeseries0D value, final Writer writer ) throws IOException
+  {
+    HydPyUtils.printDoubleArray( writer, value.getValues() );
+  }
+
+  @Override
+  public void printBinaryValue( final Timeseries0D value, final Writer writer ) throws IOException
+  {
+    final double[] values = value.getValues();
+    HydPyBinaryEncoding.print( writer, values, values.length );
+  }
+
   @Override
   public Timeseries0D mergeToModelRange( final Timeseries0D initialRangeValue, final Timeseries0D currentRangeValue )
   {
-    final double[] initialTimes = initialRangeValue.getTimes();
-    final double[] initialValues = initialRangeValue.getValues();
+    /* copy and merge arrays */
+    return mergeToModelRangeInPlace( initialRangeValue.copy(), currentRangeValue );
+  }
+
+  @Override
+  public Timeseries0D mergeToModelRangeInPlace( final Timeseries0D modelRangeValue, final Timeseries0D currentRangeValue )
+  {
+    final double[] modelTimes = modelRangeValue.getTimes();
+    final double[] modelValues = modelRangeValue.getValues();
 
     final double[] currentTimes = currentRangeValue.getTimes();
     final double[] currentValues = currentRangeValue.getValues();
 
-    /* copy and merge arrays */
-    final double[] modelTimes = Arrays.copyOf( initialTimes, initialTimes.length );
-
-    final double[] modelValues = Arrays.copyOf( initialValues, initialValues.length );
-    final int startIndex = HydPyUtils.indexOfMdj( initialTimes, currentTimes[0] );
+    final int startIndex = HydPyUtils.indexOfMdj( modelTimes, currentTimes[0] );
     System.arraycopy( currentValues, 0, modelValues, startIndex, currentValues.length );
 
-    return new Timeseries0D( modelTimes, modelValues, false );
+    return modelRangeValue;
   }
 
   @Override
@@ -11,6 +11,8 @@
  */
 package org.hydpy.openda.server;
 
+import java.io.IOException;
+import java.io.Writer;
 import java.util.Arrays;
 import java.util.NoSuchElementException;
 
@@ -56,18 +58,21 @@ final class Timeseries1D
     return m_values;
   }
 
-  public static Timeseries1D fromHydPy( final Instant startTime, final Instant endTime, final long stepSeconds, final String valueText )
+  public static Timeseries1D fromHydPy( final Instant startTime, final Instant endTime, final long stepSeconds, final CharSequence valueText ) throws HydPyServerException
   {
     // [ [timeseris1] [timeseries2] [timeseries3] ... ] i.e. one ts per element
-    final String arrayText = valueText//
-        // TODO: should be handled in parser to avoid string copy
-        .replace( "nan", "NaN" ) //
-        .replace( " ", "" );
+    final IArray array = HydPyBinaryEncoding.isEncoded( valueText ) ? HydPyBinaryEncoding.parseArray2D( valueText ) : HydPyUtils.parseArrayFromJson( valueText );
 
-    final IArray array = HydPyUtils.parseArrayFromJson( arrayText );
+    return fromHydPy( startTime, endTime, stepSeconds, array );
+  }
 
+  /**
+   * @param array
+   *          The values in the same layout as sent by HydPy, i.e. one row per element.
+   */
+  public static Timeseries1D fromHydPy( final Instant startTime, final Instant endTime, final long stepSeconds, final IArray array )
+  {
     /* swap array dimensions */
-    // FIXME: maybe directly handle by parser?
     final IArray swappedArray = HydPyUtils.swapArray2D( array );
 
     final int[] dimensions = swappedArray.getDimensions();
@@ -79,29 +84,61 @@ final class Timeseries1D
 
   public String printHydPy( )
   {
-    final IArray swappedArray = HydPyUtils.swapArray2D( m_values );
+    final int[] dimensions = m_values.getDimensions();
 
-    return swappedArray.toString()//
-        .replace( '{', '[' ) //
-        .replace( '}', ']' ) //
-        .replace( "NaN", HydPyUtils.HYD_PY_NAN );
+    /* print one list per element, i.e. the transposed array */
+    return HydPyUtils.printDoubleArray2DTransposed( m_values.getValuesAsDoubles( false ), dimensions[0], dimensions[1] );
   }
 
-  public Timeseries1D insert( final Timeseries1D other )
+  /**
+   * Same as {@link #printHydPy()}, but prints directly into the writer.
+   */
+  public void printHydPy( final Writer writer ) throws IOException
   {
-    final double[] currentTimes = other.getTimes();
-    final IArray currentValues = other.getValues();
+    final int[] dimensions = m_values.getDimensions();
+
+    HydPyUtils.printDoubleArray2DTransposed( writer, m_values.getValuesAsDoubles( false ), dimensions[0], dimensions[1] );
+  }
+
+  /**
+   * Same as {@link #printHydPy(Writer)}, but in the binary encoding, see {@link HydPyBinaryEncoding}.
+   */
+  public void printHydPyBinary( final Writer writer ) throws IOException
+  {
+    final int[] dimensions = m_values.getDimensions();
+
+    HydPyBinaryEncoding.print2DTransposed( writer, m_values.getValuesAsDoubles( false ), dimensions[0], dimensions[1] );
+  }
 
+  /**
+   * The values in the same layout as exchanged with HydPy, i.e. one row per element.
+   */
+  public IArray toHydPyArray( )
+  {
+    return HydPyUtils.swapArray2D( m_values );
+  }
+
+  public Timeseries1D insert( final Timeseries1D other )
+  {
     /* copy and merge arrays */
-    final double[] mergedTimes = Arrays.copyOf( m_times, m_times.length );
+    return copy().insertInPlace( other );
+  }
 
-    final IArray mergedValues = new Array( m_values );
+  /**
+   * Same as {@link #insert(Timeseries1D)}, but overwrites the values of this timeseries, so only the time span of the other timeseries is touched.
+   *
+   * @return this
+   */
+  public Timeseries1D insertInPlace( final Timeseries1D other )
+  {
+    final double[] currentTimes = other.getTimes();
+    final IArray currentValues = other.getValues();
 
     final int startIndex = HydPyUtils.indexOfMdj( m_times, currentTimes[0] );
     final int endIndex = HydPyUtils.indexOfMdj( m_times, currentTimes[currentTimes.length - 1] );
-    mergedValues.setSlice( currentValues, 0, startIndex, endIndex );
+    m_values.setSlice( currentValues, 0, startIndex, endIndex );
 
-    return new Timeseries1D( mergedTimes, mergedValues, false );
+    return this;
   }
 
   public Timeseries1D restrictToRange( final Instant currentStartTime, final Instant currentEndTime )
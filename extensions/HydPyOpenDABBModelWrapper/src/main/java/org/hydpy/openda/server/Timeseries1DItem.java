@@ -11,6 +11,9 @@
  */
 package org.hydpy.openda.server;
 
+import java.io.IOException;
+import java.io.Writer;
+
 import org.joda.time.Instant;
 import org.openda.exchange.ArrayExchangeItem;
 import org.openda.exchange.ArrayTimeInfo;
@@ -30,7 +33,7 @@ public class Timeseries1DItem extends AbstractSingleServerItem<Timeseries1D>
   }
 
   @Override
-  public Timeseries1D parseValue( final Instant startTime, final Instant endTime, final long stepSeconds, final String valueText )
+  public Timeseries1D parseValue( final Instant startTime, final Instant endTime, final long stepSeconds, final CharSequence valueText ) throws HydPyServerException
   {
     return Timeseries1D.fromHydPy( startTime, endTime, stepSeconds, valueText );
   }
@@ -67,12 +70,30 @@ public class Timeseries1DItem extends AbstractSingleServerItem<Timeseries1D>
     return timeseries.printHydPy();
   }
 
+  @Override
+  public void printValue( final Timeseries1D timeseries, final Writer writer ) throws IOException
+  {
+    timeseries.printHydPy( writer );
+  }
+
+  @Override
+  public void printBinaryValue( final Timeseries1D timeseries, final Writer writer ) throws IOException
+  {
+    timeseries.printHydPyBinary( writer );
+  }
+
   @Override
   public Timeseries1D mergeToModelRange( final Timeseries1D initialRangeValue, final Timeseries1D currentRangeValue )
   {
     return initialRangeValue.insert( currentRangeValue );
   }
 
+  @Override
+  public Timeseries1D mergeToModelRangeInPlace( final Timeseries1D modelRangeValue, final Timeseries1D currentRangeValue )
+  {
+    return modelRangeValue.insertInPlace( currentRangeValue );
+  }
+
   @Override
   public Timeseries1D restrictToCurrentRange( final Timeseries1D modelRangeValue, final Instant currentStartTime, final Instant currentEndTime )
   {
@@ -84,4 +105,16 @@ public class Timeseries1DItem extends AbstractSingleServerItem<Timeseries1D>
   {
     return value.copy();
   }
+
+  @Override
+  public IArray toSharedArray( final Timeseries1D value )
+  {
+    return value.toHydPyArray();
+  }
+
+  @Override
+  public Timeseries1D parseSharedArray( final Instant startTime, final Instant endTime, final long stepSeconds, final IArray values )
+  {
+    return Timeseries1D.fromHydPy( startTime, endTime, stepSeconds, values );
+  }
 }
\ No newline at end of file
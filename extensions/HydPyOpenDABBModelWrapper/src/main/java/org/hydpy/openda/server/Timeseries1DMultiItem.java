@@ -11,6 +11,8 @@
  */
 package org.hydpy.openda.server;
 
+import java.io.IOException;
+import java.io.Writer;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
@@ -64,7 +66,7 @@ final class Timeseries1DMultiItem extends AbstractServerItem<Timeseries1D>
   }
 
   @Override
-  public Timeseries1D parseValue( final Instant startTime, final Instant endTime, final long stepSeconds, final String valueText )
+  public Timeseries1D parseValue( final Instant startTime, final Instant endTime, final long stepSeconds, final CharSequence valueText ) throws HydPyServerException
   {
     return Timeseries1D.fromHydPy( startTime, endTime, stepSeconds, valueText );
   }
@@ -134,12 +136,30 @@ final class Timeseries1DMultiItem extends AbstractServerItem<Timeseries1D>
     return timeseries.printHydPy();
   }
 
+  @Override
+  public void printValue( final Timeseries1D timeseries, final Writer writer ) throws IOException
+  {
+    timeseries.printHydPy( writer );
+  }
+
+  @Override
+  public void printBinaryValue( final Timeseries1D timeseries, final Writer writer ) throws IOException
+  {
+    timeseries.printHydPyBinary( writer );
+  }
+
   @Override
   public Timeseries1D mergeToModelRange( final Timeseries1D initialRangeValue, final Timeseries1D currentRangeValue )
   {
     return initialRangeValue.insert( currentRangeValue );
   }
 
+  @Override
+  public Timeseries1D mergeToModelRangeInPlace( final Timeseries1D modelRangeValue, final Timeseries1D currentRangeValue )
+  {
+    return modelRangeValue.insertInPlace( currentRangeValue );
+  }
+
   @Override
   public Timeseries1D restrictToCurrentRange( final Timeseries1D modelRangeValue, final Instant currentStartTime, final Instant currentEndTime )
   {
@@ -151,4 +171,16 @@ final class Timeseries1DMultiItem extends AbstractServerItem<Timeseries1D>
   {
     return value.copy();
   }
+
+  @Override
+  public IArray toSharedArray( final Timeseries1D value )
+  {
+    return value.toHydPyArray();
+  }
+
+  @Override
+  public Timeseries1D parseSharedArray( final Instant startTime, final Instant endTime, final long stepSeconds, final IArray values )
+  {
+    return Timeseries1D.fromHydPy( startTime, endTime, stepSeconds, values );
+  }
 }
\ No newline at end of file
@@ -0,0 +1,719 @@
+/**
+ * Copyright (c) 2021 by
+ * - Bundesanstalt für Gewässerkunde
+ * - Björnsen Beratende Ingenieure GmbH
+ * All rights reserved.
+ *
+ * This file is Free Software under the under the terms of the
+ * GNU Lesser General Public License (LGPL >=v3)
+ * and comes with ABSOLUTELY NO WARRANTY! Check out the
+ * documentation coming with HydPy for details.
+ */
+package org.hydpy.openda.server;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Properties;
+import java.util.Set;
+
+import org.apache.commons.lang3.StringUtils;
+import org.joda.time.Instant;
+import org.joda.time.format.DateTimeFormatter;
+import org.joda.time.format.ISODateTimeFormat;
+import org.json.JSONArray;
+
+/**
+ * A fake HydPy server living inside the JVM, answering the same methods the wrapper uses with a trivial model.<br/>
+ * Allows to run and measure the wrapper without any python process, see {@link HydPyInProcessTransport}.<br/>
+ * The model consists of the configured number of item sets, each one with an item of each type:
+ * <ul>
+ * <li><code>alpha_&lt;i&gt;</code>: Double0D, a parameter</li>
+ * <li><code>sm_&lt;i&gt;</code>: Double1D, a state per element</li>
+ * <li><code>q_&lt;i&gt;.series</code>: TimeSeries0D, the result of the simulation: <code>alpha + storage + timestep</code></li>
+ * <li><code>t_&lt;i&gt;.series</code>: TimeSeries1D</li>
+ * <li><code>p_&lt;i&gt;.series.split</code>: TimeSeries1D, split into one exchange item per element</li>
+ * </ul>
+ * The storage is a condition that is not exchanged as item: the number of simulations of the instance so far. Same as in HydPy, it is only kept per instance
+ * by saving and loading its internal conditions, and written to or read from disk with the conditions (<code>conditions.properties</code>, together with the
+ * states). So it tells whether an instance was correctly restored, migrated or recovered.<br/>
+ * The time grid starts at 2000-01-01 with a step of one day.<br/>
+ * Values are exchanged as text, or in the binary encoding after 'POST_register_valueencoding' (see {@link HydPyBinaryEncoding}); values sent to the fake
+ * are accepted in both encodings.
+ *
+ * @author Gernot Belger
+ */
+final class HydPyFakeServer
+{
+  private static final String VERSION = "5.0.0"; //$NON-NLS-1$
+
+  private static final Instant FIRST_DATE = Instant.parse( "2000-01-01T00:00:00Z" ); //$NON-NLS-1$
+
+  private static final DateTimeFormatter DATE_FORMAT = ISODateTimeFormat.dateTimeNoMillis().withZoneUTC();
+
+  private static final long STEP_SECONDS = 24 * 60 * 60;
+
+  private static final String STEP_SIZE = "1d"; //$NON-NLS-1$
+
+  private static final String TYPE_DOUBLE_0D = "Double0D"; //$NON-NLS-1$
+
+  private static final String TYPE_DOUBLE_1D = "Double1D"; //$NON-NLS-1$
+
+  private static final String TYPE_TIMESERIES_0D = "TimeSeries0D"; //$NON-NLS-1$
+
+  private static final String TYPE_TIMESERIES_1D = "TimeSeries1D"; //$NON-NLS-1$
+
+  private static final String KEY_FIRST_DATE_SIM = "firstdate_sim"; //$NON-NLS-1$
+
+  private static final String KEY_LAST_DATE_SIM = "lastdate_sim"; //$NON-NLS-1$
+
+  private static final String KEY_INPUT_CONDITION_DIR = "inputconditiondir"; //$NON-NLS-1$
+
+  private static final String KEY_OUTPUT_CONDITION_DIR = "outputconditiondir"; //$NON-NLS-1$
+
+  private static final String CONDITIONS_FILE = "conditions.properties"; //$NON-NLS-1$
+
+  private static final String CONDITION_STORAGE = "storage"; //$NON-NLS-1$
+
+  /* methods of HydPy that do not change anything in the fake model */
+  private static final List<String> IGNORED_METHODS = Arrays.asList( //
+      "GET_activate_simulationdates", //
+      "GET_activate_changeitemvalues", //
+      "GET_update_conditionitemvalues", //
+      "GET_update_getitemvalues", //
+      "GET_update_inputitemvalues", //
+      "GET_update_outputitemvalues", //
+      "GET_register_initialitemvalues", //
+      "GET_register_initialparameteritemvalues", //
+      "GET_register_initialinputitemvalues", //
+      "GET_register_initialoutputitemvalues", //
+      "GET_register_initialgetitemvalues", //
+      "GET_save_controls", //
+      "POST_register_serieswriterdir", //
+      "POST_register_seriesreaderdir", //
+      "POST_register_outputcontroldir" );
+
+  /**
+   * The state of one instance of the fake model.
+   */
+  private final class Instance
+  {
+    /* time series are held for the whole initialisation time grid, 1D series element by element */
+    private final Map<String, double[]> m_values = new HashMap<>();
+
+    private int m_firstStep = 0;
+
+    private int m_lastStep = m_timesteps;
+
+    /* the storage saved by 'GET_save_internalconditions'; null if none is saved */
+    private Integer m_internalStorage = null;
+
+    private String m_inputConditionDir = null;
+
+    private String m_outputConditionDir = null;
+
+    public Instance( )
+    {
+      for( int i = 0; i < m_itemSets; i++ )
+      {
+        m_values.put( alphaId( i ), new double[] { 1.0 } );
+
+        final double[] sm = new double[m_elements];
+        Arrays.fill( sm, 1.0 );
+        m_values.put( smId( i ), sm );
+
+        m_values.put( qId( i ), new double[m_timesteps] );
+
+        m_values.put( tId( i ), new double[m_elements * m_timesteps] );
+
+        final double[] p = new double[m_elements * m_timesteps];
+        for( int element = 0; element < m_elements; element++ )
+          Arrays.fill( p, element * m_timesteps, (element + 1) * m_timesteps, element );
+        m_values.put( pId( i ), p );
+      }
+    }
+
+    /**
+     * Same as HydPy, the dates are only checked when simulating: writing the conditions registers the step after the last simulated one, which is outside of
+     * the time grid if the whole time grid was simulated.
+     */
+    public void setSimulationDates( final String firstDate, final String lastDate )
+    {
+      m_firstStep = toStep( firstDate );
+      m_lastStep = toStep( lastDate );
+    }
+
+    public String printValue( final String itemId ) throws HydPyServerException
+    {
+      if( m_binaryEncoding )
+        return printBinaryValue( itemId );
+
+      final double[] values = m_values.get( itemId );
+
+      switch( m_itemTypes.get( itemId ) )
+      {
+        case TYPE_DOUBLE_0D:
+          return Double.toString( values[0] );
+
+        case TYPE_DOUBLE_1D:
+          return HydPyUtils.printDoubleArray( values );
+
+        case TYPE_TIMESERIES_0D:
+          return HydPyUtils.printDoubleArray( Arrays.copyOfRange( values, m_firstStep, m_lastStep ) );
+
+        case TYPE_TIMESERIES_1D:
+        {
+          final StringBuilder buffer = new StringBuilder( "[" ); //$NON-NLS-1$
+          for( int element = 0; element < m_elements; element++ )
+          {
+            if( element > 0 )
+              buffer.append( ',' );
+            final int offset = element * m_timesteps;
+            buffer.append( HydPyUtils.printDoubleArray( Arrays.copyOfRange( values, offset + m_firstStep, offset + m_lastStep ) ) );
+          }
+          return buffer.append( ']' ).toString();
+        }
+
+        default:
+          throw new IllegalStateException();
+      }
+    }
+
+    private String printBinaryValue( final String itemId ) throws HydPyServerException
+    {
+      final double[] values = m_values.get( itemId );
+
+      try
+      {
+        final StringWriter writer = new StringWriter();
+
+        switch( m_itemTypes.get( itemId ) )
+        {
+          case TYPE_DOUBLE_0D:
+            HydPyBinaryEncoding.print( writer, values[0] );
+            break;
+
+          case TYPE_DOUBLE_1D:
+            HydPyBinaryEncoding.print( writer, values, values.length );
+            break;
+
+          case TYPE_TIMESERIES_0D:
+            HydPyBinaryEncoding.print( writer, Arrays.copyOfRange( values, m_firstStep, m_lastStep ), m_lastStep - m_firstStep );
+            break;
+
+          case TYPE_TIMESERIES_1D:
+          {
+            final int length = m_lastStep - m_firstStep;
+            final double[] simulated = new double[m_elements * length];
+            for( int element = 0; element < m_elements; element++ )
+              System.arraycopy( values, element * m_timesteps + m_firstStep, simulated, element * length, length );
+            HydPyBinaryEncoding.print( writer, simulated, m_elements, length );
+            break;
+          }
+
+          default:
+            throw new IllegalStateException();
+        }
+
+        return writer.toString();
+      }
+      catch( final IOException e )
+      {
+        throw new HydPyServerException( String.format( "Item '%s': failed to print binary value", itemId ), e );
+      }
+    }
+
+    public void changeValue( final String itemId, final String valueText ) throws HydPyServerException
+    {
+      final double[] values = m_values.get( itemId );
+      final double[] newValues = parseValues( itemId, valueText );
+
+      switch( m_itemTypes.get( itemId ) )
+      {
+        case TYPE_DOUBLE_0D:
+        case TYPE_DOUBLE_1D:
+          if( newValues.length != values.length )
+            throw new HydPyServerException( String.format( "Item '%s': expected %d values, got %d", itemId, values.length, newValues.length ) );
+          System.arraycopy( newValues, 0, values, 0, values.length );
+          return;
+
+        case TYPE_TIMESERIES_0D:
+          // REMARK: same as HydPy, a series may be shorter than the simulation time span
+          checkLength( itemId, newValues.length, m_timesteps - m_firstStep );
+          System.arraycopy( newValues, 0, values, m_firstStep, newValues.length );
+          return;
+
+        case TYPE_TIMESERIES_1D:
+        {
+          final int length = newValues.length / m_elements;
+          if( length * m_elements != newValues.length )
+            throw new HydPyServerException( String.format( "Item '%s': expected %d elements", itemId, m_elements ) );
+          checkLength( itemId, length, m_timesteps - m_firstStep );
+          for( int element = 0; element < m_elements; element++ )
+            System.arraycopy( newValues, element * length, values, element * m_timesteps + m_firstStep, length );
+          return;
+        }
+
+        default:
+          throw new IllegalStateException();
+      }
+    }
+
+    private double[] parseValues( final String itemId, final String valueText ) throws HydPyServerException
+    {
+      if( !HydPyBinaryEncoding.isEncoded( valueText ) )
+        return HydPyUtils.parseDoubleArray( valueText );
+
+      switch( m_itemTypes.get( itemId ) )
+      {
+        case TYPE_DOUBLE_0D:
+          return new double[] { HydPyBinaryEncoding.parseDouble( valueText ) };
+
+        case TYPE_DOUBLE_1D:
+        case TYPE_TIMESERIES_0D:
+          return HydPyBinaryEncoding.parseDoubleArray( valueText );
+
+        case TYPE_TIMESERIES_1D:
+          return HydPyBinaryEncoding.parseArray2D( valueText ).getValuesAsDoubles( false );
+
+        default:
+          throw new IllegalStateException();
+      }
+    }
+
+    private void checkLength( final String itemId, final int length, final int maxLength ) throws HydPyServerException
+    {
+      if( length > maxLength )
+        throw new HydPyServerException( String.format( "Item '%s': expected at most %d values, got %d", itemId, maxLength, length ) );
+    }
+
+    public void simulate( ) throws HydPyServerException
+    {
+      if( m_firstStep < 0 || m_lastStep > m_timesteps || m_firstStep > m_lastStep )
+        throw new HydPyServerException( String.format( "Simulation dates outside of initialisation time grid: %s - %s", getFirstDate(), getLastDate() ) );
+
+      for( int i = 0; i < m_itemSets; i++ )
+      {
+        final double alpha = m_values.get( alphaId( i ) )[0];
+        final double[] q = m_values.get( qId( i ) );
+        for( int step = m_firstStep; step < m_lastStep; step++ )
+          q[step] = alpha + m_storage + step;
+      }
+
+      m_storage++;
+    }
+
+    public void saveConditions( ) throws HydPyServerException
+    {
+      if( m_outputConditionDir == null )
+        throw new HydPyServerException( "No output condition directory registered" );
+
+      final Properties conditions = new Properties();
+      conditions.setProperty( CONDITION_STORAGE, Integer.toString( m_storage ) );
+      for( int i = 0; i < m_itemSets; i++ )
+        conditions.setProperty( smId( i ), HydPyUtils.printDoubleArray( m_values.get( smId( i ) ) ) );
+
+      final Path file = Paths.get( m_outputConditionDir, CONDITIONS_FILE );
+      try( final Writer writer = Files.newBufferedWriter( file, StandardCharsets.UTF_8 ) )
+      {
+        conditions.store( writer, null );
+      }
+      catch( final IOException e )
+      {
+        throw new HydPyServerException( String.format( "Failed to write conditions: %s", file ), e );
+      }
+    }
+
+    public void loadConditions( ) throws HydPyServerException
+    {
+      if( m_inputConditionDir == null )
+        throw new HydPyServerException( "No input condition directory registered" );
+
+      final Path file = Paths.get( m_inputConditionDir, CONDITIONS_FILE );
+      final Properties conditions = new Properties();
+      try( final Reader reader = Files.newBufferedReader( file, StandardCharsets.UTF_8 ) )
+      {
+        conditions.load( reader );
+      }
+      catch( final IOException e )
+      {
+        throw new HydPyServerException( String.format( "Failed to read conditions: %s", file ), e );
+      }
+
+      m_storage = Integer.parseInt( conditions.getProperty( CONDITION_STORAGE ) );
+      for( int i = 0; i < m_itemSets; i++ )
+        changeValue( smId( i ), conditions.getProperty( smId( i ) ) );
+    }
+
+    public String getFirstDate( )
+    {
+      return printDate( m_firstStep );
+    }
+
+    public String getLastDate( )
+    {
+      return printDate( m_lastStep );
+    }
+  }
+
+  private final Map<String, Instance> m_instances = new HashMap<>();
+
+  /* sorted by creation, so responses are always in the same order */
+  private final Map<String, String> m_itemTypes = new LinkedHashMap<>();
+
+  private final Map<String, String> m_itemSubnames = new LinkedHashMap<>();
+
+  private final int m_itemSets;
+
+  private final int m_elements;
+
+  private final int m_timesteps;
+
+  private final int m_simulateMillis;
+
+  /* set by 'POST_register_valueencoding', for all instances as in HydPy */
+  private boolean m_binaryEncoding = false;
+
+  /* number of instances whose methods were executed together with other instances in one 'execute_batch' call */
+  private int m_batchedInstances = 0;
+
+  /* the hidden condition of the model, see class comment; same as in HydPy, there is only one model whose conditions are switched per instance */
+  private int m_storage = 0;
+
+  /* the instances still registered when the server was closed; null while it is running */
+  private Set<String> m_instancesAtClose = null;
+
+  /* number of calls until the server crashes, see #crashAfterCalls; negative if it never crashes */
+  private int m_remainingCalls = -1;
+
+  /* the next call of this method fails, see #failNextCall */
+  private String m_failingMethod = null;
+
+  public HydPyFakeServer( final int itemSets, final int elements, final int timesteps, final int simulateMillis )
+  {
+    m_itemSets = itemSets;
+    m_elements = elements;
+    m_timesteps = timesteps;
+    m_simulateMillis = simulateMillis;
+
+    final List<String> elementNames = new ArrayList<>( elements );
+    for( int element = 0; element < elements; element++ )
+      elementNames.add( "e" + element ); //$NON-NLS-1$
+    final String elementSubnames = new JSONArray( elementNames ).toString();
+
+    for( int i = 0; i < itemSets; i++ )
+    {
+      addItem( alphaId( i ), TYPE_DOUBLE_0D, alphaId( i ) );
+      addItem( smId( i ), TYPE_DOUBLE_1D, elementSubnames );
+      addItem( qId( i ), TYPE_TIMESERIES_0D, qId( i ) );
+      addItem( tId( i ), TYPE_TIMESERIES_1D, elementSubnames );
+      addItem( pId( i ), TYPE_TIMESERIES_1D, elementSubnames );
+    }
+  }
+
+  private void addItem( final String id, final String type, final String subnames )
+  {
+    m_itemTypes.put( id, type );
+    m_itemSubnames.put( id, subnames );
+  }
+
+  private static String alphaId( final int index )
+  {
+    return "alpha_" + index; //$NON-NLS-1$
+  }
+
+  private static String smId( final int index )
+  {
+    return "sm_" + index; //$NON-NLS-1$
+  }
+
+  private static String qId( final int index )
+  {
+    return String.format( "q_%d.series", index ); //$NON-NLS-1$
+  }
+
+  private static String tId( final int index )
+  {
+    return String.format( "t_%d.series", index ); //$NON-NLS-1$
+  }
+
+  private static String pId( final int index )
+  {
+    return String.format( "p_%d.series.split", index ); //$NON-NLS-1$
+  }
+
+  private int toStep( final String date )
+  {
+    final Instant instant = Instant.parse( date );
+    return (int)((instant.getMillis() - FIRST_DATE.getMillis()) / (STEP_SECONDS * 1000));
+  }
+
+  private String printDate( final int step )
+  {
+    return DATE_FORMAT.print( FIRST_DATE.plus( step * STEP_SECONDS * 1000 ) );
+  }
+
+  public synchronized boolean isBinaryEncoding( )
+  {
+    return m_binaryEncoding;
+  }
+
+  public synchronized int getBatchedInstances( )
+  {
+    return m_batchedInstances;
+  }
+
+  /**
+   * @return The ids of the instances whose internal conditions were not yet deregistered (e.g. by exporting them) when the server was closed; <code>null</code> if
+   *         it is not closed.
+   */
+  public synchronized Set<String> getInstancesAtClose( )
+  {
+    return m_instancesAtClose;
+  }
+
+  /**
+   * Simulates a crash of the process: after the given number of calls, this and all following calls fail to communicate, so the wrapper has to respawn the
+   * server.
+   */
+  public synchronized void crashAfterCalls( final int calls )
+  {
+    m_remainingCalls = calls;
+  }
+
+  /**
+   * Lets the next call of the given method fail, same as if HydPy had answered with an error code.
+   */
+  public synchronized void failNextCall( final String method )
+  {
+    m_failingMethod = method;
+  }
+
+  /**
+   * Answers one call, same as the http server of HydPy.
+   *
+   * @param body
+   *          <code>null</code> for a GET call.
+   * @return The response, in the order in which HydPy would write it.
+   * @throws HydPyServerException
+   *           If HydPy would answer with an error code.
+   * @throws IOException
+   *           If the server has crashed, see {@link #crashAfterCalls(int)}.
+   */
+  public synchronized Map<String, String> call( final String path, final String instanceId, final String methods, final Map<String, String> body ) throws HydPyServerException, IOException
+  {
+    if( m_remainingCalls == 0 )
+      throw new IOException( "Simulated crash of the HydPy server" );
+    if( m_remainingCalls > 0 )
+      m_remainingCalls--;
+
+    /* the real process has terminated */
+    if( m_instancesAtClose != null )
+      throw new HydPyServerException( String.format( "Call of `%s` after the server was closed", path ) );
+
+    switch( path )
+    {
+      case HydPyServerClient.PATH_VERSION:
+        return Collections.singletonMap( "version", VERSION ); //$NON-NLS-1$
+
+      case HydPyServerClient.PATH_STATUS:
+        return Collections.singletonMap( "status", "ready" ); //$NON-NLS-1$ //$NON-NLS-2$
+
+      case HydPyServerClient.PATH_CLOSE_SERVER:
+        m_instancesAtClose = new HashSet<>();
+        for( final Entry<String, Instance> entry : m_instances.entrySet() )
+        {
+          if( entry.getValue().m_internalStorage != null )
+            m_instancesAtClose.add( entry.getKey() );
+        }
+        m_instances.clear();
+        return Collections.emptyMap();
+
+      case HydPyServerClient.PATH_EXECUTE:
+        return execute( instanceId, methods, body );
+
+      case HydPyServerClient.PATH_EXECUTE_BATCH:
+        return executeBatch( instanceId, methods, body );
+
+      default:
+        throw new HydPyServerException( String.format( "No GET method `%s` available", path ) );
+    }
+  }
+
+  private Map<String, String> executeBatch( final String instanceIds, final String methods, final Map<String, String> body ) throws HydPyServerException
+  {
+    final Map<String, String> response = new LinkedHashMap<>();
+
+    final String[] ids = StringUtils.split( StringUtils.defaultString( instanceIds ), ',' );
+    if( ids.length > 1 )
+      m_batchedInstances += ids.length;
+
+    for( final String instanceId : ids )
+    {
+      final String prefix = instanceId + '/';
+
+      Map<String, String> instanceBody = null;
+      if( body != null )
+      {
+        instanceBody = new HashMap<>();
+        for( final Entry<String, String> entry : body.entrySet() )
+        {
+          if( entry.getKey().startsWith( prefix ) )
+            instanceBody.put( entry.getKey().substring( prefix.length() ), entry.getValue() );
+        }
+      }
+
+      for( final Entry<String, String> entry : execute( instanceId, methods, instanceBody ).entrySet() )
+        response.put( prefix + entry.getKey(), entry.getValue() );
+    }
+
+    return response;
+  }
+
+  private Map<String, String> execute( final String instanceId, final String methods, final Map<String, String> body ) throws HydPyServerException
+  {
+    final Instance instance = m_instances.computeIfAbsent( instanceId, id -> new Instance() );
+
+    final Map<String, String> response = new LinkedHashMap<>();
+
+    for( final String method : StringUtils.split( StringUtils.defaultString( methods ), ',' ) )
+    {
+      if( method.startsWith( "POST_" ) && body == null ) //$NON-NLS-1$
+        throw new HydPyServerException( String.format( "Method `%s` needs a POST call", method ) );
+
+      if( method.equals( m_failingMethod ) )
+      {
+        m_failingMethod = null;
+        throw new HydPyServerException( String.format( "Simulated failure of method `%s`", method ) );
+      }
+
+      switch( method )
+      {
+        case "GET_query_itemtypes": //$NON-NLS-1$
+          response.putAll( m_itemTypes );
+          break;
+
+        case "GET_query_itemsubnames": //$NON-NLS-1$
+          response.putAll( m_itemSubnames );
+          break;
+
+        case "GET_query_initialisationtimegrid": //$NON-NLS-1$
+          response.put( "firstdate_init", printDate( 0 ) ); //$NON-NLS-1$
+          response.put( "lastdate_init", printDate( m_timesteps ) ); //$NON-NLS-1$
+          response.put( "stepsize", STEP_SIZE ); //$NON-NLS-1$
+          break;
+
+        case "POST_register_simulationdates": //$NON-NLS-1$
+          instance.setSimulationDates( getRequired( body, KEY_FIRST_DATE_SIM ), getRequired( body, KEY_LAST_DATE_SIM ) );
+          break;
+
+        case "GET_query_simulationdates": //$NON-NLS-1$
+          response.put( KEY_FIRST_DATE_SIM, instance.getFirstDate() );
+          response.put( KEY_LAST_DATE_SIM, instance.getLastDate() );
+          break;
+
+        case "GET_query_itemvalues": //$NON-NLS-1$
+          for( final String itemId : m_itemTypes.keySet() )
+            response.put( itemId, instance.printValue( itemId ) );
+          break;
+
+        case "POST_register_changeitemvalues": //$NON-NLS-1$
+          for( final String itemId : m_itemTypes.keySet() )
+          {
+            final String value = body.get( itemId );
+            if( value != null )
+              instance.changeValue( itemId, value );
+          }
+          break;
+
+        case "POST_register_valueencoding": //$NON-NLS-1$
+        {
+          final String encoding = getRequired( body, HydPyBinaryEncoding.ARGUMENT_VALUEENCODING );
+          if( !HydPyBinaryEncoding.VALUE_ENCODING.equals( encoding ) )
+            throw new HydPyServerException( String.format( "Unsupported value encoding `%s`", encoding ) );
+          m_binaryEncoding = true;
+          break;
+        }
+
+        case "POST_register_inputconditiondir": //$NON-NLS-1$
+          instance.m_inputConditionDir = getRequired( body, KEY_INPUT_CONDITION_DIR );
+          break;
+
+        case "POST_register_outputconditiondir": //$NON-NLS-1$
+          instance.m_outputConditionDir = getRequired( body, KEY_OUTPUT_CONDITION_DIR );
+          break;
+
+        case "GET_load_conditions": //$NON-NLS-1$
+          instance.loadConditions();
+          break;
+
+        case "GET_save_conditions": //$NON-NLS-1$
+          instance.saveConditions();
+          break;
+
+        case "GET_save_internalconditions": //$NON-NLS-1$
+          instance.m_internalStorage = m_storage;
+          break;
+
+        case "GET_load_internalconditions": //$NON-NLS-1$
+          /* the initial conditions, if the instance has not saved any yet */
+          m_storage = instance.m_internalStorage == null ? 0 : instance.m_internalStorage;
+          break;
+
+        case "GET_deregister_internalconditions": //$NON-NLS-1$
+          instance.m_internalStorage = null;
+          break;
+
+        case "GET_simulate": //$NON-NLS-1$
+          instance.simulate();
+          simulateLatency( instance.m_lastStep - instance.m_firstStep );
+          break;
+
+        default:
+          if( !IGNORED_METHODS.contains( method ) )
+            throw new HydPyServerException( String.format( "No method `%s` available", method ) );
+          break;
+      }
+    }
+
+    return response;
+  }
+
+  private static String getRequired( final Map<String, String> body, final String key ) throws HydPyServerException
+  {
+    final String value = body.get( key );
+    if( value == null )
+      throw new HydPyServerException( String.format( "Missing argument `%s`", key ) );
+    return value;
+  }
+
+  private void simulateLatency( final int steps )
+  {
+    if( m_simulateMillis <= 0 || steps <= 0 )
+      return;
+
+    try
+    {
+      // REMARK: blocks all other calls, same as the single-threaded HydPy server
+      Thread.sleep( (long)m_simulateMillis * steps );
+    }
+    catch( final InterruptedException e )
+    {
+      Thread.currentThread().interrupt();
+    }
+  }
+}
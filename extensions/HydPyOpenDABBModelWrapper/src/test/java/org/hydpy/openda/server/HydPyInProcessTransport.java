@@ -0,0 +1,136 @@
+/**
+ * Copyright (c) 2021 by
+ * - Bundesanstalt für Gewässerkunde
+ * - Björnsen Beratende Ingenieure GmbH
+ * All rights reserved.
+ *
+ * This file is Free Software under the under the terms of the
+ * GNU Lesser General Public License (LGPL >=v3)
+ * and comes with ABSOLUTELY NO WARRANTY! Check out the
+ * documentation coming with HydPy for details.
+ */
+package org.hydpy.openda.server;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.commons.io.output.NullPrintStream;
+import org.apache.commons.lang3.StringUtils;
+
+/**
+ * Transports the calls to a {@link HydPyFakeServer} inside the same JVM, e.g. to test or measure the wrapper without any HydPy process, see {@link IHydPyTransportFactory}.<br/>
+ * Bodies and responses are still encoded and decoded as text, so the costs on the side of the wrapper stay the same as with a real server.
+ *
+ * @author Gernot Belger
+ */
+final class HydPyInProcessTransport implements IHydPyTransport
+{
+  private final AtomicLong m_calls = new AtomicLong();
+
+  private final AtomicLong m_requestBytes = new AtomicLong();
+
+  private final AtomicLong m_responseBytes = new AtomicLong();
+
+  private final HydPyFakeServer m_server;
+
+  private final PrintStream m_debugOut;
+
+  /* the body is only logged if someone really listens, as it is potentially very big */
+  private final boolean m_logBody;
+
+  public HydPyInProcessTransport( final HydPyFakeServer server, final PrintStream debugOut )
+  {
+    m_server = server;
+    m_debugOut = debugOut;
+    m_logBody = !(debugOut instanceof NullPrintStream);
+  }
+
+  @Override
+  public void call( final String path, final String instanceId, final String methods, final HydPyRequestBody body, final int timeoutMillis, final IHydPyResponseHandler handler ) throws HydPyServerException
+  {
+    m_debugOut.format( "Calling %s %s?id=%s&methods=%s%n", body == null ? "GET" : "POST", path, instanceId, methods );
+    if( body != null && m_logBody )
+      m_debugOut.println( body );
+
+    try
+    {
+      final Map<String, String> arguments = body == null ? null : decodeBody( body );
+
+      final Map<String, String> response = m_server.call( path, instanceId, methods, arguments );
+
+      final String content = encodeResponse( response );
+      m_calls.incrementAndGet();
+      m_responseBytes.addAndGet( content.length() );
+
+      m_debugOut.println( "Received from HydPy Server:" );
+
+      final HydPyResponseDecoder decoder = new HydPyResponseDecoder( new StringReader( content ) );
+      decoder.decode( handler );
+    }
+    catch( final IOException e )
+    {
+      throw new HydPyServerException( "Failed to communicate with in-process HydPy-Server", e );
+    }
+  }
+
+  @Override
+  public CompletableFuture<Void> callAsync( final String path, final String instanceId, final String methods, final HydPyRequestBody body, final int timeoutMillis, final IHydPyResponseHandler handler )
+  {
+    // REMARK: there is nothing to wait for, so we simply call in the current thread
+    try
+    {
+      call( path, instanceId, methods, body, timeoutMillis, handler );
+      return CompletableFuture.completedFuture( null );
+    }
+    catch( final HydPyServerException e )
+    {
+      return HydPyUtils.failedFuture( e );
+    }
+  }
+
+  private Map<String, String> decodeBody( final HydPyRequestBody body ) throws IOException
+  {
+    final byte[] bytes = body.toBytes();
+    m_requestBytes.addAndGet( bytes.length );
+
+    final Map<String, String> arguments = new HashMap<>();
+
+    for( final String line : StringUtils.split( new String( bytes, StandardCharsets.UTF_8 ), "\r\n" ) ) //$NON-NLS-1$
+    {
+      final int separator = line.indexOf( '=' );
+      if( separator != -1 )
+        arguments.put( line.substring( 0, separator ).trim(), line.substring( separator + 1 ).trim() );
+    }
+
+    return arguments;
+  }
+
+  private static String encodeResponse( final Map<String, String> response )
+  {
+    final StringBuilder buffer = new StringBuilder();
+
+    for( final Entry<String, String> entry : response.entrySet() )
+      buffer.append( entry.getKey() ).append( " = " ).append( entry.getValue() ).append( '\n' ); //$NON-NLS-1$
+
+    return buffer.toString();
+  }
+
+  @Override
+  public String getStatistics( )
+  {
+    return String.format( "%d calls in-process, %d request bytes, %d response chars", m_calls.get(), m_requestBytes.get(), m_responseBytes.get() );
+  }
+
+  @Override
+  public void close( )
+  {
+    /* nothing to do */
+  }
+}
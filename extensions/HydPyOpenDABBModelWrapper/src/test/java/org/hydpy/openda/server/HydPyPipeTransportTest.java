@@ -0,0 +1,267 @@
+/**
+ * Copyright (c) 2021 by
+ * - Bundesanstalt für Gewässerkunde
+ * - Björnsen Beratende Ingenieure GmbH
+ * All rights reserved.
+ *
+ * This file is Free Software under the under the terms of the
+ * GNU Lesser General Public License (LGPL >=v3)
+ * and comes with ABSOLUTELY NO WARRANTY! Check out the
+ * documentation coming with HydPy for details.
+ */
+package org.hydpy.openda.server;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PipedInputStream;
+import java.io.PipedOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.io.output.NullPrintStream;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests the framing of {@link HydPyPipeTransport} against an echo server that is connected via piped streams instead of a real HydPy process.<br/>
+ * The echo server answers every request with the key 'request' (the request line) followed by the unchanged body of the request.
+ * Requests whose path contains 'fail' are answered with status 500.
+ *
+ * @author Gernot Belger
+ */
+public class HydPyPipeTransportTest
+{
+  private static final int PIPE_SIZE = 64 * 1024;
+
+  /**
+   * Fake process whose stdin/stdout are connected to the echo server.
+   */
+  private static final class PipedProcess extends Process
+  {
+    private final OutputStream m_stdin;
+
+    private final InputStream m_stdout;
+
+    public PipedProcess( final OutputStream stdin, final InputStream stdout )
+    {
+      m_stdin = stdin;
+      m_stdout = stdout;
+    }
+
+    @Override
+    public OutputStream getOutputStream( )
+    {
+      return m_stdin;
+    }
+
+    @Override
+    public InputStream getInputStream( )
+    {
+      return m_stdout;
+    }
+
+    @Override
+    public InputStream getErrorStream( )
+    {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public int waitFor( )
+    {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public int exitValue( )
+    {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public void destroy( )
+    {
+      throw new UnsupportedOperationException();
+    }
+  }
+
+  private Thread m_server;
+
+  private HydPyPipeTransport m_transport;
+
+  /* number of requests the echo server answers before it closes its stdout */
+  private volatile int m_remainingAnswers = Integer.MAX_VALUE;
+
+  @Before
+  public void startEchoServer( ) throws IOException
+  {
+    final PipedOutputStream stdin = new PipedOutputStream();
+    final PipedInputStream serverIn = new PipedInputStream( stdin, PIPE_SIZE );
+
+    final PipedOutputStream serverOut = new PipedOutputStream();
+    final PipedInputStream stdout = new PipedInputStream( serverOut, PIPE_SIZE );
+
+    m_server = new Thread( ( ) -> runEchoServer( new DataInputStream( serverIn ), new DataOutputStream( serverOut ) ), "HydPyPipeTransportTest echo server" ); //$NON-NLS-1$
+    m_server.setDaemon( true );
+    m_server.start();
+
+    m_transport = new HydPyPipeTransport( new PipedProcess( stdin, stdout ), NullPrintStream.NULL_PRINT_STREAM );
+  }
+
+  @After
+  public void stopEchoServer( ) throws InterruptedException
+  {
+    m_transport.close();
+    m_server.join( 10000 );
+  }
+
+  private void runEchoServer( final DataInputStream requests, final DataOutputStream responses )
+  {
+    // REMARK: not a try-with-resources, as a simulated crash closes the responses while the requests are still read
+    boolean crashed = false;
+    try
+    {
+      while( true )
+      {
+        final int length = requests.readInt();
+        final byte[] frame = new byte[length];
+        requests.readFully( frame );
+
+        /* simulates a crashed process: no more answers, but stdin is still read so the transport can close it */
+        if( m_remainingAnswers-- <= 0 )
+        {
+          if( !crashed )
+            responses.close();
+          crashed = true;
+          continue;
+        }
+
+        final String request = new String( frame, StandardCharsets.UTF_8 );
+        final int lineEnd = request.indexOf( '\n' );
+        final String requestLine = request.substring( 0, lineEnd );
+        final String body = request.substring( lineEnd + 1 );
+
+        final boolean failed = requestLine.contains( "fail" ); //$NON-NLS-1$
+        final String response = failed ? "error=simulated failure\n" : "request=" + requestLine + '\n' + body; //$NON-NLS-1$ //$NON-NLS-2$
+        final byte[] content = response.getBytes( StandardCharsets.UTF_8 );
+
+        responses.writeInt( failed ? 500 : 200 );
+        responses.writeInt( content.length );
+        responses.write( content );
+        responses.flush();
+      }
+    }
+    catch( final EOFException e )
+    {
+      /* stdin was closed, the normal end of the server */
+    }
+    catch( final IOException e )
+    {
+      e.printStackTrace();
+    }
+    finally
+    {
+      if( !crashed )
+        IOUtils.closeQuietly( responses );
+    }
+  }
+
+  private Map<String, String> call( final String path, final String instanceId, final String methods, final HydPyRequestBody body )
+  {
+    final Map<String, String> values = new LinkedHashMap<>();
+    m_transport.call( path, instanceId, methods, body, 0, ( key, value ) -> values.put( key, value.toString() ) );
+    return values;
+  }
+
+  @Test
+  public void getRequest( )
+  {
+    final Map<String, String> response = call( "/query_itemtypes", null, null, null ); //$NON-NLS-1$
+
+    assertEquals( 1, response.size() );
+    assertEquals( "GET /query_itemtypes", response.get( "request" ) ); //$NON-NLS-1$ //$NON-NLS-2$
+  }
+
+  @Test
+  public void postRequestWithParameters( )
+  {
+    final HydPyRequestBody body = new HydPyRequestBody();
+    body.add( "firstdate_sim", "2000-01-01T00:00:00" ); //$NON-NLS-1$ //$NON-NLS-2$
+    body.add( "q", writer -> writer.write( HydPyUtils.printDoubleArray( new double[] { 1.5, Double.NaN, -3.0 } ) ) ); //$NON-NLS-1$
+
+    final Map<String, String> response = call( "/execute", "3", "POST_register_simulationdates,GET_simulate", body ); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+
+    assertEquals( "POST /execute?id=3&methods=POST_register_simulationdates%2CGET_simulate", response.get( "request" ) ); //$NON-NLS-1$ //$NON-NLS-2$
+    assertEquals( "2000-01-01T00:00:00", response.get( "firstdate_sim" ) ); //$NON-NLS-1$ //$NON-NLS-2$
+    assertEquals( "[1.5,nan,-3.0]", response.get( "q" ) ); //$NON-NLS-1$ //$NON-NLS-2$
+  }
+
+  @Test
+  public void framesStayInSync( )
+  {
+    // REMARK: bigger than the read buffers of the transport and the decoder, and multi byte characters, so byte and char lengths differ
+    final StringBuilder big = new StringBuilder();
+    for( int i = 0; i < 20000; i++ )
+      big.append( 'ä' );
+
+    for( int i = 0; i < 10; i++ )
+    {
+      final HydPyRequestBody body = new HydPyRequestBody();
+      body.add( "big", big.toString() ); //$NON-NLS-1$
+      body.add( "index", Integer.toString( i ) ); //$NON-NLS-1$
+
+      final Map<String, String> response = call( "/execute", Integer.toString( i ), null, body ); //$NON-NLS-1$
+
+      assertEquals( "POST /execute?id=" + i, response.get( "request" ) ); //$NON-NLS-1$ //$NON-NLS-2$
+      assertEquals( big.toString(), response.get( "big" ) ); //$NON-NLS-1$
+      assertEquals( Integer.toString( i ), response.get( "index" ) ); //$NON-NLS-1$
+    }
+  }
+
+  @Test
+  public void invalidStatusConsumesFrame( )
+  {
+    try
+    {
+      call( "/fail", null, null, null ); //$NON-NLS-1$
+      fail( "expected invalid status" ); //$NON-NLS-1$
+    }
+    catch( final HydPyServerException e )
+    {
+      assertTrue( e.getMessage(), e.getMessage().contains( "500" ) ); //$NON-NLS-1$
+    }
+
+    /* the next call must start at the next frame */
+    final Map<String, String> response = call( "/status", null, null, null ); //$NON-NLS-1$
+    assertEquals( "GET /status", response.get( "request" ) ); //$NON-NLS-1$ //$NON-NLS-2$
+  }
+
+  @Test
+  public void closedPipeFailsCall( )
+  {
+    m_remainingAnswers = 1;
+
+    call( "/status", null, null, null ); //$NON-NLS-1$
+
+    try
+    {
+      call( "/status", null, null, null ); //$NON-NLS-1$
+      fail( "expected closed pipe" ); //$NON-NLS-1$
+    }
+    catch( final HydPyServerException e )
+    {
+      assertTrue( e.getCause() instanceof IOException );
+    }
+  }
+}
@@ -0,0 +1,321 @@
+/**
+ * Copyright (c) 2021 by
+ * - Bundesanstalt für Gewässerkunde
+ * - Björnsen Beratende Ingenieure GmbH
+ * All rights reserved.
+ *
+ * This file is Free Software under the under the terms of the
+ * GNU Lesser General Public License (LGPL >=v3)
+ * and comes with ABSOLUTELY NO WARRANTY! Check out the
+ * documentation coming with HydPy for details.
+ */
+package org.hydpy.openda.server;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.stream.Collectors;
+
+import org.hydpy.openda.HydPyInstanceConfiguration;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.openda.interfaces.IExchangeItem;
+
+/**
+ * Runs the complete wrapper (manager, server instances and caller) against {@link HydPyFakeServer}s inside the JVM, so no python is needed.<br/>
+ * Same as in production, the managers are finished by their shutdown hook when the JVM exits.
+ *
+ * @author Gernot Belger
+ */
+public class HydPyServerManagerTest
+{
+  private static final int TIMESTEPS = 10;
+
+  private static final int ELEMENTS = 3;
+
+  @Rule
+  public final TemporaryFolder m_tempFolder = new TemporaryFolder();
+
+  private File m_workingDir;
+
+  private File m_configFile;
+
+  /* the configuration of the manager, tests may change it before calling #createManager */
+  private Properties m_args;
+
+  /* the latency of the fake servers per simulated time step */
+  private int m_simulateMillis = 0;
+
+  /* if not negative, the first fake server crashes after this number of calls */
+  private int m_crashAfterCalls = -1;
+
+  /* all fake servers created by the manager */
+  private final List<HydPyFakeServer> m_servers = new CopyOnWriteArrayList<>();
+
+  @Before
+  public void createConfiguration( ) throws IOException
+  {
+    m_workingDir = m_tempFolder.getRoot();
+    final File modelDir = m_tempFolder.newFolder( "model" ); //$NON-NLS-1$
+    m_configFile = m_tempFolder.newFile( "model/config.xml" ); //$NON-NLS-1$
+
+    m_args = new Properties();
+    m_args.setProperty( "serverPort", "8080" ); //$NON-NLS-1$ //$NON-NLS-2$
+    m_args.setProperty( "serverInstances", "2" ); //$NON-NLS-1$ //$NON-NLS-2$
+    m_args.setProperty( "initializeWaitSeconds", "10" ); //$NON-NLS-1$ //$NON-NLS-2$
+    m_args.setProperty( "projectPath", modelDir.getAbsolutePath() ); //$NON-NLS-1$
+    m_args.setProperty( "projectName", "fake" ); //$NON-NLS-1$ //$NON-NLS-2$
+    m_args.setProperty( "configFile", m_configFile.getAbsolutePath() ); //$NON-NLS-1$
+  }
+
+  private HydPyServerManager createManager( )
+  {
+    final Path workingDir = m_workingDir.toPath();
+    final HydPyServerConfiguration config = new HydPyServerConfiguration( workingDir, m_args );
+    final HydPyInstanceConfiguration instanceDirs = HydPyInstanceConfiguration.read( m_workingDir, m_args );
+
+    final IHydPyTransportFactory transportFactory = ( serverName, debugOut ) -> {
+      final HydPyFakeServer server = new HydPyFakeServer( 1, ELEMENTS, TIMESTEPS, m_simulateMillis );
+      if( m_crashAfterCalls >= 0 && m_servers.isEmpty() )
+        server.crashAfterCalls( m_crashAfterCalls );
+      m_servers.add( server );
+      return new HydPyInProcessTransport( server, debugOut );
+    };
+    return new HydPyServerManager( config, instanceDirs, m_configFile.toPath(), transportFactory );
+  }
+
+  @Test
+  public void itemsOfFakeModel( )
+  {
+    final HydPyServerManager manager = createManager();
+
+    final HydPyModelInstance instance = manager.getOrCreateInstance( HydPyServerManager.ANY_INSTANCE, null );
+
+    final List<String> itemIds = instance.getItems().stream() //
+        .map( HydPyExchangeItemDescription::getId ) //
+        .collect( Collectors.toList() );
+
+    assertTrue( itemIds.toString(), itemIds.contains( "alpha_0" ) ); //$NON-NLS-1$
+    assertTrue( itemIds.toString(), itemIds.contains( "q_0.series" ) ); //$NON-NLS-1$
+  }
+
+  @Test
+  public void simulateEnsemble( )
+  {
+    simulateAndCheckEnsemble( createManager(), 4 );
+  }
+
+  @Test
+  public void simulateEnsembleBinaryEncoding( )
+  {
+    m_args.setProperty( "serverBinaryEncoding", "true" ); //$NON-NLS-1$ //$NON-NLS-2$
+
+    simulateAndCheckEnsemble( createManager(), 4 );
+
+    assertFalse( m_servers.isEmpty() );
+    for( final HydPyFakeServer server : m_servers )
+      assertTrue( server.isBinaryEncoding() );
+  }
+
+  @Test
+  public void simulateEnsembleInBatches( )
+  {
+    m_args.setProperty( "serverBatchSize", "4" ); //$NON-NLS-1$ //$NON-NLS-2$
+
+    simulateAndCheckEnsemble( createManager(), 8 );
+
+    /* the results above are per member, so the responses of the batches were correctly split */
+    final int batchedInstances = m_servers.stream().mapToInt( HydPyFakeServer::getBatchedInstances ).sum();
+    assertTrue( "no calls were batched", batchedInstances > 0 ); //$NON-NLS-1$
+  }
+
+  @Test
+  public void migratedInstancesKeepTheirState( )
+  {
+    /* an elastic pool that grows as soon as simulations are queued and shrinks as soon as the instances are idle */
+    m_args.setProperty( "serverMinInstances", "1" ); //$NON-NLS-1$ //$NON-NLS-2$
+    m_args.setProperty( "serverScaleUpQueueDepth", "1" ); //$NON-NLS-1$ //$NON-NLS-2$
+    m_args.setProperty( "serverScaleDownQueueDepth", "0" ); //$NON-NLS-1$ //$NON-NLS-2$
+    m_args.setProperty( "serverScaleDownDelaySeconds", "0" ); //$NON-NLS-1$ //$NON-NLS-2$
+    m_args.setProperty( "serverMigrationThreshold", "1" ); //$NON-NLS-1$ //$NON-NLS-2$
+    m_simulateMillis = 5;
+
+    final HydPyServerManager manager = createManager();
+
+    final int members = 8;
+    final List<HydPyModelInstance> instances = new ArrayList<>();
+    for( int member = 0; member < members; member++ )
+      instances.add( manager.getOrCreateInstance( Integer.toString( member ), m_workingDir ) );
+
+    /* only the first run sets the parameters, the following runs must still see them and the conditions after the instances were migrated */
+    for( int run = 0; run < 10 && findClosedServer() == null; run++ )
+    {
+      for( int member = 0; member < members; member++ )
+      {
+        final HydPyModelInstance instance = instances.get( member );
+
+        final List<IExchangeItem> values = instance.getItemValues();
+        if( run == 0 )
+          indexById( values ).get( "alpha_0" ).setValuesAsDoubles( new double[] { 10.0 * member } ); //$NON-NLS-1$
+        instance.setItemValues( values );
+
+        // REMARK: simulating directly after setting the values, so the next instances are rebalanced while the simulations are queued
+        instance.simulate();
+      }
+
+      for( int member = 0; member < members; member++ )
+        checkSimulated( instances.get( member ), 10.0 * member, run );
+    }
+
+    /* the process was drained, so all its instances had been exported before it was closed */
+    final HydPyFakeServer closed = findClosedServer();
+    assertNotNull( "no process was drained", closed ); //$NON-NLS-1$
+    for( int member = 0; member < members; member++ )
+      assertFalse( closed.getInstancesAtClose().contains( Integer.toString( member ) ) );
+  }
+
+  private HydPyFakeServer findClosedServer( )
+  {
+    return m_servers.stream() //
+        .filter( server -> server.getInstancesAtClose() != null ) //
+        .findFirst() //
+        .orElse( null );
+  }
+
+  @Test
+  public void crashedServerIsRecovered( )
+  {
+    m_args.setProperty( "serverInstances", "1" ); //$NON-NLS-1$ //$NON-NLS-2$
+    m_args.setProperty( "serverRespawnLimit", "1" ); //$NON-NLS-1$ //$NON-NLS-2$
+    m_args.setProperty( "serverCheckpointInterval", "3" ); //$NON-NLS-1$ //$NON-NLS-2$
+    /* in the middle of the runs, between two checkpoints */
+    m_crashAfterCalls = 40;
+
+    final HydPyServerManager manager = createManager();
+
+    final int members = 3;
+    final List<HydPyModelInstance> instances = new ArrayList<>();
+    for( int member = 0; member < members; member++ )
+      instances.add( manager.getOrCreateInstance( Integer.toString( member ), m_workingDir ) );
+
+    for( int run = 0; run < 8; run++ )
+    {
+      for( int member = 0; member < members; member++ )
+      {
+        final HydPyModelInstance instance = instances.get( member );
+
+        final List<IExchangeItem> values = instance.getItemValues();
+        if( run == 0 )
+          indexById( values ).get( "alpha_0" ).setValuesAsDoubles( new double[] { 10.0 * member } ); //$NON-NLS-1$
+        instance.setItemValues( values );
+        instance.simulate();
+      }
+
+      /* the respawned server has loaded the conditions of the last checkpoint and repeated the simulations since then */
+      for( int member = 0; member < members; member++ )
+        checkSimulated( instances.get( member ), 10.0 * member, run );
+    }
+
+    assertEquals( "the server was not respawned", 2, m_servers.size() ); //$NON-NLS-1$
+  }
+
+  @Test
+  public void conditionsOfFailedInstanceAreNotWritten( ) throws IOException
+  {
+    m_args.setProperty( "serverParseThreads", "2" ); //$NON-NLS-1$ //$NON-NLS-2$
+
+    final HydPyModelInstance instance = createManager().getOrCreateInstance( "0", m_workingDir ); //$NON-NLS-1$
+
+    final List<IExchangeItem> values = instance.getItemValues();
+    indexById( values ).get( "alpha_0" ).setValuesAsDoubles( new double[] { 5.0 } ); //$NON-NLS-1$
+    instance.setItemValues( values );
+    instance.simulate();
+
+    final File conditionsDir = m_tempFolder.newFolder( "conditions" ); //$NON-NLS-1$
+    instance.writeConditions( conditionsDir );
+    instance.simulate();
+
+    /* the next simulation fails, so the state of the instance is unknown */
+    for( final HydPyFakeServer server : m_servers )
+      server.failNextCall( "GET_simulate" ); //$NON-NLS-1$
+    instance.simulate();
+
+    try
+    {
+      instance.writeConditions( m_tempFolder.newFolder( "failed" ) ); //$NON-NLS-1$
+      fail( "expected the failure of the previous simulation" ); //$NON-NLS-1$
+    }
+    catch( final HydPyServerException e )
+    {
+      // expected
+    }
+
+    /* restoring replaces the whole state, so it works again; its response is parsed on the parse threads */
+    instance.restoreInternalState( conditionsDir, false );
+    assertEquals( 5.0, indexById( instance.getItemValues() ).get( "alpha_0" ).getValuesAsDoubles()[0], 0.0 ); //$NON-NLS-1$
+
+    /* simulates from the conditions after the first simulation */
+    instance.simulate();
+    checkSimulated( instance, 5.0, 1 );
+  }
+
+  private void simulateAndCheckEnsemble( final HydPyServerManager manager, final int members )
+  {
+    final List<HydPyModelInstance> instances = new ArrayList<>();
+    for( int member = 0; member < members; member++ )
+      instances.add( manager.getOrCreateInstance( Integer.toString( member ), m_workingDir ) );
+
+    for( int member = 0; member < members; member++ )
+    {
+      final HydPyModelInstance instance = instances.get( member );
+
+      final List<IExchangeItem> values = instance.getItemValues();
+      indexById( values ).get( "alpha_0" ).setValuesAsDoubles( new double[] { 10.0 * member } ); //$NON-NLS-1$
+      instance.setItemValues( values );
+    }
+
+    for( final HydPyModelInstance instance : instances )
+      instance.simulate();
+
+    for( int member = 0; member < members; member++ )
+      checkSimulated( instances.get( member ), 10.0 * member, 0 );
+  }
+
+  /**
+   * The fake model simulates 'alpha + storage + timestep', the storage is the number of the previous simulations.
+   */
+  private static void checkSimulated( final HydPyModelInstance instance, final double alpha, final int storage )
+  {
+    final Map<String, IExchangeItem> values = indexById( instance.getItemValues() );
+
+    final double[] expected = new double[TIMESTEPS];
+    for( int step = 0; step < TIMESTEPS; step++ )
+      expected[step] = alpha + storage + step;
+
+    assertArrayEquals( expected, values.get( "q_0.series" ).getValuesAsDoubles(), 0.0 ); //$NON-NLS-1$
+    assertEquals( alpha, values.get( "alpha_0" ).getValuesAsDoubles()[0], 0.0 ); //$NON-NLS-1$
+  }
+
+  private static Map<String, IExchangeItem> indexById( final List<IExchangeItem> items )
+  {
+    final Map<String, IExchangeItem> index = new HashMap<>();
+    for( final IExchangeItem item : items )
+      index.put( item.getId(), item );
+    return index;
+  }
+}
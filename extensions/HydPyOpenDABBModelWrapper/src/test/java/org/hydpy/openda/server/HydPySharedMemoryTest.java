@@ -0,0 +1,115 @@
+/**
+ * Copyright (c) 2021 by
+ * - Bundesanstalt für Gewässerkunde
+ * - Björnsen Beratende Ingenieure GmbH
+ * All rights reserved.
+ *
+ * This file is Free Software under the under the terms of the
+ * GNU Lesser General Public License (LGPL >=v3)
+ * and comes with ABSOLUTELY NO WARRANTY! Check out the
+ * documentation coming with HydPy for details.
+ */
+package org.hydpy.openda.server;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+
+import org.apache.commons.io.output.NullPrintStream;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.openda.interfaces.IArray;
+import org.openda.utils.Array;
+
+/**
+ * Tests {@link HydPySharedMemory}, the files of the server are simulated by writing them directly.
+ *
+ * @author Gernot Belger
+ */
+public class HydPySharedMemoryTest
+{
+  @Rule
+  public final TemporaryFolder m_tempFolder = new TemporaryFolder();
+
+  private HydPySharedMemory m_sharedMemory;
+
+  @Before
+  public void createSharedMemory( )
+  {
+    m_sharedMemory = new HydPySharedMemory( m_tempFolder.getRoot().toPath(), 0, 4, NullPrintStream.NULL_PRINT_STREAM );
+    m_sharedMemory.enable();
+  }
+
+  @After
+  public void closeSharedMemory( )
+  {
+    m_sharedMemory.close();
+  }
+
+  @Test
+  public void writtenValuesAreRead( )
+  {
+    final double[] values = new double[] { 1.0, Double.NaN, -3.5, 4.0, 5.0, 6.0 };
+
+    final String descriptor = m_sharedMemory.write( "0", "t.series", new Array( values, new int[] { 2, 3 }, false ) ); //$NON-NLS-1$ //$NON-NLS-2$
+
+    final IArray read = m_sharedMemory.read( descriptor );
+    assertArrayEquals( new int[] { 2, 3 }, read.getDimensions() );
+    assertArrayEquals( values, read.getValuesAsDoubles(), 0.0 );
+  }
+
+  @Test
+  public void replacedServerFileIsMappedAgain( ) throws IOException
+  {
+    final Path file = m_tempFolder.getRoot().toPath().resolve( "server.f64" ); //$NON-NLS-1$
+    final String descriptor = String.format( "shm:<f8:0:1:4:%s", file ); //$NON-NLS-1$
+
+    writeServerFile( file, new double[] { 1.0, 2.0, 3.0, 4.0 } );
+    assertArrayEquals( new double[] { 1.0, 2.0, 3.0, 4.0 }, m_sharedMemory.read( descriptor ).getValuesAsDoubles(), 0.0 );
+
+    /* the server deletes and writes the file again, the old mapping would still show the old values */
+    final FileTime firstModified = Files.getLastModifiedTime( file );
+    Files.delete( file );
+    writeServerFile( file, new double[] { 5.0, 6.0, 7.0, 8.0 } );
+    // REMARK: the file key (inode) may be reused at once, make sure the modification time differs even on file systems with coarse time stamps
+    Files.setLastModifiedTime( file, FileTime.fromMillis( firstModified.toMillis() + 2000 ) );
+
+    assertArrayEquals( new double[] { 5.0, 6.0, 7.0, 8.0 }, m_sharedMemory.read( descriptor ).getValuesAsDoubles(), 0.0 );
+  }
+
+  @Test
+  public void onlyTwoDimensionalArraysAreAccepted( )
+  {
+    final double[] values = new double[] { 1.0, 2.0, 3.0, 4.0, 5.0, 6.0 };
+
+    assertTrue( m_sharedMemory.accepts( new Array( values, new int[] { 2, 3 }, false ) ) );
+    assertFalse( m_sharedMemory.accepts( new Array( values, new int[] { 6 }, false ) ) );
+    assertFalse( m_sharedMemory.accepts( new Array( values, new int[] { 1, 2, 3 }, false ) ) );
+
+    /* below the threshold */
+    assertFalse( m_sharedMemory.accepts( new Array( new double[] { 1.0, 2.0 }, new int[] { 1, 2 }, false ) ) );
+  }
+
+  @Test( expected = HydPyServerException.class )
+  public void writeRejectsOtherRanks( )
+  {
+    m_sharedMemory.write( "0", "sm", new Array( new double[] { 1.0, 2.0, 3.0, 4.0 }, new int[] { 4 }, false ) ); //$NON-NLS-1$ //$NON-NLS-2$
+  }
+
+  private static void writeServerFile( final Path file, final double[] values ) throws IOException
+  {
+    final ByteBuffer bytes = ByteBuffer.allocate( values.length * Double.BYTES ).order( ByteOrder.LITTLE_ENDIAN );
+    bytes.asDoubleBuffer().put( values );
+    Files.write( file, bytes.array() );
+  }
+}
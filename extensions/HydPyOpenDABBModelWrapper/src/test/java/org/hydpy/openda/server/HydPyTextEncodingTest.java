@@ -0,0 +1,261 @@
+/**
+ * Copyright (c) 2021 by
+ * - Bundesanstalt für Gewässerkunde
+ * - Björnsen Beratende Ingenieure GmbH
+ * All rights reserved.
+ *
+ * This file is Free Software under the under the terms of the
+ * GNU Lesser General Public License (LGPL >=v3)
+ * and comes with ABSOLUTELY NO WARRANTY! Check out the
+ * documentation coming with HydPy for details.
+ */
+package org.hydpy.openda.server;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.util.Random;
+
+import org.joda.time.Instant;
+import org.junit.Test;
+import org.openda.interfaces.IArray;
+import org.openda.interfaces.IExchangeItem.Role;
+import org.openda.utils.Array;
+
+/**
+ * Round trips of the text and the binary encoding exchanged with HydPy (see {@link HydPyBinaryEncoding}), i.e. values printed by the wrapper must be parsed
+ * back to exactly the same values.
+ *
+ * @author Gernot Belger
+ */
+public class HydPyTextEncodingTest
+{
+  private static final Instant START_TIME = Instant.parse( "2000-01-01T00:00:00Z" ); //$NON-NLS-1$
+
+  private static final long STEP_SECONDS = 24 * 60 * 60;
+
+  @Test
+  public void doubleArrayRoundTrip( )
+  {
+    final double[] values = new double[] { 0.0, -0.0, 1.0, -1.5, Math.PI, 1e-300, -1.7976931348623157e308, Double.MIN_VALUE, Double.NaN, 123456789.123456789 };
+
+    final String text = HydPyUtils.printDoubleArray( values );
+
+    assertArrayEquals( values, HydPyUtils.parseDoubleArray( text ), 0.0 );
+  }
+
+  @Test
+  public void emptyDoubleArrayRoundTrip( )
+  {
+    final String text = HydPyUtils.printDoubleArray( new double[0] );
+
+    assertEquals( "[]", text ); //$NON-NLS-1$
+    assertEquals( 0, HydPyUtils.parseDoubleArray( text ).length );
+  }
+
+  @Test
+  public void parsesHydPyNotation( )
+  {
+    final double[] values = HydPyUtils.parseDoubleArray( "[1, 2.5,nan, NaN ,-3e-2]" ); //$NON-NLS-1$
+
+    assertArrayEquals( new double[] { 1.0, 2.5, Double.NaN, Double.NaN, -0.03 }, values, 0.0 );
+  }
+
+  @Test
+  public void writerPrintsSameAsString( ) throws IOException
+  {
+    // REMARK: more values than one chunk of the writer
+    final double[] values = randomValues( 10000 );
+
+    final StringWriter writer = new StringWriter();
+    HydPyUtils.printDoubleArray( writer, values );
+
+    assertEquals( HydPyUtils.printDoubleArray( values ), writer.toString() );
+    assertArrayEquals( values, HydPyUtils.parseDoubleArray( writer.toString() ), 0.0 );
+  }
+
+  @Test
+  public void transposedArrayRoundTrip( ) throws IOException
+  {
+    final int rows = 7;
+    final int columns = 3;
+    final double[] values = randomValues( rows * columns );
+    values[4] = Double.NaN;
+
+    final String text = HydPyUtils.printDoubleArray2DTransposed( values, rows, columns );
+
+    final StringWriter writer = new StringWriter();
+    HydPyUtils.printDoubleArray2DTransposed( writer, values, rows, columns );
+    assertEquals( text, writer.toString() );
+
+    /* printed as one list per column, parsing and swapping back gives the original layout */
+    final IArray parsed = HydPyUtils.parseArrayFromJson( text );
+    assertArrayEquals( new int[] { columns, rows }, parsed.getDimensions() );
+
+    final IArray swapped = HydPyUtils.swapArray2D( parsed );
+    assertArrayEquals( new int[] { rows, columns }, swapped.getDimensions() );
+    assertArrayEquals( values, swapped.getValuesAsDoubles(), 0.0 );
+  }
+
+  @Test
+  public void timeseries0DRoundTrip( ) throws HydPyServerException
+  {
+    final Timeseries0DItem item = new Timeseries0DItem( "q.series", Role.InOut, false ); //$NON-NLS-1$
+
+    final double[] values = randomValues( 10 );
+    final Instant endTime = START_TIME.plus( values.length * STEP_SECONDS * 1000 );
+
+    final Timeseries0D value = item.parseValue( START_TIME, endTime, STEP_SECONDS, HydPyUtils.printDoubleArray( values ) );
+    final Timeseries0D parsed = item.parseValue( START_TIME, endTime, STEP_SECONDS, item.printValue( value ) );
+
+    assertArrayEquals( values, parsed.getValues(), 0.0 );
+    assertArrayEquals( value.getTimes(), parsed.getTimes(), 0.0 );
+  }
+
+  @Test
+  public void timeseries1DRoundTrip( ) throws IOException
+  {
+    final int steps = 12;
+    final int elements = 4;
+    final Instant endTime = START_TIME.plus( steps * STEP_SECONDS * 1000 );
+
+    final double[] values = randomValues( steps * elements );
+    final double[] times = HydPyUtils.buildTimes( steps, START_TIME, STEP_SECONDS, endTime );
+    final Timeseries1D timeseries = new Timeseries1D( times, new Array( values, new int[] { steps, elements }, false ), false );
+
+    final String text = timeseries.printHydPy();
+
+    final StringWriter writer = new StringWriter();
+    timeseries.printHydPy( writer );
+    assertEquals( text, writer.toString() );
+
+    final Timeseries1D parsed = Timeseries1D.fromHydPy( START_TIME, endTime, STEP_SECONDS, text );
+
+    assertArrayEquals( times, parsed.getTimes(), 0.0 );
+    assertArrayEquals( new int[] { steps, elements }, parsed.getValues().getDimensions() );
+    assertArrayEquals( values, parsed.getValues().getValuesAsDoubles(), 0.0 );
+  }
+
+  @Test
+  public void binaryDouble0DRoundTrip( ) throws IOException
+  {
+    final Double0DItem item = new Double0DItem( "alpha", Role.InOut, false ); //$NON-NLS-1$
+
+    for( final double value : new double[] { 0.0, -0.0, Math.PI, Double.MIN_VALUE, Double.NaN, Double.NEGATIVE_INFINITY } )
+    {
+      final StringWriter writer = new StringWriter();
+      item.printBinaryValue( value, writer );
+
+      assertTrue( writer.toString(), HydPyBinaryEncoding.isEncoded( writer.toString() ) );
+      assertEquals( Double.valueOf( value ), item.parseValue( null, null, 0, writer.toString() ) );
+    }
+  }
+
+  @Test
+  public void binaryDouble1DRoundTrip( ) throws IOException
+  {
+    final Double1DItem item = new Double1DItem( "sm", Role.InOut, false ); //$NON-NLS-1$
+
+    // REMARK: more values than one chunk of the writer, and a size that is not a multiple of it
+    final double[] values = randomValues( 1000 );
+    values[0] = Double.NaN;
+    values[999] = -0.0;
+
+    final StringWriter writer = new StringWriter();
+    item.printBinaryValue( values, writer );
+
+    assertTrue( HydPyBinaryEncoding.isEncoded( writer.toString() ) );
+    assertArrayEquals( values, item.parseValue( null, null, 0, writer.toString() ), 0.0 );
+
+    /* the same item still parses the text format */
+    assertArrayEquals( values, item.parseValue( null, null, 0, item.printValue( values ) ), 0.0 );
+  }
+
+  @Test
+  public void binaryEmptyArrayRoundTrip( ) throws IOException
+  {
+    final StringWriter writer = new StringWriter();
+    HydPyBinaryEncoding.print( writer, new double[0], 0 );
+
+    assertEquals( 0, HydPyBinaryEncoding.parseDoubleArray( writer.toString() ).length );
+  }
+
+  @Test
+  public void binaryTimeseries0DRoundTrip( ) throws IOException
+  {
+    final Timeseries0DItem item = new Timeseries0DItem( "q.series", Role.InOut, false ); //$NON-NLS-1$
+
+    final double[] values = randomValues( 10 );
+    final Instant endTime = START_TIME.plus( values.length * STEP_SECONDS * 1000 );
+
+    final Timeseries0D value = item.parseValue( START_TIME, endTime, STEP_SECONDS, HydPyUtils.printDoubleArray( values ) );
+
+    final StringWriter writer = new StringWriter();
+    item.printBinaryValue( value, writer );
+    final Timeseries0D parsed = item.parseValue( START_TIME, endTime, STEP_SECONDS, writer.toString() );
+
+    assertArrayEquals( values, parsed.getValues(), 0.0 );
+    assertArrayEquals( value.getTimes(), parsed.getTimes(), 0.0 );
+  }
+
+  @Test
+  public void binaryTimeseries1DRoundTrip( ) throws IOException
+  {
+    // REMARK: more values than one chunk, so chunks span several elements
+    final int steps = 100;
+    final int elements = 7;
+    final Instant endTime = START_TIME.plus( steps * STEP_SECONDS * 1000 );
+
+    final double[] values = randomValues( steps * elements );
+    values[13] = Double.NaN;
+    final double[] times = HydPyUtils.buildTimes( steps, START_TIME, STEP_SECONDS, endTime );
+    final Timeseries1D timeseries = new Timeseries1D( times, new Array( values, new int[] { steps, elements }, false ), false );
+
+    final StringWriter writer = new StringWriter();
+    timeseries.printHydPyBinary( writer );
+
+    /* same layout as the text format, i.e. one row per element */
+    final IArray hydPyArray = HydPyBinaryEncoding.parseArray2D( writer.toString() );
+    final IArray textArray = HydPyUtils.parseArrayFromJson( timeseries.printHydPy() );
+    assertArrayEquals( textArray.getDimensions(), hydPyArray.getDimensions() );
+    assertArrayEquals( textArray.getValuesAsDoubles(), hydPyArray.getValuesAsDoubles(), 0.0 );
+
+    final Timeseries1D parsed = Timeseries1D.fromHydPy( START_TIME, endTime, STEP_SECONDS, writer.toString() );
+
+    assertArrayEquals( times, parsed.getTimes(), 0.0 );
+    assertArrayEquals( new int[] { steps, elements }, parsed.getValues().getDimensions() );
+    assertArrayEquals( values, parsed.getValues().getValuesAsDoubles(), 0.0 );
+  }
+
+  @Test( expected = HydPyServerException.class )
+  public void binaryShapeMismatchFails( ) throws IOException
+  {
+    final StringWriter writer = new StringWriter();
+    HydPyBinaryEncoding.print( writer, new double[] { 1.0, 2.0, 3.0 }, 4 );
+
+    HydPyBinaryEncoding.parseDoubleArray( writer.toString() );
+  }
+
+  @Test( expected = HydPyServerException.class )
+  public void binaryRankMismatchFails( ) throws IOException
+  {
+    final StringWriter writer = new StringWriter();
+    HydPyBinaryEncoding.print( writer, new double[] { 1.0, 2.0, 3.0, 4.0 }, 2, 2 );
+
+    HydPyBinaryEncoding.parseDoubleArray( writer.toString() );
+  }
+
+  private static double[] randomValues( final int count )
+  {
+    final Random random = new Random( 42 );
+
+    final double[] values = new double[count];
+    for( int i = 0; i < count; i++ )
+      values[i] = (random.nextDouble() - 0.5) * Math.pow( 10, random.nextInt( 20 ) - 10 );
+
+    return values;
+  }
+}